@@ -0,0 +1,363 @@
+package com.tibudget.plugins.csv;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.ParsePosition;
+import java.util.Locale;
+
+/**
+ * Parses amounts into scaled longs: with a scale of 2, <code>-101,10</code> is parsed as <code>-10110</code>.
+ * <p>
+ * Simple number formats (made of <code>#</code>, <code>0</code>, <code>,</code> and <code>.</code>, like the
+ * ones found by {@link CsvFormatAnalyzer}) are parsed by scanning the text, without any allocation. The
+ * scanner accepts a sign, grouping separators between groups of 3 digits (space, no-break space, apostrophe and
+ * the separator that is not the decimal one), a currency symbol before or after the number and surrounding
+ * spaces. Other formats are parsed by a {@link DecimalFormat} built once.
+ * <p>
+ * Amounts with more decimals than the scale are rounded half even, they are counted by
+ * {@link #getRoundedCount()}.
+ * <p>
+ * Instances are not thread safe, use one per thread.
+ */
+public abstract class AmountParser {
+
+    /**
+     * Returned by {@link #parse(CharSequence)} when the text is not a valid amount.
+     */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    /**
+     * Maximum scale, amounts are limited to 9 223 372 036 854 with this scale.
+     */
+    public static final int MAX_SCALE = 6;
+
+    /**
+     * Minimum scale, so cents are never lost.
+     */
+    public static final int DEFAULT_SCALE = 2;
+
+    static final long[] POWERS_OF_TEN = new long[MAX_SCALE + 1];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i <= MAX_SCALE; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    final int scale;
+
+    /**
+     * Index of the first char that could not be parsed by the last call to {@link #parse(CharSequence)}.
+     */
+    int errorIndex = -1;
+
+    /**
+     * Number of parsed amounts that had more decimals than the scale.
+     */
+    long roundedCount;
+
+    AmountParser(int scale) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("Scale must be between 0 and " + MAX_SCALE + ": " + scale);
+        }
+        this.scale = scale;
+    }
+
+    /**
+     * @param numberFormat A {@link DecimalFormat} pattern (null for a plain number with a dot)
+     * @param decimalSeparator The decimal separator
+     * @param scale Number of decimals of the parsed values, values with more decimals are rounded
+     * @return The fastest parser for this format
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    public static AmountParser compile(String numberFormat, char decimalSeparator, int scale) {
+        if (numberFormat == null) {
+            return new ScanningAmountParser('.', scale);
+        }
+        if (ScanningAmountParser.isSupported(numberFormat)) {
+            return new ScanningAmountParser(decimalSeparator, scale);
+        }
+        return new DecimalFormatAmountParser(numberFormat, decimalSeparator, scale);
+    }
+
+    /**
+     * @param numberFormat A {@link DecimalFormat} pattern (may be null)
+     * @return The scale to use for this format: its maximum number of decimals, at least {@link #DEFAULT_SCALE}
+     */
+    public static int scaleOf(String numberFormat) {
+        int decimals = 0;
+        if (numberFormat != null) {
+            int dot = numberFormat.indexOf('.');
+            for (int i = dot + 1; dot >= 0 && i < numberFormat.length(); i++) {
+                char c = numberFormat.charAt(i);
+                if (c == '#' || c == '0') {
+                    decimals++;
+                }
+            }
+        }
+        return Math.min(MAX_SCALE, Math.max(DEFAULT_SCALE, decimals));
+    }
+
+    /**
+     * @param text The text to parse
+     * @return The amount multiplied by 10^scale or {@link #INVALID} if the text is not a valid amount
+     */
+    public abstract long parse(CharSequence text);
+
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * @return The number of amounts parsed so far that had more decimals than the scale and were rounded
+     */
+    public long getRoundedCount() {
+        return roundedCount;
+    }
+
+    /**
+     * @return The part of the text that could be parsed by the last failed call to {@link #parse(CharSequence)}
+     */
+    public String getParsedPrefix(CharSequence text) {
+        return text.subSequence(0, Math.max(0, Math.min(errorIndex, text.length()))).toString();
+    }
+
+    /**
+     * @param amount An amount multiplied by 10^scale
+     * @return The nearest double
+     */
+    public double toDouble(long amount) {
+        return toDouble(amount, scale);
+    }
+
+    /**
+     * @param amount An amount multiplied by 10^scale
+     * @param scale The scale of the amount
+     * @return The nearest double
+     */
+    public static double toDouble(long amount, int scale) {
+        // Both values are exact (below 2^53) so the division is correctly rounded
+        return amount / (double) POWERS_OF_TEN[scale];
+    }
+
+    /**
+     * Parser scanning the chars of the text.
+     */
+    static final class ScanningAmountParser extends AmountParser {
+
+        private static final char NBSP = '\u00A0';
+        private static final char NARROW_NBSP = '\u202F';
+
+        private final char decimalSeparator;
+        private final char otherSeparator;
+
+        ScanningAmountParser(char decimalSeparator, int scale) {
+            super(scale);
+            this.decimalSeparator = decimalSeparator;
+            this.otherSeparator = decimalSeparator == '.' ? ',' : '.';
+        }
+
+        /**
+         * @return true if the pattern only defines the decimal and grouping separators
+         */
+        static boolean isSupported(String numberFormat) {
+            if (numberFormat.isEmpty()) {
+                return false;
+            }
+            int dots = 0;
+            for (int i = 0; i < numberFormat.length(); i++) {
+                char c = numberFormat.charAt(i);
+                if (c == '.') {
+                    dots++;
+                }
+                else if (c != '#' && c != '0' && c != ',') {
+                    return false;
+                }
+            }
+            return dots <= 1;
+        }
+
+        @Override
+        public long parse(CharSequence text) {
+            int length = text.length();
+            int i = 0;
+            boolean negative = false;
+            boolean sign = false;
+            boolean currency = false;
+            // Prefix: padding, sign and currency symbol in any order
+            for (; i < length; i++) {
+                char c = text.charAt(i);
+                if ((c == '-' || c == '+') && !sign) {
+                    sign = true;
+                    negative = c == '-';
+                }
+                else if (isCurrency(c) && !currency) {
+                    currency = true;
+                }
+                else if (!isPadding(c)) {
+                    break;
+                }
+            }
+            // Integer part
+            long value = 0;
+            int digits = 0;
+            char grouping = 0;
+            int groupLength = -1;
+            for (; i < length; i++) {
+                char c = text.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    int digit = c - '0';
+                    if (value > (Long.MAX_VALUE - digit) / 10) {
+                        return error(i);
+                    }
+                    value = value * 10 + digit;
+                    digits++;
+                    if (groupLength >= 0) {
+                        groupLength++;
+                    }
+                }
+                else if (digits > 0 && (grouping == 0 ? isGrouping(c) : c == grouping)
+                        && i + 1 < length && isDigit(text.charAt(i + 1))) {
+                    // The first group has 1 to 3 digits, the next ones exactly 3
+                    if (groupLength < 0 ? digits > 3 : groupLength != 3) {
+                        return error(i);
+                    }
+                    grouping = c;
+                    groupLength = 0;
+                }
+                else {
+                    break;
+                }
+            }
+            if (groupLength >= 0 && groupLength != 3) {
+                return error(i);
+            }
+            // Decimal part
+            int decimals = 0;
+            // First digit after the scale, -1 if there is none, and whether one of the next digits is not 0
+            int roundingDigit = -1;
+            boolean sticky = false;
+            if (i < length && text.charAt(i) == decimalSeparator) {
+                i++;
+                for (; i < length; i++) {
+                    char c = text.charAt(i);
+                    if (c < '0' || c > '9') {
+                        break;
+                    }
+                    int digit = c - '0';
+                    if (decimals < scale) {
+                        if (value > (Long.MAX_VALUE - digit) / 10) {
+                            return error(i);
+                        }
+                        value = value * 10 + digit;
+                        decimals++;
+                    }
+                    else if (roundingDigit < 0) {
+                        roundingDigit = digit;
+                    }
+                    else if (digit != 0) {
+                        sticky = true;
+                    }
+                    digits++;
+                }
+            }
+            if (digits == 0) {
+                return error(i);
+            }
+            long factor = POWERS_OF_TEN[scale - decimals];
+            if (value > Long.MAX_VALUE / factor) {
+                return error(i);
+            }
+            value *= factor;
+            if (roundingDigit > 0 || sticky) {
+                // More precision than the scale: round half even
+                if (roundingDigit > 5 || roundingDigit == 5 && (sticky || (value & 1) == 1)) {
+                    if (value == Long.MAX_VALUE) {
+                        return error(i);
+                    }
+                    value++;
+                }
+                roundedCount++;
+            }
+            // Suffix: padding and currency symbol
+            for (; i < length; i++) {
+                char c = text.charAt(i);
+                if (isCurrency(c) && !currency) {
+                    currency = true;
+                }
+                else if (!isPadding(c)) {
+                    return error(i);
+                }
+            }
+            errorIndex = -1;
+            return negative ? -value : value;
+        }
+
+        private long error(int index) {
+            errorIndex = index;
+            return INVALID;
+        }
+
+        private boolean isGrouping(char c) {
+            return c == otherSeparator || c == ' ' || c == NBSP || c == NARROW_NBSP || c == '\'';
+        }
+
+        private static boolean isDigit(char c) {
+            return c >= '0' && c <= '9';
+        }
+
+        private static boolean isPadding(char c) {
+            return c <= ' ' || c == NBSP || c == NARROW_NBSP;
+        }
+
+        private static boolean isCurrency(char c) {
+            return c >= 0x80 ? Character.getType(c) == Character.CURRENCY_SYMBOL : c == '$';
+        }
+    }
+
+    /**
+     * Fallback parser for the formats that cannot be scanned.
+     */
+    static final class DecimalFormatAmountParser extends AmountParser {
+
+        private final DecimalFormat format;
+
+        private final ParsePosition pp = new ParsePosition(0);
+
+        DecimalFormatAmountParser(String numberFormat, char decimalSeparator, int scale) {
+            super(scale);
+            DecimalFormatSymbols symb = new DecimalFormatSymbols(Locale.US);
+            symb.setDecimalSeparator(decimalSeparator);
+            this.format = new DecimalFormat(numberFormat, symb);
+            this.format.setParseBigDecimal(true);
+        }
+
+        @Override
+        public long parse(CharSequence text) {
+            String str = text.toString();
+            pp.setIndex(0);
+            pp.setErrorIndex(-1);
+            Number number = format.parse(str, pp);
+            if (number == null || pp.getIndex() != str.length()) {
+                errorIndex = pp.getIndex();
+                return INVALID;
+            }
+            try {
+                BigDecimal value = ((BigDecimal) number).movePointRight(scale);
+                if (value.scale() > 0 && value.stripTrailingZeros().scale() > 0) {
+                    // More precision than the scale
+                    value = value.setScale(0, RoundingMode.HALF_EVEN);
+                    roundedCount++;
+                }
+                errorIndex = -1;
+                return value.longValueExact();
+            } catch (ArithmeticException e) {
+                // Too big
+                errorIndex = str.length();
+                return INVALID;
+            }
+        }
+    }
+}
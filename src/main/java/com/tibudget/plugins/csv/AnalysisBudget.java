@@ -0,0 +1,80 @@
+package com.tibudget.plugins.csv;
+
+/**
+ * Limits of the work done by {@link CsvFormatAnalyzer} to guess the format of a file.
+ * <p>
+ * Files bigger than {@link #getMaxBytes()} are not read entirely: rows are sampled from the start of the file
+ * and from evenly spaced places after it. Sampling also stops after {@link #getMaxMillis()}, and each decision
+ * (date format, number format) stops reading values once it reached {@link #getMinConfidence()}.
+ */
+public final class AnalysisBudget {
+
+    /**
+     * Budget used when none is given: 1 MB, 2 seconds and full confidence.
+     */
+    public static final AnalysisBudget DEFAULT = new AnalysisBudget(1024 * 1024, 2000, 1.0);
+
+    private final long maxBytes;
+
+    private final long maxMillis;
+
+    private final double minConfidence;
+
+    /**
+     * @param maxBytes Maximum number of bytes read from the file (at least 1 KB)
+     * @param maxMillis Maximum time spent reading rows, in milliseconds
+     * @param minConfidence Confidence, between 0 and 1, at which a decision stops reading values
+     */
+    public AnalysisBudget(long maxBytes, long maxMillis, double minConfidence) {
+        if (maxBytes < 1024) {
+            throw new IllegalArgumentException("At least 1 KB must be read: " + maxBytes);
+        }
+        if (maxMillis < 0) {
+            throw new IllegalArgumentException("Time budget cannot be negative: " + maxMillis);
+        }
+        if (minConfidence < 0 || minConfidence > 1) {
+            throw new IllegalArgumentException("Confidence must be between 0 and 1: " + minConfidence);
+        }
+        this.maxBytes = maxBytes;
+        this.maxMillis = maxMillis;
+        this.minConfidence = minConfidence;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    public double getMinConfidence() {
+        return minConfidence;
+    }
+
+    /**
+     * @return The number of consistent values a decision needs to reach the minimum confidence
+     */
+    int getMinEvidence() {
+        return Math.max(1, (int) Math.ceil(minConfidence * DateFormatUtils.MIN_EVIDENCE));
+    }
+
+    /**
+     * Confidence of a decision: it grows with the number of values read until {@link DateFormatUtils#MIN_EVIDENCE}
+     * values, and it is divided by the number of choices still possible after reading them.
+     * @param evidence Number of values read
+     * @param choices Number of formats accepting all of them
+     * @return The confidence, between 0 and 1
+     */
+    static double confidence(long evidence, int choices) {
+        if (choices <= 0) {
+            return 0.0;
+        }
+        return Math.min(1.0, evidence / (double) DateFormatUtils.MIN_EVIDENCE) / choices;
+    }
+
+    @Override
+    public String toString() {
+        return "maxBytes=" + maxBytes + " maxMillis=" + maxMillis + " minConfidence=" + minConfidence;
+    }
+}
@@ -0,0 +1,87 @@
+package com.tibudget.plugins.csv;
+
+/**
+ * Bloom filter of 64-bit hashes: {@link #mightContain(long)} never misses an added value, but it may accept a
+ * value that was not added with a probability set at construction.
+ * <p>
+ * Bit positions are derived from the hash and its high half (Kirsch and Mitzenmacher double hashing), so the
+ * values must already be well mixed hashes. It is not thread safe, but {@link #mightContain(long)} can be called
+ * by several threads once the filter is no longer modified.
+ */
+final class BloomFilter {
+
+    private final long[] words;
+
+    private final long bitCount;
+
+    private final int hashCount;
+
+    private long size;
+
+    /**
+     * @param expectedSize Number of values the filter is sized for
+     * @param falsePositiveRate Probability to accept a value that was not added, once it holds
+     * <code>expectedSize</code> values
+     */
+    BloomFilter(long expectedSize, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + falsePositiveRate);
+        }
+        long n = Math.max(1, expectedSize);
+        // m = -n ln(p) / ln(2)^2 and k = m / n ln(2)
+        long bits = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, (bits + 63) / 64);
+        this.words = new long[Math.max(1, words)];
+        this.bitCount = (long) this.words.length * 64;
+        this.hashCount = (int) Math.max(1, Math.min(16, Math.round((double) bitCount / n * Math.log(2))));
+    }
+
+    BloomFilter(long[] words, int hashCount, long size) {
+        this.words = words;
+        this.bitCount = (long) words.length * 64;
+        this.hashCount = hashCount;
+        this.size = size;
+    }
+
+    void add(long hash) {
+        long h2 = (hash >>> 32) | 1;
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = Long.remainderUnsigned(hash + i * h2, bitCount);
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        size++;
+    }
+
+    boolean mightContain(long hash) {
+        long h2 = (hash >>> 32) | 1;
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = Long.remainderUnsigned(hash + i * h2, bitCount);
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of added values (counting the same value as many times as it was added)
+     */
+    long size() {
+        return size;
+    }
+
+    int getHashCount() {
+        return hashCount;
+    }
+
+    long[] getWords() {
+        return words;
+    }
+
+    /**
+     * @return The size of the bits in bytes
+     */
+    long getMemorySize() {
+        return (long) words.length * Long.BYTES;
+    }
+}
@@ -0,0 +1,179 @@
+package com.tibudget.plugins.csv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+
+/**
+ * Finds the charset of a CSV file from its first bytes.
+ * <p>
+ * A UTF-8 byte order mark is used when there is one. Otherwise the prefix is validated as UTF-8 (files with
+ * only ASCII chars are UTF-8 too) and, if it is not valid, the file is read as windows-1252, the charset of the
+ * exports of most French banks. ISO-8859-1 is used instead if the prefix has bytes that windows-1252 does not
+ * define. Only charsets where ASCII chars are single bytes are detected since {@link CsvTokenizer} looks for
+ * separators and quotes in the raw bytes.
+ */
+final class CharsetDetector {
+
+    /**
+     * Number of bytes read from the start of the file.
+     */
+    static final int PREFIX_SIZE = 64 * 1024;
+
+    static final Charset WINDOWS_1252 = windows1252();
+
+    private static final byte[] UTF8_BOM = new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+    /**
+     * Charset of a file and length of its byte order mark.
+     */
+    static final class Detection {
+
+        private final Charset charset;
+
+        private final int bomLength;
+
+        Detection(Charset charset, int bomLength) {
+            this.charset = charset;
+            this.bomLength = bomLength;
+        }
+
+        Charset getCharset() {
+            return charset;
+        }
+
+        /**
+         * @return The number of bytes to skip at the start of the file
+         */
+        int getBomLength() {
+            return bomLength;
+        }
+    }
+
+    private CharsetDetector() {
+    }
+
+    /**
+     * @param channel The file
+     * @param start Offset of the first byte of the file content
+     */
+    static Detection detect(FileChannel channel, long start) throws IOException {
+        long size = Math.min(PREFIX_SIZE, channel.size() - start);
+        if (size <= 0) {
+            return new Detection(CsvCollector.DEFAULT_CHARSET, 0);
+        }
+        return detect(channel.map(FileChannel.MapMode.READ_ONLY, start, size), size < PREFIX_SIZE);
+    }
+
+    /**
+     * @param prefix The first bytes of the file, from its position to its limit
+     * @param complete True if the prefix is the whole file, so a truncated UTF-8 sequence at its end is an error
+     */
+    static Detection detect(ByteBuffer prefix, boolean complete) {
+        int from = prefix.position();
+        int to = prefix.limit();
+        if (to - from >= UTF8_BOM.length && prefix.get(from) == UTF8_BOM[0] && prefix.get(from + 1) == UTF8_BOM[1]
+                && prefix.get(from + 2) == UTF8_BOM[2]) {
+            return new Detection(StandardCharsets.UTF_8, UTF8_BOM.length);
+        }
+        if (isUtf8(prefix, from, to, complete)) {
+            return new Detection(StandardCharsets.UTF_8, 0);
+        }
+        for (int i = from; i < to; i++) {
+            int b = prefix.get(i) & 0xFF;
+            if (b == 0x81 || b == 0x8D || b == 0x8F || b == 0x90 || b == 0x9D) {
+                // Not defined in windows-1252
+                return new Detection(StandardCharsets.ISO_8859_1, 0);
+            }
+        }
+        return new Detection(WINDOWS_1252, 0);
+    }
+
+    /**
+     * Checks that bytes are valid UTF-8: no overlong encoding, no surrogate and no code point above U+10FFFF.
+     */
+    static boolean isUtf8(ByteBuffer bytes, int from, int to, boolean complete) {
+        int i = from;
+        while (i < to) {
+            int b = bytes.get(i) & 0xFF;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            int length;
+            int min;
+            if (b >= 0xC2 && b <= 0xDF) {
+                length = 2;
+                min = 0x80;
+            }
+            else if (b >= 0xE0 && b <= 0xEF) {
+                length = 3;
+                min = 0x800;
+            }
+            else if (b >= 0xF0 && b <= 0xF4) {
+                length = 4;
+                min = 0x10000;
+            }
+            else {
+                return false;
+            }
+            if (i + length > to) {
+                // Sequence cut by the end of the prefix
+                return !complete && isContinuation(bytes, i + 1, to);
+            }
+            int codePoint = b & (0xFF >> (length + 1));
+            for (int k = 1; k < length; k++) {
+                int c = bytes.get(i + k) & 0xFF;
+                if ((c & 0xC0) != 0x80) {
+                    return false;
+                }
+                codePoint = (codePoint << 6) | (c & 0x3F);
+            }
+            if (codePoint < min || codePoint > 0x10FFFF || (codePoint >= 0xD800 && codePoint <= 0xDFFF)) {
+                return false;
+            }
+            i += length;
+        }
+        return true;
+    }
+
+    private static boolean isContinuation(ByteBuffer bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if ((bytes.get(i) & 0xC0) != 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return True if the chars <code>0x00</code> to <code>0x7F</code> are encoded as the same single bytes
+     */
+    static boolean isAsciiCompatible(Charset charset) {
+        byte[] ascii = new byte[0x80];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (byte) i;
+        }
+        String decoded = new String(ascii, charset);
+        if (decoded.length() != ascii.length) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length; i++) {
+            if (decoded.charAt(i) != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Charset windows1252() {
+        try {
+            return Charset.forName("windows-1252");
+        } catch (UnsupportedCharsetException e) {
+            return StandardCharsets.ISO_8859_1;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package com.tibudget.plugins.csv;
+
+import com.tibudget.api.exceptions.CollectError;
+import com.tibudget.api.exceptions.ParameterError;
+import com.tibudget.dto.AccountDto;
+import com.tibudget.dto.MessageDto;
+import com.tibudget.dto.OperationDto;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Imports several CSV files into the same account, for instance a folder of monthly exports. Files are imported
+ * concurrently by {@link CsvCollector}s (in auto mode unless a {@link #setCollectorConfigurer(Consumer) configurer}
+ * changes it), but operations are sent in the order of the files (and of the rows in each file), so the files must
+ * be given in chronological order.
+ * <p>
+ * Operations are sent by the thread calling {@link #collect()}, as soon as the files before are sent: the import
+ * of a file hands its batches over through a queue of {@link #PENDING_BATCHES} batches and waits when it is full,
+ * so whole files are not kept in memory.
+ * <p>
+ * The format of each distinct header is detected once: before the import, the first file of each group of files
+ * in auto mode with the same fingerprint (see {@link CsvFormatCache}) is analyzed and the other files of the group
+ * get its format from the cache.
+ * <p>
+ * On Java 21 and later files are imported by virtual threads, otherwise by a pool of platform threads. In both
+ * cases only the next {@link #getConcurrency()} files to send are submitted, so at most that many files are
+ * analyzed or imported at the same time.
+ * <p>
+ * If sending the operations fails, the imports still running are cancelled: their pending batches are dropped
+ * and they stop at their next batch, so no thread is left waiting on a full queue.
+ */
+public class CsvBatchCollector {
+
+    private static final Logger LOG = Logger.getLogger(CsvBatchCollector.class.getName());
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /**
+     * Number of batches of a file waiting to be sent before its import waits.
+     */
+    static final int PENDING_BATCHES = 4;
+
+    /**
+     * Time after which an import waiting for a free slot checks whether the batch is cancelled.
+     */
+    private static final long CANCEL_CHECK_MILLIS = 100;
+
+    private final List<File> files;
+
+    private final AccountDto account;
+
+    private final List<OperationDto> operations = new ArrayList<>();
+
+    /**
+     * Where the operations are sent, by default they are added to {@link #getOperations()}.
+     */
+    private OperationSink operationSink;
+
+    private int batchSize = CsvCollector.DEFAULT_BATCH_SIZE;
+
+    /**
+     * Maximum number of files imported at the same time.
+     */
+    private int concurrency = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Cache of the formats of the files, null to use a cache for this batch only.
+     */
+    private CsvFormatCache formatCache = CsvFormatCache.getShared();
+
+    /**
+     * Called with the collector of each file before it is validated, null to keep the defaults.
+     */
+    private Consumer<CsvCollector> collectorConfigurer;
+
+    /**
+     * @param files The files to import, in chronological order
+     * @param account The account of the operations, its balance is updated once the operations of each file are
+     * sent
+     */
+    public CsvBatchCollector(List<File> files, AccountDto account) {
+        if (files == null || files.isEmpty()) {
+            throw new IllegalArgumentException("No file to import");
+        }
+        if (account == null) {
+            throw new IllegalArgumentException("No account");
+        }
+        this.files = new ArrayList<>(files);
+        this.account = account;
+    }
+
+    /**
+     * Checks the parameters of the import of each file (see {@link CsvCollector#validate()}).
+     * @return The messages of all the files, empty if the files can be imported
+     */
+    public List<MessageDto> validate() {
+        List<MessageDto> messages = new ArrayList<>();
+        for (File file : this.files) {
+            messages.addAll(newCollector(file).validate());
+        }
+        return messages;
+    }
+
+    /**
+     * Imports the files. If the import of a file fails, the operations of the files before it, and the ones of
+     * the failed file parsed before the error, are still sent and the error is thrown.
+     * @throws ParameterError If the parameters of the import of a file are not valid (see {@link #validate()}),
+     * nothing is imported then
+     */
+    public void collect() throws CollectError, ParameterError {
+        CsvCollector[] collectors = new CsvCollector[this.files.size()];
+        for (int i = 0; i < collectors.length; i++) {
+            File file = this.files.get(i);
+            collectors[i] = newCollector(file);
+            List<MessageDto> messages = collectors[i].validate();
+            if (!messages.isEmpty()) {
+                LOG.warning("Cannot import " + file + ": " + messages.size() + " invalid parameters");
+                throw new ParameterError("files", "form.error.files.invalid", file.getName());
+            }
+        }
+        CsvFormatCache cache = this.formatCache != null ? this.formatCache : new CsvFormatCache(this.files.size());
+        ExecutorService executor = newExecutor(this.concurrency);
+        List<FileSink> sinks = new ArrayList<>(this.files.size());
+        try {
+            detectFormats(collectors, cache, executor);
+
+            OperationSink sink = this.operationSink != null ? this.operationSink : this.operations::addAll;
+            double initialBalance = this.account.getCurrentBalance();
+            BigDecimal total = BigDecimal.ZERO;
+            List<Future<CsvCollector>> imports = new ArrayList<>(this.files.size());
+            for (int i = 0; i < this.files.size(); i++) {
+                // The files imported are the next ones to send, so the import of this one is never waiting for
+                // a file after it
+                while (imports.size() < this.files.size() && imports.size() < i + this.concurrency) {
+                    CsvCollector collector = collectors[imports.size()];
+                    collectors[imports.size()] = null;
+                    FileSink fileSink = new FileSink();
+                    collector.setFormatCache(cache);
+                    collector.setOperationSink(fileSink);
+                    sinks.add(fileSink);
+                    imports.add(executor.submit(() -> {
+                        try {
+                            collector.collect(null);
+                            return collector;
+                        } finally {
+                            fileSink.end();
+                        }
+                    }));
+                }
+                CsvCollector collector;
+                try {
+                    sinks.get(i).sendTo(sink);
+                    collector = getCollector(imports.get(i));
+                } catch (CollectError | ParameterError | RuntimeException e) {
+                    LOG.log(Level.WARNING, "Cannot import " + this.files.get(i) + ", " + i + " of " + this.files.size() + " files were imported", e);
+                    throw e;
+                }
+                imports.set(i, null);
+                sinks.set(i, null);
+                // Balance is exact in minor units and rounded once
+                total = total.add(BigDecimal.valueOf(collector.getImportedTotal(), collector.getAmountScale()));
+                this.account.setCurrentBalance(initialBalance + total.doubleValue());
+            }
+        } finally {
+            // Imports of the files after a failed one must not wait for their batches to be sent
+            for (FileSink fileSink : sinks) {
+                if (fileSink != null) {
+                    fileSink.cancel();
+                }
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return The collector of a file, configured but without format cache nor sink
+     */
+    private CsvCollector newCollector(File file) {
+        CsvCollector collector = new CsvCollector(file);
+        collector.setParallelism(Math.max(1, Runtime.getRuntime().availableProcessors() / this.concurrency));
+        collector.setBatchSize(this.batchSize);
+        if (this.collectorConfigurer != null) {
+            this.collectorConfigurer.accept(collector);
+        }
+        // Operations of all the files go to the same account, its balance is updated by the batch
+        collector.setAccount(this.account);
+        collector.setBalanceUpdated(false);
+        return collector;
+    }
+
+    /**
+     * Analyzes the first file of each group of files in auto mode with the same fingerprint, so the imports of the
+     * files find their format in the cache. At most {@link #getConcurrency()} files are analyzed at the same time.
+     */
+    private void detectFormats(CsvCollector[] collectors, CsvFormatCache cache, ExecutorService executor) throws CollectError {
+        // Index of the first file of each fingerprint
+        Map<String, Integer> firstFiles = new LinkedHashMap<>();
+        int autoCount = 0;
+        for (int i = 0; i < collectors.length; i++) {
+            if (!collectors[i].isAuto()) {
+                // The format is given, there is nothing to detect
+                continue;
+            }
+            autoCount++;
+            File file = this.files.get(i);
+            try (CsvTokenizer tokenizer = new CsvTokenizer(file, ',', collectors[i].getCharset())) {
+                List<String> lines = tokenizer.readPrefix(CsvFormatCache.SAMPLE_ROW_COUNT + 1);
+                if (!lines.isEmpty()) {
+                    firstFiles.putIfAbsent(CsvFormatCache.fingerprint(lines), i);
+                }
+            } catch (IOException e) {
+                // Reported by the import of the file
+                LOG.log(Level.FINE, "Cannot read " + file, e);
+            }
+        }
+        if (firstFiles.size() == autoCount) {
+            // No header shared by several files
+            return;
+        }
+        List<Integer> analyzed = new ArrayList<>(firstFiles.values());
+        List<Future<CsvFormat>> detections = new ArrayList<>(analyzed.size());
+        for (int i = 0; i < analyzed.size(); i++) {
+            while (detections.size() < analyzed.size() && detections.size() < i + this.concurrency) {
+                int index = analyzed.get(detections.size());
+                File file = this.files.get(index);
+                Charset charset = collectors[index].getCharset();
+                detections.add(executor.submit(() -> {
+                    try (CsvTokenizer tokenizer = new CsvTokenizer(file, ',', charset)) {
+                        return cache.findFormat(tokenizer);
+                    }
+                }));
+            }
+            try {
+                detections.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CollectError("collect.error.generic.auto", e);
+            } catch (ExecutionException e) {
+                // The format is detected again, and the error reported, by the import of the file
+                LOG.log(Level.FINE, "Cannot detect format", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Sink of the import of a file: its batches wait in a bounded queue until the thread of the batch sends them.
+     */
+    private static final class FileSink implements OperationSink {
+
+        /**
+         * Put after the last batch, compared by identity.
+         */
+        private static final List<OperationDto> END = new ArrayList<>(0);
+
+        private final BlockingQueue<List<OperationDto>> batches = new ArrayBlockingQueue<>(PENDING_BATCHES);
+
+        /**
+         * True once the batch is aborted: the batches are not sent anymore.
+         */
+        private volatile boolean cancelled;
+
+        @Override
+        public void accept(List<OperationDto> operations) {
+            // The list is reused by the collector
+            put(new ArrayList<>(operations));
+        }
+
+        void end() {
+            if (!this.cancelled) {
+                put(END);
+            }
+        }
+
+        /**
+         * Drops the pending batches, the import waiting to put a batch stops.
+         */
+        void cancel() {
+            this.cancelled = true;
+            this.batches.clear();
+        }
+
+        private void put(List<OperationDto> batch) {
+            try {
+                // The interruption of the import may be lost (caught by the code it interrupted), so the wait
+                // for a free slot also stops once the batch is cancelled
+                while (!this.cancelled && !this.batches.offer(batch, CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                    // Wait for the thread of the batch
+                }
+            } catch (InterruptedException e) {
+                // The batch is aborted
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Import cancelled");
+            }
+            if (this.cancelled) {
+                throw new CancellationException("Import cancelled");
+            }
+        }
+
+        /**
+         * Sends the batches as they come, until the import of the file ends.
+         */
+        void sendTo(OperationSink sink) throws CollectError {
+            try {
+                for (List<OperationDto> batch = this.batches.take(); batch != END; batch = this.batches.take()) {
+                    sink.accept(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CollectError("collect.error.generic.auto", e);
+            }
+        }
+    }
+
+    private static CsvCollector getCollector(Future<CsvCollector> future) throws CollectError, ParameterError {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CollectError("collect.error.generic.auto", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CollectError) {
+                throw (CollectError) cause;
+            }
+            if (cause instanceof ParameterError) {
+                throw (ParameterError) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new CollectError("collect.error.generic.auto", cause);
+        }
+    }
+
+    /**
+     * @return An executor starting a virtual thread per task on Java 21 and later, a pool of
+     * <code>concurrency</code> platform threads otherwise
+     */
+    static ExecutorService newExecutor(int concurrency) {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (NoSuchMethodException e) {
+            // Before Java 21
+        } catch (ReflectiveOperationException e) {
+            LOG.log(Level.FINE, "Cannot create virtual threads", e);
+        }
+        ThreadFactory threads = task -> {
+            Thread thread = new Thread(task, "csv-batch-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(concurrency, threads);
+    }
+
+    /**
+     * @return The imported operations, unless an {@link OperationSink} is set
+     */
+    public List<OperationDto> getOperations() {
+        return this.operations;
+    }
+
+    public List<File> getFiles() {
+        return this.files;
+    }
+
+    public AccountDto getAccount() {
+        return this.account;
+    }
+
+    /**
+     * @param operationSink Where the operations are sent by batches, in the order of the files. Null (the default)
+     * to add them to {@link #getOperations()}.
+     */
+    public void setOperationSink(OperationSink operationSink) {
+        this.operationSink = operationSink;
+    }
+
+    public OperationSink getOperationSink() {
+        return this.operationSink;
+    }
+
+    /**
+     * @param batchSize Maximum number of operations sent at once to the {@link OperationSink}
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * @param concurrency Maximum number of files imported at the same time (the number of cores by default)
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1: " + concurrency);
+        }
+        this.concurrency = concurrency;
+    }
+
+    public int getConcurrency() {
+        return this.concurrency;
+    }
+
+    /**
+     * @param formatCache Cache of the formats of the files (the shared one by default), null to use a cache for
+     * this batch only
+     */
+    public void setFormatCache(CsvFormatCache formatCache) {
+        this.formatCache = formatCache;
+    }
+
+    public CsvFormatCache getFormatCache() {
+        return this.formatCache;
+    }
+
+    /**
+     * @param collectorConfigurer Called with the collector of each file before it is validated, to set its
+     * error budget, its format, its parallelism or its operation index for instance. Its account, operation sink
+     * and format cache are the ones of the batch. Null (the default) to import the files in auto mode.
+     */
+    public void setCollectorConfigurer(Consumer<CsvCollector> collectorConfigurer) {
+        this.collectorConfigurer = collectorConfigurer;
+    }
+
+    public Consumer<CsvCollector> getCollectorConfigurer() {
+        return this.collectorConfigurer;
+    }
+}
@@ -0,0 +1,129 @@
+package com.tibudget.plugins.csv;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a range of a CSV file in chunks that can be parsed in parallel.
+ * <p>
+ * Chunks always start on a row: the quotes of the file are counted in parallel to know, at each split point,
+ * whether it is inside a quoted field, then the split point is moved after the next line break which is not
+ * quoted. This works as long as quotes are only used around fields; when it is not the case, the parser of
+ * the previous chunk ends inside quotes (see {@link CsvTokenizer#isTruncated()}) and the caller must fall back
+ * to a serial parsing from the start of that chunk.
+ * <p>
+ * Bytes are read through the tokenizer of the file (see {@link CsvTokenizer#bytes(long, long)}), so the ones in
+ * its window are not mapped again.
+ */
+final class CsvChunker {
+
+    private static final int WINDOW_SIZE = 16 * 1024 * 1024;
+
+    private CsvChunker() {
+    }
+
+    /**
+     * @param tokenizer The tokenizer of the file, it must not be moved until the split is done
+     * @param start Offset of the first row
+     * @param end Offset after the last row
+     * @param chunkCount Wanted number of chunks
+     * @param pool Pool used to count quotes
+     * @return The bounds of the chunks: chunk <code>i</code> is <code>[bounds[i], bounds[i + 1])</code>
+     */
+    static long[] split(CsvTokenizer tokenizer, long start, long end, int chunkCount, ForkJoinPool pool) throws IOException {
+        if (chunkCount <= 1 || end - start < chunkCount) {
+            return new long[] { start, end };
+        }
+        long[] splits = new long[chunkCount + 1];
+        for (int i = 0; i <= chunkCount; i++) {
+            splits[i] = start + (end - start) * i / chunkCount;
+        }
+
+        // Count quotes of each nominal chunk in parallel
+        List<Future<Long>> counts = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            long from = splits[i];
+            long to = splits[i + 1];
+            counts.add(pool.submit(() -> {
+                try {
+                    return countQuotes(tokenizer, from, to);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+
+        List<Long> bounds = new ArrayList<>(chunkCount + 1);
+        bounds.add(start);
+        long quotes = 0;
+        for (int i = 1; i < chunkCount; i++) {
+            quotes += get(counts.get(i - 1));
+            long bound = nextRowStart(tokenizer, splits[i], end, quotes % 2 == 1);
+            if (bound > bounds.get(bounds.size() - 1) && bound < end) {
+                bounds.add(bound);
+            }
+        }
+        bounds.add(end);
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    private static long get(Future<Long> count) throws IOException {
+        try {
+            return count.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    static long countQuotes(CsvTokenizer tokenizer, long from, long to) throws IOException {
+        long count = 0;
+        for (long offset = from; offset < to; offset += WINDOW_SIZE) {
+            int size = (int) Math.min(WINDOW_SIZE, to - offset);
+            ByteBuffer window = tokenizer.bytes(offset, offset + size);
+            for (int i = 0; i < size; i++) {
+                if (window.get(i) == '"') {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The offset after the first line break following <code>from</code> which is not in quotes, or
+     * <code>end</code> if there is none
+     */
+    static long nextRowStart(CsvTokenizer tokenizer, long from, long end, boolean inQuotes) throws IOException {
+        for (long offset = from; offset < end; offset += WINDOW_SIZE) {
+            int size = (int) Math.min(WINDOW_SIZE, end - offset);
+            ByteBuffer window = tokenizer.bytes(offset, offset + size);
+            for (int i = 0; i < size; i++) {
+                byte b = window.get(i);
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                }
+                else if (b == '\n' && !inQuotes) {
+                    return offset + i + 1;
+                }
+            }
+        }
+        return end;
+    }
+}
@@ -14,8 +14,16 @@ import com.tibudget.dto.OperationDto.OperationDtoType;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static java.lang.Math.abs;
@@ -26,6 +34,39 @@ public class CsvCollector implements CollectorPlugin {
 	
 	public static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
 
+	/**
+	 * Default number of operations sent at once to the {@link OperationSink}.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	/**
+	 * Default size of file (in bytes) from which the file is parsed by several threads.
+	 */
+	public static final long DEFAULT_PARALLEL_THRESHOLD = 32L * 1024 * 1024;
+
+	/**
+	 * Default number of rejected rows kept in the report of an import.
+	 */
+	public static final int DEFAULT_REJECT_BUFFER_SIZE = 100;
+
+	/**
+	 * Number of chunks per thread when a file is parsed in parallel (to balance the load).
+	 */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	/**
+	 * Number of rows the ratio of the error budget is applied to at least while rows are read, so that rows
+	 * rejected at the start of a file do not abort the import. The ratio is checked against all the rows once
+	 * they are read.
+	 */
+	static final long RATIO_MIN_ROWS = 1000;
+
+	/**
+	 * Maximum size of a chunk when a file is parsed in parallel: at most <code>2 * parallelism</code> parsed
+	 * chunks wait to be sent, so it bounds the operations held in memory whatever the size of the file.
+	 */
+	static final long DEFAULT_CHUNK_SIZE = 4L * 1024 * 1024;
+
 	/**
 	 * Enum representing common CSV column separators.
 	 */
@@ -70,6 +111,29 @@ public class CsvCollector implements CollectorPlugin {
 		}
 	}
 
+	/**
+	 * Phases of an import, each one has its own progress (see {@link #getProgress(Phase)}).
+	 */
+	public enum Phase {
+		/**
+		 * Detecting the charset and the format of the file.
+		 */
+		DETECTING,
+		/**
+		 * Reading the rows and converting them into operations.
+		 */
+		PARSING,
+		/**
+		 * Sending the operations in file order, after the last chunk was parsed by a parallel import (a serial
+		 * import sends each operation as soon as it is parsed).
+		 */
+		EMITTING,
+		/**
+		 * The import is over, successfully or not.
+		 */
+		DONE
+	}
+
 	/**
 	 * Enum representing common decimal separators in numeric values.
 	 */
@@ -159,7 +223,162 @@ public class CsvCollector implements CollectorPlugin {
 
 	private final List<AccountDto> accounts;
 
-	private int progress = 0;
+	/**
+	 * Where the operations are sent while parsing, by default they are added to {@link #getOperations()}.
+	 */
+	private OperationSink operationSink;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	/**
+	 * Number of threads used to parse files bigger than {@link #parallelThreshold}.
+	 */
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	private long parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+	private long chunkSize = DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * Operations of the parsed chunks not sent yet, and their highest number during the last import.
+	 */
+	private final AtomicLong pendingOperations = new AtomicLong();
+
+	private final AtomicLong peakPendingOperations = new AtomicLong();
+
+	/**
+	 * Cache of the formats found in auto mode, null to analyze every file.
+	 */
+	private CsvFormatCache formatCache = CsvFormatCache.getShared();
+
+	/**
+	 * Charset of the file, null to detect it.
+	 */
+	private Charset charset;
+
+	/**
+	 * Where import checkpoints are stored, null to always import the whole file.
+	 */
+	private File checkpointDirectory;
+
+	/**
+	 * True to only import the rows appended since the checkpoint of the previous import.
+	 */
+	private boolean incremental;
+
+	/**
+	 * Operations imported before, rows matching one of them are skipped. Null to import all rows.
+	 */
+	private OperationIndex operationIndex;
+
+	/**
+	 * Where the index of imported operations is persisted, null to not persist it.
+	 */
+	private File operationIndexFile;
+
+	/**
+	 * Number of rows skipped by the last import because they were imported before.
+	 */
+	private long duplicateCount;
+
+	/**
+	 * True if the key of each operation (see {@link OperationIndex#key(long, long, CharSequence)}) is computed by
+	 * the current import, to match the index or to be added to it.
+	 */
+	private boolean operationKeys;
+
+	/**
+	 * Number of amounts of the last import that had more decimals than the scale and were rounded.
+	 */
+	private long roundedCount;
+
+	/**
+	 * Number of labels kept by the pool used during an import, 0 to not share repeated labels.
+	 */
+	private int labelPoolSize = LabelPool.DEFAULT_CAPACITY;
+
+	/**
+	 * Pool of the labels of the current import.
+	 */
+	private LabelPool labelPool;
+
+	/**
+	 * Number of rows that can be rejected before an import is aborted, on top of {@link #maxRejectedRatio}.
+	 */
+	private long maxRejectedRows;
+
+	/**
+	 * Part of the rows read that can be rejected before an import is aborted.
+	 */
+	private double maxRejectedRatio;
+
+	/**
+	 * Last rejected row of the current import.
+	 */
+	private RejectedRow lastRejected;
+
+	/**
+	 * Number of rejected rows kept in the report.
+	 */
+	private int rejectBufferSize = DEFAULT_REJECT_BUFFER_SIZE;
+
+	/**
+	 * Rows rejected by the last import.
+	 */
+	private RejectReport rejectReport = new RejectReport(0);
+
+	/**
+	 * Number of non empty rows read by the current import.
+	 */
+	private long rowCount;
+
+	/**
+	 * Number of lines of the file read so far, empty lines and line breaks inside quoted fields included.
+	 */
+	private long lineCount;
+
+	/**
+	 * False if the balance of the account is kept by the caller, see {@link CsvBatchCollector}.
+	 */
+	private boolean balanceUpdated = true;
+
+	/**
+	 * Sum of the amounts imported by the last import, in minor units.
+	 */
+	private long importedTotal;
+
+	/**
+	 * Receives the metrics of each import, or null.
+	 */
+	private ImportMetricsListener metricsListener;
+
+	/**
+	 * Where the metrics of each import are added up, null to not add them.
+	 */
+	private ImportStatistics statistics = ImportStatistics.getShared();
+
+	/**
+	 * Metrics of the current or last import, null before the first import.
+	 */
+	private volatile ImportMetrics metrics;
+
+	/**
+	 * Current phase of the import, read by the thread polling the progress. Null before the first import.
+	 */
+	private volatile Phase phase;
+
+	/**
+	 * Progress of each phase in percent, indexed by {@link Phase#ordinal()}. It is written by the import threads
+	 * and read by the thread polling the progress.
+	 */
+	private final AtomicIntegerArray phaseProgress = new AtomicIntegerArray(Phase.values().length);
+
+	/**
+	 * Offsets of the rows imported by the current import, progress is the part of these bytes consumed.
+	 */
+	private long progressStart;
+
+	private long progressEnd;
 
 	public CsvCollector() {
 		super();
@@ -193,29 +412,61 @@ public class CsvCollector implements CollectorPlugin {
 
 	/**
 	 * {@inheritDoc}
-	 * @param lastCollect Will be ignored here
+	 * @param lastCollect Not used: if the import is incremental (see {@link #setIncremental(boolean)}) and a
+	 * checkpoint of the file is found, only the rows appended to the file since the previous import are imported,
+	 * and their amounts are added to the current balance of the account. Otherwise the whole file is imported.
 	 * @throws CollectError
 	 * @throws ParameterError
 	 */
 	@Override
 	public void collect(Iterable<AccountDto> lastCollect) throws CollectError, ParameterError {
 
-		this.progress = 0;
-
-		if (isAuto()) {
-			initAuto();
+		for (Phase p : Phase.values()) {
+			this.phaseProgress.set(p.ordinal(), 0);
 		}
-
-		int lineCount = CsvCollector.getLineCount(this.file);
-		int count = 0;
-		CsvFileReader csvReader = null;
+		this.phase = Phase.DETECTING;
+		ImportMetrics metrics = new ImportMetrics();
+		this.metrics = metrics;
+		ImportEvent event = new ImportEvent();
+		event.begin();
+		boolean imported = false;
+		this.duplicateCount = 0;
+		this.roundedCount = 0;
+		this.importedTotal = 0;
+		this.pendingOperations.set(0);
+		this.peakPendingOperations.set(0);
+		this.rowCount = 0;
+		this.lineCount = 0;
+		this.rejectReport = new RejectReport(this.rejectBufferSize);
+		this.lastRejected = null;
+		this.labelPool = this.labelPoolSize > 0 ? new LabelPool(this.labelPoolSize) : null;
+
+		CsvTokenizer csvReader = null;
 		try {
-			SimpleDateFormat fmt = new SimpleDateFormat(getDateFormat());
-			csvReader = new CsvFileReader(this.file.getAbsolutePath(), getColSeparator().getCharacter());
-
-			String [] nextLine;
-			if (isSkipFirstRow()) {
-				csvReader.readNext();
+			OperationIndex index = loadOperationIndex();
+			this.operationKeys = index != null || this.operationIndexFile != null;
+			// The file is mapped only once: the first rows are analyzed to guess the format, then the tokenizer
+			// is rewound on the same mapped window for the import
+			csvReader = openTokenizer();
+			// Blocks hashed to check the checkpoint are not hashed again to store the next one
+			ImportCheckpoint.PrefixHasher hasher = new ImportCheckpoint.PrefixHasher();
+			ImportCheckpoint checkpoint = this.incremental ? findCheckpoint(csvReader, hasher) : null;
+			// Number of the first line read by the tokenizer
+			long firstLineNumber = 1;
+			if (checkpoint != null) {
+				// Same file with rows appended: import them with the format of the previous import
+				applyFormat(checkpoint.getFormat());
+				csvReader.setSeparator(getColSeparator().getCharacter());
+				csvReader.seek(checkpoint.getOffset());
+				firstLineNumber = checkpoint.getLineCount() + 1;
+			}
+			else {
+				if (isAuto()) {
+					initAuto(csvReader);
+				}
+				if (isSkipFirstRow()) {
+					csvReader.next();
+				}
 			}
 			if (getDateOperationIndex() <= 0) {
 				setDateOperationIndex(getDateValueIndex());
@@ -223,100 +474,50 @@ public class CsvCollector implements CollectorPlugin {
 			if (getDateValueIndex() <= 0) {
 				setDateValueIndex(getDateOperationIndex());
 			}
-			while ((nextLine = csvReader.readNext()) != null) {
-				if (nextLine.length == 0 || (nextLine.length==1 && nextLine[0].isEmpty())) {
-					// Ignore empty line
-					continue;
-				}
-				try {
-					// Date value
-					Date dateValue;
-					try {
-						String dateStr = nextLine[getDateValueIndex() - 1].trim();
-						dateValue = fmt.parse(dateStr);
-						if (!fmt.format(dateValue).equals(dateStr)) {
-							if (auto) {
-								throw new CollectError("collect.error.date", dateStr, dateValue);
-							} else {
-								throw new ParameterError("dateFormat", "form.error.dateFormat.parsing", dateStr, dateValue);
-							}
-						}
-					} catch (ParseException e) {
-						if (this.auto) {
-							throw new CollectError("collect.error.date.parse.auto", nextLine[getDateValueIndex() - 1]);
-						} else {
-							throw new ParameterError("dateFormat", "form.error.dateFormat.parsing2", nextLine[getDateValueIndex() - 1]);
-						}
-					}
-					// Date operation
-					Date dateOperation;
-					try {
-						dateOperation = fmt.parse(nextLine[getDateOperationIndex() - 1]);
-					} catch (ParseException e) {
-						if (this.auto) {
-							throw new CollectError("collect.error.date.parse.auto", nextLine[getDateValueIndex() - 1]);
-						} else {
-							throw new ParameterError("dateFormat", "form.error.dateFormat.parsing2", nextLine[getDateValueIndex() - 1]);
-						}
-					}
-					// Label
-					String label = nextLine[getLabelIndex() - 1].trim();
-					// Value
-					Double value;
-					if (getValueIndex() > 0) {
-						String valueStr = nextLine[getValueIndex() - 1].trim();
-						value = parseNumber(valueStr);
-					} else {
-						double credit = 0.0, debit = 0.0;
-						if (getCreditIndex() <= nextLine.length) {
-							String creditStr = nextLine[getCreditIndex() - 1].trim();
-							if (!creditStr.isEmpty()) {
-								credit = parseNumber(creditStr);
-							}
-						}
-						if (getDebitIndex() <= nextLine.length) {
-							String debitStr = nextLine[getDebitIndex() - 1].trim();
-							if (!debitStr.isEmpty()) {
-								// Yes, some files contains negative values in the debit column so I prefer take the
-								// absolute value
-								debit = abs(parseNumber(debitStr));
-							}
-						}
-						value = credit - debit;
-					}
-
-					// Create operation
-					OperationDto op = new OperationDto(
-							this.account.getUuid(),
-							OperationDtoType.PAYMENT,
-							dateOperation,
-							dateValue,
-							label,
-							"",
-							value
-					);
-					this.operations.add(op);
-
-					// Balance will always be correct
-					this.account.setCurrentBalance(this.account.getCurrentBalance() + op.getAmount());
-
-				} catch (MessagesException e) {
-					long lineNumber = count + 1;
-					if (isSkipFirstRow()) {
-						lineNumber++;
-					}
-					LOG.info("Ignored line #" + lineNumber + ": "+String.join(String.valueOf(getColSeparator()), nextLine)+"(" + e.getMessage() + ")");
-					throw e;
-				}
-
-				// update progress
-				count++;
-				if (lineCount > 0) {
-					this.progress = count / lineCount;
+			setProgress(Phase.DETECTING, 100);
+			this.progressStart = csvReader.getPosition();
+			this.progressEnd = csvReader.getEnd();
+			metrics.setByteCount(this.progressEnd - this.progressStart);
+			this.phase = Phase.PARSING;
+			Emitter emitter = new Emitter(this.operationSink != null ? this.operationSink : this.operations::addAll, getAmountScale(),
+					index, this.operationIndexFile != null);
+			if (checkpoint != null) {
+				emitter.resume(checkpoint.getTotal());
+			}
+			if (this.parallelism > 1 && csvReader.getEnd() - csvReader.getPosition() >= this.parallelThreshold) {
+				collectParallel(csvReader, emitter, firstLineNumber);
+			}
+			else {
+				collectSerial(csvReader, emitter, firstLineNumber);
+			}
+			emitter.flush();
+			checkErrorBudget();
+			emitter.updateBalance();
+			this.importedTotal = emitter.total - emitter.resumedTotal;
+			if (this.duplicateCount > 0) {
+				LOG.info(this.duplicateCount + " rows of " + this.file + " were already imported and are skipped");
+				if (!index.isExact()) {
+					LOG.warning("Operations of " + this.file + " are matched against a Bloom filter, about "
+							+ OperationIndex.FALSE_POSITIVE_RATE * 100 + "% of the " + this.duplicateCount + " skipped rows may be new operations");
 				}
 			}
+			if (this.roundedCount > 0) {
+				LOG.warning(this.roundedCount + " amounts of " + this.file + " have more than " + getAmountScale()
+						+ " decimals and were rounded");
+			}
+			this.rejectReport.setRowCount(this.rowCount);
+			if (this.rejectReport.getRejectedCount() > 0) {
+				LOG.warning("Rows of " + this.file + " were rejected: " + this.rejectReport);
+			}
+			if (this.checkpointDirectory != null) {
+				storeCheckpoint(csvReader, hasher, emitter);
+			}
+			if (this.operationIndexFile != null) {
+				storeOperationIndex(emitter);
+			}
+			imported = true;
 
-		}catch (FileNotFoundException e) {
+		}catch (FileNotFoundException | NoSuchFileException e) {
 			throw new CollectError("collect.error.filenotfound", e);
 		} catch (IOException e) {
 			if (this.auto) {
@@ -333,100 +534,580 @@ public class CsvCollector implements CollectorPlugin {
 					LOG.fine("Ignoring IOException: " + e.getMessage());
 				}
 			}
-			this.progress = 100;
+			// Labels no longer referenced by the operations can be collected
+			this.labelPool = null;
+			for (Phase p : Phase.values()) {
+				this.phaseProgress.set(p.ordinal(), 100);
+			}
+			this.phase = Phase.DONE;
+			finishMetrics(metrics, !imported);
+			event.end();
+			if (event.shouldCommit()) {
+				event.file = String.valueOf(this.file);
+				event.fileSize = this.file != null ? this.file.length() : 0;
+				event.format = imported ? getFormat().toString() : null;
+				event.formatCacheHit = metrics.isFormatCacheHit();
+				event.parallelism = this.parallelism > 1 && this.progressEnd - this.progressStart >= this.parallelThreshold ? this.parallelism : 1;
+				event.rows = metrics.getRowCount();
+				event.rejectedRows = metrics.getRejectedRowCount();
+				event.duplicateRows = metrics.getDuplicateRowCount();
+				event.failed = metrics.isFailed();
+				event.commit();
+			}
 		}
 	}
 
-	private double parseNumber(String numberStr) throws ParameterError, CollectError {
-		Double value;
-		if (getNumberFormat() != null) {
-			DecimalFormatSymbols symb = new DecimalFormatSymbols(Locale.US);
-			symb.setDecimalSeparator(getDecimalSeparator().getCharacter());
-			NumberFormat numberFormat = new DecimalFormat(getNumberFormat(), symb);
-			ParsePosition pp = new ParsePosition(0);
-			value = numberFormat.parse(numberStr, pp).doubleValue();
-			if (numberStr.length() != pp.getIndex()) {
-				if (auto) {
-					throw new ParameterError("numberFormat", "form.error.numberFormat.parsing", value, numberStr);
-				}
-				else {
-					throw new CollectError("collect.error.number", value, numberStr);
+	private void finishMetrics(ImportMetrics metrics, boolean failed) {
+		metrics.setRowCount(this.rowCount);
+		metrics.setRejectedRowCount(this.rejectReport.getRejectedCount());
+		metrics.setDuplicateRowCount(this.duplicateCount);
+		metrics.finish(failed);
+		if (LOG.isLoggable(Level.FINE)) {
+			LOG.fine("Imported " + this.file + ": " + metrics);
+		}
+		if (this.statistics != null) {
+			this.statistics.importFinished(metrics);
+		}
+		if (this.metricsListener != null) {
+			this.metricsListener.importFinished(metrics);
+		}
+	}
+
+	/**
+	 * Imports the rows of the tokenizer one after the other.
+	 * @param csvReader The tokenizer, positioned on the first row to import
+	 * @param emitter Where to send the operations
+	 * @param firstLineNumber Number of the first line read by the tokenizer (see {@link CsvTokenizer#getLineCount()})
+	 */
+	private void collectSerial(CsvTokenizer csvReader, Emitter emitter, long firstLineNumber) throws IOException, CollectError, ParameterError {
+		RowParsers parsers = new RowParsers();
+		CsvRow row = csvReader.row();
+		while (parsers.next(csvReader)) {
+			if (row.isEmptyLine()) {
+				// Ignore empty line
+				continue;
+			}
+			this.rowCount++;
+			try {
+				OperationDto op = toOperation(row, parsers);
+				emitter.add(op, parsers.amount, parsers.key);
+			} catch (CollectError | ParameterError e) {
+				long lineNumber = firstLineNumber + csvReader.getRowLine();
+				if (!reject(new RejectedRow(lineNumber, csvReader.getRowStart(), csvReader.rowBytes(), csvReader.getCharset(), e))) {
+					LOG.info("Ignored line #" + lineNumber + ": "+row.toString(getColSeparator().getCharacter())+"(" + e.getMessage() + ")");
+					// Operations parsed before the error are still delivered
+					this.roundedCount += parsers.amountParser.getRoundedCount();
+					emitter.flush();
+					throw e;
 				}
 			}
+
+			// update progress
+			int percent = percentOf(csvReader.getPosition());
+			if (percent > this.phaseProgress.get(Phase.EMITTING.ordinal())) {
+				setProgress(Phase.PARSING, percent);
+				setProgress(Phase.EMITTING, percent);
+			}
 		}
-		else {
-			value = Double.parseDouble(numberStr);
-		}
-		return value;
+		this.roundedCount += parsers.amountParser.getRoundedCount();
+		this.lineCount = firstLineNumber - 1 + csvReader.getLineCount();
 	}
 
-	private void initAuto() throws ParameterError {
+	/**
+	 * Splits the rows of the tokenizer in chunks parsed in parallel, operations are sent in file order.
+	 * @param csvReader The tokenizer, positioned on the first row to import
+	 * @param emitter Where to send the operations
+	 * @param firstLineNumber Number of the first line read by the tokenizer (see {@link CsvTokenizer#getLineCount()})
+	 */
+	private void collectParallel(CsvTokenizer csvReader, Emitter emitter, long firstLineNumber) throws IOException, CollectError, ParameterError {
+		ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+		// Chunks are parsed in any order, the parsing progress is the number of bytes of the parsed chunks
+		AtomicLong parsedBytes = new AtomicLong();
 		try {
-			CsvFormat format = CsvFormatAnalyzer.findFormat(getFile());
-			if (format == null) {
-				throw new ParameterError("auto", "collect.error.auto");
-			}
-			setColSeparator(format.getColSeparator());
-			setSkipFirstRow(format.isSkipFirstRow());
-			setDateOperationIndex(format.getDateOperationIndex());
-			setDateValueIndex(format.getDateValueIndex());
-			setCreditIndex(format.getCreditIndex());
-			setLabelIndex(format.getLabelIndex());
-			setDebitIndex(format.getDebitIndex());
-			setValueIndex(format.getValueIndex());
-			setDateFormat(format.getDateFormat());
-			setDecimalSeparator(DecimalSeparator.fromChar(format.getValueFormat().getDecimalFormatSymbols().getDecimalSeparator()));
-			setNumberFormat(format.getValueFormat().toPattern());
-		} catch (IOException e) {
-			throw new ParameterError("auto", "collect.error.auto", e);
+			long length = csvReader.getEnd() - csvReader.getPosition();
+			long wantedChunks = Math.max(this.parallelism * CHUNKS_PER_THREAD, (length + this.chunkSize - 1) / this.chunkSize);
+			long[] bounds = CsvChunker.split(csvReader, csvReader.getPosition(), csvReader.getEnd(),
+					(int) Math.min(Integer.MAX_VALUE - 1, wantedChunks), pool);
+			int chunkCount = bounds.length - 1;
+			List<Future<Chunk>> chunks = new ArrayList<>(chunkCount);
+			// Number of the first line of the chunk
+			long lineNumber = firstLineNumber + csvReader.getLineCount();
+			for (int i = 0; i < chunkCount; i++) {
+				// Limit the number of parsed chunks waiting to be sent
+				while (chunks.size() < chunkCount && chunks.size() < i + this.parallelism * 2) {
+					int index = chunks.size();
+					chunks.add(pool.submit(() -> {
+						Chunk parsed = parseChunk(csvReader, bounds[index], bounds[index + 1]);
+						this.peakPendingOperations.accumulateAndGet(this.pendingOperations.addAndGet(parsed.operations.size()), Math::max);
+						long parsedEnd = this.progressStart + parsedBytes.addAndGet(bounds[index + 1] - bounds[index]);
+						setProgress(Phase.PARSING, percentOf(parsedEnd));
+						if (parsedEnd >= this.progressEnd) {
+							this.phase = Phase.EMITTING;
+						}
+						return parsed;
+					}));
+				}
+				Chunk chunk = getChunk(chunks.get(i));
+				chunks.set(i, null);
+				if (chunk.truncated && i < chunkCount - 1) {
+					// Quotes are not only used around fields so the split is wrong, continue without splitting
+					LOG.fine("Chunk #" + i + " ends inside quotes, parsing the end of the file serially");
+					for (int j = i + 1; j < chunks.size(); j++) {
+						chunks.get(j).cancel(true);
+					}
+					try (CsvTokenizer tail = csvReader.range(bounds[i], csvReader.getEnd())) {
+						collectSerial(tail, emitter, lineNumber);
+					}
+					return;
+				}
+				long firstRow = this.rowCount;
+				int r = 0;
+				for (int j = 0; j <= chunk.operations.size(); j++) {
+					// Rejected rows are handled in file order, between the operations of the chunk
+					while (r < chunk.rejects.size() && chunk.rejects.get(r).operationIndex == j) {
+						Reject reject = chunk.rejects.get(r++);
+						this.rowCount = firstRow + reject.rowIndex + 1;
+						if (!reject(new RejectedRow(lineNumber + reject.line, reject.offset, reject.bytes, csvReader.getCharset(), reject.error))) {
+							LOG.info("Ignored line #" + (lineNumber + reject.line) + ": " + reject.row + "(" + reject.error.getMessage() + ")");
+							this.roundedCount += chunk.rounded;
+							emitter.flush();
+							if (reject.error instanceof ParameterError) {
+								throw (ParameterError) reject.error;
+							}
+							throw (CollectError) reject.error;
+						}
+					}
+					if (j < chunk.operations.size()) {
+						emitter.add(chunk.operations.get(j), chunk.amounts[j], chunk.keys[j]);
+					}
+				}
+				this.pendingOperations.addAndGet(-chunk.operations.size());
+				this.roundedCount += chunk.rounded;
+				this.rowCount = firstRow + chunk.rowCount;
+				lineNumber += chunk.lineCount;
+				setProgress(Phase.EMITTING, percentOf(bounds[i + 1]));
+			}
+			this.lineCount = lineNumber - 1;
+		} finally {
+			pool.shutdownNow();
 		}
 	}
 
-	@Override
-	public List<AccountDto> getAccounts() {
-		return this.accounts;
+	private Chunk parseChunk(CsvTokenizer csvReader, long start, long end) throws IOException {
+		Chunk chunk = new Chunk();
+		try (CsvTokenizer tokenizer = csvReader.range(start, end)) {
+			RowParsers parsers = new RowParsers();
+			CsvRow row = tokenizer.row();
+			while (parsers.next(tokenizer)) {
+				if (row.isEmptyLine()) {
+					continue;
+				}
+				try {
+					chunk.add(toOperation(row, parsers), parsers.amount, parsers.key);
+				} catch (CollectError | ParameterError e) {
+					chunk.reject(tokenizer, row.toString(getColSeparator().getCharacter()), e);
+					if (!isTolerant()) {
+						break;
+					}
+				}
+				chunk.rowCount++;
+			}
+			chunk.truncated = tokenizer.isTruncated();
+			chunk.lineCount = tokenizer.getLineCount();
+			chunk.rounded = parsers.amountParser.getRoundedCount();
+		}
+		return chunk;
 	}
 
-	@Override
-	public void setAccounts(List<AccountDto> list) {
-		this.accounts.addAll(list);
+	private static Chunk getChunk(Future<Chunk> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
 	}
 
-	@Override
-	public List<OperationDto> getOperations() {
-		return this.operations;
-	}
+	/**
+	 * Converts a row of the file into an operation.
+	 * @param row The row
+	 * @param parsers Parsers of the current thread, the amount and the key of the operation are set in it
+	 * @return The operation
+	 */
+	private OperationDto toOperation(CsvRow row, RowParsers parsers) throws CollectError, ParameterError {
+		DateParser dateParser = parsers.dateParser;
+		AmountParser amountParser = parsers.amountParser;
+		long start = parsers.sampled ? System.nanoTime() : 0;
+		// Date value
+		long dateValue = dateParser.parseEpochDay(row.field(getDateValueIndex() - 1));
+		// Date operation
+		long dateOperation = dateValue == DateParser.INVALID ? DateParser.INVALID
+				: dateParser.parseEpochDay(row.field(getDateOperationIndex() - 1));
+		if (dateOperation == DateParser.INVALID) {
+			if (this.auto) {
+				throw new CollectError("collect.error.date.parse.auto", row.fieldAsString(getDateValueIndex() - 1));
+			} else {
+				throw new ParameterError("dateFormat", "form.error.dateFormat.parsing2", row.fieldAsString(getDateValueIndex() - 1));
+			}
+		}
+		if (parsers.sampled) {
+			long now = System.nanoTime();
+			parsers.metrics.addSample(ImportMetrics.Stage.DATE_PARSING, now - start);
+			start = now;
+		}
+		// Value
+		long value;
+		if (getValueIndex() > 0) {
+			value = parseAmount(row.field(getValueIndex() - 1), amountParser);
+		} else {
+			long credit = 0, debit = 0;
+			if (getCreditIndex() <= row.fieldCount()) {
+				CharSequence creditStr = row.field(getCreditIndex() - 1);
+				if (creditStr.length() > 0) {
+					credit = parseAmount(creditStr, amountParser);
+				}
+			}
+			if (getDebitIndex() <= row.fieldCount()) {
+				CharSequence debitStr = row.field(getDebitIndex() - 1);
+				if (debitStr.length() > 0) {
+					// Yes, some files contains negative values in the debit column so I prefer take the
+					// absolute value
+					debit = abs(parseAmount(debitStr, amountParser));
+				}
+			}
+			value = credit - debit;
+		}
+		if (parsers.sampled) {
+			parsers.metrics.addSample(ImportMetrics.Stage.AMOUNT_PARSING, System.nanoTime() - start);
+		}
 
-	public void setFile(File file) {
-		this.file = file;
+		parsers.amount = value;
+		double amount = amountParser.toDouble(value);
+		if (parsers.keyed) {
+			// The label is hashed in place, the key is matched against the index in file order by the emitter
+			parsers.key = OperationIndex.key(dateOperation, OperationIndex.units(value, parsers.scale), row.field(getLabelIndex() - 1));
+		}
+
+		// Create operation
+		return new OperationDto(
+				this.account.getUuid(),
+				OperationDtoType.PAYMENT,
+				dateParser.toDate(dateOperation),
+				dateParser.toDate(dateValue),
+				parsers.labels != null ? row.fieldAsString(getLabelIndex() - 1, parsers.labels) : row.fieldAsString(getLabelIndex() - 1),
+				"",
+				amount
+		);
 	}
 
-	public void setDateOperationIndex(int dateOperationIndex) {
-		this.dateOperationIndex = dateOperationIndex;
+	private long parseAmount(CharSequence numberStr, AmountParser amountParser) throws ParameterError, CollectError {
+		long value = amountParser.parse(numberStr);
+		if (value == AmountParser.INVALID) {
+			if (auto) {
+				throw new ParameterError("numberFormat", "form.error.numberFormat.parsing", amountParser.getParsedPrefix(numberStr), numberStr.toString());
+			}
+			else {
+				throw new CollectError("collect.error.number", amountParser.getParsedPrefix(numberStr), numberStr.toString());
+			}
+		}
+		return value;
 	}
 
-	public void setDateValueIndex(int dateValueIndex) {
-		this.dateValueIndex = dateValueIndex;
+	/**
+	 * @return Number of decimals of the amounts: in auto mode, the ones of the number format (found from the values
+	 * of the file), in manual mode the maximum since the number format does not tell how many decimals the values
+	 * have
+	 */
+	int getAmountScale() {
+		return isAuto() ? AmountParser.scaleOf(getNumberFormat()) : AmountParser.MAX_SCALE;
 	}
 
-	public void setLabelIndex(int labelIndex) {
-		this.labelIndex = labelIndex;
+	/**
+	 * @param balanceUpdated False to leave the balance of the account unchanged, when several collectors import
+	 * into the same account at the same time
+	 */
+	void setBalanceUpdated(boolean balanceUpdated) {
+		this.balanceUpdated = balanceUpdated;
 	}
 
-	public void setCreditIndex(int creditIndex) {
-		this.creditIndex = creditIndex;
+	/**
+	 * @return The sum of the amounts imported by the last import (without the previous imports of an incremental
+	 * import), in minor units of {@link #getAmountScale()}
+	 */
+	long getImportedTotal() {
+		return this.importedTotal;
 	}
 
-	public void setDebitIndex(int debitIndex) {
-		this.debitIndex = debitIndex;
+	/**
+	 * Opens the file to import, it is called once per import.
+	 * @return A new tokenizer on the file
+	 */
+	CsvTokenizer openTokenizer() throws IOException {
+		return new CsvTokenizer(this.file, getColSeparator().getCharacter(), this.charset);
 	}
 
-	public void setValueIndex(int valueIndex) {
-		this.valueIndex = valueIndex;
+	private void initAuto(CsvTokenizer tokenizer) throws ParameterError {
+		CsvFormat format;
+		try {
+			format = this.formatCache != null ? this.formatCache.findFormat(tokenizer, this.metrics)
+					: CsvFormatAnalyzer.findFormat(tokenizer, AnalysisBudget.DEFAULT, this.metrics);
+		} catch (IOException e) {
+			throw new ParameterError("auto", "collect.error.auto", e);
+		}
+		if (format == null) {
+			throw new ParameterError("auto", "collect.error.auto");
+		}
+		applyFormat(format);
 	}
 
-	public void setColSeparator(ColumnSeparator colSeparator) {
-		this.colSeparator = colSeparator;
+	private void applyFormat(CsvFormat format) {
+		setColSeparator(format.getColSeparator());
+		setSkipFirstRow(format.isSkipFirstRow());
+		setDateOperationIndex(format.getDateOperationIndex());
+		setDateValueIndex(format.getDateValueIndex());
+		setCreditIndex(format.getCreditIndex());
+		setLabelIndex(format.getLabelIndex());
+		setDebitIndex(format.getDebitIndex());
+		setValueIndex(format.getValueIndex());
+		setDateFormat(format.getDateFormat());
+		setDecimalSeparator(DecimalSeparator.fromChar(format.getValueFormat().getDecimalFormatSymbols().getDecimalSeparator()));
+		setNumberFormat(format.getValueFormat().toPattern());
+	}
+
+	/**
+	 * @return The format used to import the file, from the parameters of the collector
+	 */
+	CsvFormat getFormat() {
+		DecimalFormatSymbols symb = new DecimalFormatSymbols(Locale.US);
+		symb.setDecimalSeparator(getDecimalSeparator().getCharacter());
+		return new CsvFormat(getDateOperationIndex(), getDateValueIndex(), getLabelIndex(), getCreditIndex(),
+				getDebitIndex(), getValueIndex(), getColSeparator(), isSkipFirstRow(), getDateFormat(),
+				new DecimalFormat(getNumberFormat(), symb));
+	}
+
+	/**
+	 * @return The checkpoint of the previous import of the file if the rows appended since can be imported on
+	 * top of it, null otherwise
+	 */
+	private ImportCheckpoint findCheckpoint(CsvTokenizer tokenizer, ImportCheckpoint.PrefixHasher hasher) throws IOException {
+		if (this.checkpointDirectory == null) {
+			return null;
+		}
+		ImportCheckpoint checkpoint = ImportCheckpoint.load(this.checkpointDirectory, this.file);
+		if (checkpoint == null) {
+			return null;
+		}
+		if (!checkpoint.matches(tokenizer.getChannel(), hasher)) {
+			LOG.info("File " + this.file + " has changed since its previous import, importing all rows");
+			return null;
+		}
+		if (!isAuto() && (!sameFormat(getFormat(), checkpoint.getFormat()) || checkpoint.getScale() != getAmountScale())) {
+			LOG.info("Format has changed since the previous import of " + this.file + ", importing all rows");
+			return null;
+		}
+		return checkpoint;
+	}
+
+	private static boolean sameFormat(CsvFormat format, CsvFormat other) {
+		Properties properties = new Properties();
+		CsvFormatCache.writeFormat(format, properties);
+		Properties otherProperties = new Properties();
+		CsvFormatCache.writeFormat(other, otherProperties);
+		for (String key : Arrays.asList("confidence", "charset")) {
+			properties.remove(key);
+			otherProperties.remove(key);
+		}
+		return properties.equals(otherProperties);
+	}
+
+	/**
+	 * @return The index of the operations imported before, read from {@link #operationIndexFile} if it was not
+	 * given, or null
+	 */
+	private OperationIndex loadOperationIndex() {
+		if (this.operationIndex != null || this.operationIndexFile == null || !this.operationIndexFile.isFile()) {
+			return this.operationIndex;
+		}
+		try {
+			this.operationIndex = OperationIndex.load(this.operationIndexFile);
+		} catch (IOException e) {
+			// Rows imported before will be imported again
+			LOG.log(Level.WARNING, "Cannot read operation index " + this.operationIndexFile, e);
+		}
+		return this.operationIndex;
+	}
+
+	private void storeOperationIndex(Emitter emitter) {
+		if (this.operationIndex == null) {
+			this.operationIndex = new OperationIndex(emitter.emittedKeyCount);
+		}
+		for (int i = 0; i < emitter.emittedKeyCount; i++) {
+			this.operationIndex.add(emitter.emittedKeys[i]);
+		}
+		try {
+			this.operationIndex.store(this.operationIndexFile);
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Cannot store operation index " + this.operationIndexFile, e);
+		}
+	}
+
+	/**
+	 * @return True if rows that cannot be converted are rejected instead of aborting the import
+	 */
+	private boolean isTolerant() {
+		return this.maxRejectedRows > 0 || this.maxRejectedRatio > 0;
+	}
+
+	/**
+	 * Adds a row to the reject report.
+	 * @return true if the import can go on, false if it must be aborted
+	 */
+	private boolean reject(RejectedRow row) {
+		this.rejectReport.add(row);
+		this.lastRejected = row;
+		if (!isTolerant()) {
+			return false;
+		}
+		LOG.fine("Rejected " + row);
+		return this.rejectReport.getRejectedCount() <= this.maxRejectedRows + this.maxRejectedRatio * Math.max(this.rowCount, RATIO_MIN_ROWS);
+	}
+
+	/**
+	 * Checks the error budget against all the rows, once they are read.
+	 * @throws CollectError The error of the last rejected row, if more rows than the budget were rejected
+	 * @throws ParameterError The error of the last rejected row, if more rows than the budget were rejected
+	 */
+	private void checkErrorBudget() throws CollectError, ParameterError {
+		long rejected = this.rejectReport.getRejectedCount();
+		if (rejected <= this.maxRejectedRows + this.maxRejectedRatio * this.rowCount) {
+			return;
+		}
+		this.rejectReport.setRowCount(this.rowCount);
+		LOG.info(rejected + " rows of " + this.file + " were rejected out of " + this.rowCount + ", the import is aborted");
+		MessagesException error = this.lastRejected.getReason();
+		if (error instanceof ParameterError) {
+			throw (ParameterError) error;
+		}
+		throw (CollectError) error;
+	}
+
+	/**
+	 * Stores the checkpoint of the file after the imported rows. No checkpoint is stored when rows were rejected
+	 * (see {@link #setErrorBudget(long, double)}), and the one of a previous import is removed: the next import reads
+	 * the whole file again, so the rejected rows are not lost once they are fixed.
+	 */
+	private void storeCheckpoint(CsvTokenizer tokenizer, ImportCheckpoint.PrefixHasher hasher, Emitter emitter) {
+		CsvFormat format = getFormat();
+		format.setCharset(tokenizer.getCharset());
+		try {
+			if (this.rejectReport.getRejectedCount() > 0) {
+				LOG.info("No checkpoint is stored for " + this.file + ", its rejected rows will be read again by the next import");
+				Files.deleteIfExists(ImportCheckpoint.getFile(this.checkpointDirectory, this.file).toPath());
+				return;
+			}
+			long offset = tokenizer.getEnd();
+			double initialBalance = emitter.initialBalance != null ? emitter.initialBalance - AmountParser.toDouble(emitter.resumedTotal, emitter.scale) : 0.0;
+			new ImportCheckpoint(offset, hasher.hash(tokenizer.getChannel(), offset), this.lineCount, format,
+					initialBalance, emitter.total, emitter.scale).store(this.checkpointDirectory, this.file);
+		} catch (IOException e) {
+			// The next import will import the whole file
+			LOG.log(Level.WARNING, "Cannot store checkpoint of " + this.file, e);
+		}
+	}
+
+	@Override
+	public List<AccountDto> getAccounts() {
+		return this.accounts;
+	}
+
+	@Override
+	public void setAccounts(List<AccountDto> list) {
+		this.accounts.addAll(list);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Operations are collected here only if no {@link OperationSink} has been set.
+	 */
+	@Override
+	public List<OperationDto> getOperations() {
+		return this.operations;
+	}
+
+	/**
+	 * Sets where the operations are sent, by batches, while the file is parsed. When set, operations are not kept
+	 * in {@link #getOperations()} anymore so memory does not grow with the size of the file.
+	 * @param operationSink The sink or null to collect operations in {@link #getOperations()}
+	 */
+	public void setOperationSink(OperationSink operationSink) {
+		this.operationSink = operationSink;
+	}
+
+	public OperationSink getOperationSink() {
+		return this.operationSink;
+	}
+
+	/**
+	 * @param batchSize Number of operations sent at once to the {@link OperationSink}
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+		}
+		this.batchSize = batchSize;
+	}
+
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+
+	public AccountDto getAccount() {
+		return this.account;
+	}
+
+	public void setAccount(AccountDto account) {
+		this.account = account;
+	}
+
+	public void setFile(File file) {
+		this.file = file;
+	}
+
+	public void setDateOperationIndex(int dateOperationIndex) {
+		this.dateOperationIndex = dateOperationIndex;
+	}
+
+	public void setDateValueIndex(int dateValueIndex) {
+		this.dateValueIndex = dateValueIndex;
+	}
+
+	public void setLabelIndex(int labelIndex) {
+		this.labelIndex = labelIndex;
+	}
+
+	public void setCreditIndex(int creditIndex) {
+		this.creditIndex = creditIndex;
+	}
+
+	public void setDebitIndex(int debitIndex) {
+		this.debitIndex = debitIndex;
+	}
+
+	public void setValueIndex(int valueIndex) {
+		this.valueIndex = valueIndex;
+	}
+
+	public void setColSeparator(ColumnSeparator colSeparator) {
+		this.colSeparator = colSeparator;
 	}
 
 	public void setSkipFirstRow(boolean skipFirstRow) {
@@ -501,6 +1182,246 @@ public class CsvCollector implements CollectorPlugin {
 		this.decimalSeparator = decimalSeparator;
 	}
 
+	/**
+	 * @param parallelism Number of threads used to parse big files, 1 to always parse in the calling thread
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+		}
+		this.parallelism = parallelism;
+	}
+
+	public int getParallelism() {
+		return this.parallelism;
+	}
+
+	/**
+	 * @param parallelThreshold Size of file (in bytes) from which the file is parsed by several threads
+	 */
+	public void setParallelThreshold(long parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	public long getParallelThreshold() {
+		return this.parallelThreshold;
+	}
+
+	/**
+	 * @param chunkSize Maximum size in bytes of the chunks of a file parsed in parallel
+	 */
+	void setChunkSize(long chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @return The highest number of parsed operations waiting to be sent during the last parallel import
+	 */
+	long getPeakPendingOperations() {
+		return this.peakPendingOperations.get();
+	}
+
+	/**
+	 * @param formatCache Cache of the formats found in auto mode (the shared one by default), null to analyze
+	 * every file
+	 */
+	public void setFormatCache(CsvFormatCache formatCache) {
+		this.formatCache = formatCache;
+	}
+
+	public CsvFormatCache getFormatCache() {
+		return this.formatCache;
+	}
+
+	/**
+	 * @param charset Charset of the file, null (the default) to detect it from the first bytes of the file
+	 */
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+
+	public Charset getCharset() {
+		return this.charset;
+	}
+
+	/**
+	 * Sets where a checkpoint is stored after each import, so that when the same file is imported again by an
+	 * incremental import (see {@link #setIncremental(boolean)}), only the rows appended to it since are parsed.
+	 * An import with rejected rows stores no checkpoint, so the next import reads them again.
+	 * @param checkpointDirectory An existing directory or null (the default) to always import the whole file
+	 */
+	public void setCheckpointDirectory(File checkpointDirectory) {
+		this.checkpointDirectory = checkpointDirectory;
+	}
+
+	public File getCheckpointDirectory() {
+		return this.checkpointDirectory;
+	}
+
+	/**
+	 * @param incremental True to only import the rows appended to the file since the previous import, if the
+	 * {@link #setCheckpointDirectory(File) checkpoint directory} has a checkpoint of the file and the file still
+	 * starts with the imported bytes. False (the default) to import the whole file.
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	public boolean isIncremental() {
+		return this.incremental;
+	}
+
+	/**
+	 * Sets the operations imported before: rows of the file matching one of them (same operation date, amount and
+	 * label) are skipped. An operation imported before is matched by one row only: if it is twice in the
+	 * operations, two identical rows are skipped, if it is once, the second identical row is imported.
+	 * @param operations The operations, or null to import all rows
+	 */
+	public void setKnownOperations(Iterable<OperationDto> operations) {
+		this.operationIndex = operations == null ? null : OperationIndex.of(operations);
+	}
+
+	/**
+	 * @param operationIndex Index of the operations imported before, or null to import all rows
+	 */
+	public void setOperationIndex(OperationIndex operationIndex) {
+		this.operationIndex = operationIndex;
+	}
+
+	public OperationIndex getOperationIndex() {
+		return this.operationIndex;
+	}
+
+	/**
+	 * Sets a file where the index of the imported operations is kept between imports: it is read before the
+	 * first import if no index was given, and the imported operations are added to it after each import.
+	 * @param operationIndexFile The file, or null (the default) to not persist the index
+	 */
+	public void setOperationIndexFile(File operationIndexFile) {
+		this.operationIndexFile = operationIndexFile;
+	}
+
+	public File getOperationIndexFile() {
+		return this.operationIndexFile;
+	}
+
+	/**
+	 * Sets the size of the pool sharing the labels repeated in a file (recurring payments, same merchant), it
+	 * lowers the memory held by the imported operations.
+	 * @param labelPoolSize Number of labels kept by the pool, 0 to create a string for each label
+	 */
+	public void setLabelPoolSize(int labelPoolSize) {
+		if (labelPoolSize < 0) {
+			throw new IllegalArgumentException("Label pool size cannot be negative: " + labelPoolSize);
+		}
+		this.labelPoolSize = labelPoolSize;
+	}
+
+	public int getLabelPoolSize() {
+		return this.labelPoolSize;
+	}
+
+	/**
+	 * Sets how many rows that cannot be converted (a malformed date, a total at the end of the file) are rejected
+	 * before the import is aborted: the import goes on as long as the number of rejected rows is at most
+	 * <code>maxRejectedRows + maxRejectedRatio * rows read</code>, with at least {@link #RATIO_MIN_ROWS} rows read
+	 * so that a rejected row at the start of the file does not abort the import. Once all rows are read, the
+	 * import fails if the number of rejected rows is more than <code>maxRejectedRows + maxRejectedRatio * rows</code>.
+	 * By default, the first rejected row aborts the import.
+	 * @param maxRejectedRows Number of rows that can be rejected, at least 0
+	 * @param maxRejectedRatio Part of the rows read that can be rejected, between 0 and 1
+	 */
+	public void setErrorBudget(long maxRejectedRows, double maxRejectedRatio) {
+		if (maxRejectedRows < 0) {
+			throw new IllegalArgumentException("Number of rejected rows cannot be negative: " + maxRejectedRows);
+		}
+		if (maxRejectedRatio < 0 || maxRejectedRatio > 1) {
+			throw new IllegalArgumentException("Ratio of rejected rows must be between 0 and 1: " + maxRejectedRatio);
+		}
+		this.maxRejectedRows = maxRejectedRows;
+		this.maxRejectedRatio = maxRejectedRatio;
+	}
+
+	public long getMaxRejectedRows() {
+		return this.maxRejectedRows;
+	}
+
+	public double getMaxRejectedRatio() {
+		return this.maxRejectedRatio;
+	}
+
+	/**
+	 * @param rejectBufferSize Number of rejected rows kept in the report of an import (the last ones)
+	 */
+	public void setRejectBufferSize(int rejectBufferSize) {
+		if (rejectBufferSize < 0) {
+			throw new IllegalArgumentException("Reject buffer size cannot be negative: " + rejectBufferSize);
+		}
+		this.rejectBufferSize = rejectBufferSize;
+	}
+
+	public int getRejectBufferSize() {
+		return this.rejectBufferSize;
+	}
+
+	/**
+	 * @return The rows rejected by the last import, with the row that aborted it if any
+	 */
+	public RejectReport getRejectReport() {
+		return this.rejectReport;
+	}
+
+	/**
+	 * @return The number of rows skipped by the last import because they match an operation imported before (see
+	 * {@link #setKnownOperations(Iterable)}), each operation imported before matches one row at most. When the
+	 * index is not exact (see {@link OperationIndex#isExact()}), some of them may be new operations.
+	 */
+	public long getDuplicateCount() {
+		return this.duplicateCount;
+	}
+
+	/**
+	 * @return The number of amounts of the last import that had more decimals than the scale (see
+	 * {@link AmountParser}) and were rounded half even
+	 */
+	public long getRoundedCount() {
+		return this.roundedCount;
+	}
+
+	/**
+	 * @param metricsListener Receives the metrics at the end of each import, or null
+	 */
+	public void setMetricsListener(ImportMetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+
+	public ImportMetricsListener getMetricsListener() {
+		return this.metricsListener;
+	}
+
+	/**
+	 * @param statistics Where the metrics of each import are added up ({@link ImportStatistics#getShared()} by
+	 * default), null to not add them
+	 */
+	public void setStatistics(ImportStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	public ImportStatistics getStatistics() {
+		return this.statistics;
+	}
+
+	/**
+	 * @return The metrics of the current or last import, null before the first import. They can be read by any
+	 * thread while the import runs.
+	 */
+	public ImportMetrics getMetrics() {
+		return this.metrics;
+	}
+
 	@Override
 	public void setOTPProvider(OTPProvider otpProvider) {
 		// Not needed here
@@ -583,49 +1504,385 @@ public class CsvCollector implements CollectorPlugin {
 		return msg;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * It is the part of the bytes of the file whose operations were sent, it can be called by any thread.
+	 */
 	@Override
 	public int getProgress() {
-		return this.progress;
+		return this.phaseProgress.get(Phase.EMITTING.ordinal());
 	}
 
-	private static int getLineCount(File file) {
-		int count = 0;
-		FileInputStream is = null;
-		InputStreamReader reader = null;
-		BufferedReader buffer = null;
-		try {
-			is = new FileInputStream(file);
-			reader = new InputStreamReader(is, CsvCollector.DEFAULT_CHARSET);
-			buffer = new BufferedReader(reader);
-			while (buffer.readLine() != null) {
-				count++;
-			}
-		} catch (IOException e) {
-			count = -1;
+	/**
+	 * @param phase A phase of the import
+	 * @return The progress of the phase in percent, it can be called by any thread
+	 */
+	public int getProgress(Phase phase) {
+		return this.phaseProgress.get(phase.ordinal());
+	}
+
+	/**
+	 * @return The current phase of the import or null if no import was started, it can be called by any thread
+	 */
+	public Phase getPhase() {
+		return this.phase;
+	}
+
+	/**
+	 * @return The part, in percent, of the bytes to import that are before an offset
+	 */
+	private int percentOf(long offset) {
+		long length = this.progressEnd - this.progressStart;
+		return length <= 0 ? 100 : (int) ((offset - this.progressStart) * 100 / length);
+	}
+
+	/**
+	 * Raises the progress of a phase, it never goes back even when chunks are parsed out of order.
+	 */
+	private void setProgress(Phase phase, int percent) {
+		this.phaseProgress.accumulateAndGet(phase.ordinal(), percent, Math::max);
+	}
+
+	/**
+	 * Sends operations to the sink by batches and keeps the balance of the account up to date.
+	 */
+	private final class Emitter {
+
+		private final OperationSink sink;
+
+		private final List<OperationDto> batch;
+
+		private final int scale;
+
+		/**
+		 * Balance of the account before the import, read when the first batch is delivered.
+		 */
+		private Double initialBalance;
+
+		/**
+		 * Sum of the emitted amounts, in minor units, including the amounts of the previous import if it is resumed.
+		 */
+		private long total;
+
+		/**
+		 * Sum of the amounts of the previous import, in minor units, if it is resumed.
+		 */
+		private long resumedTotal;
+
+		/**
+		 * Number of emitted operations.
+		 */
+		private long count;
+
+		/**
+		 * Matcher of the operations imported before, or null.
+		 */
+		private final OperationIndex.Matcher matcher;
+
+		/**
+		 * Keys of the emitted operations, null if they are not recorded. They are added to the index once the
+		 * import is done, so rows of the file do not match each other.
+		 */
+		private long[] emittedKeys;
+
+		private int emittedKeyCount;
+
+		Emitter(OperationSink sink, int scale, OperationIndex index, boolean recordKeys) {
+			this.sink = sink;
+			this.batch = new ArrayList<>(Math.min(batchSize, 1024));
+			this.scale = scale;
+			this.matcher = index != null ? index.matcher() : null;
+			this.emittedKeys = recordKeys ? new long[256] : null;
 		}
-		finally {
-			if (buffer != null) {
-				try {
-					buffer.close();
-				} catch (IOException e) {
-					LOG.fine("Ignoring IOException: " + e.getMessage());
-				}
+
+		/**
+		 * @param op The operation
+		 * @param amount Amount of the operation in minor units
+		 * @param key Key of the operation, if {@link #operationKeys}
+		 */
+		void add(OperationDto op, long amount, long key) {
+			if (matcher != null && matcher.match(key)) {
+				duplicateCount++;
+				return;
 			}
-			if (reader != null) {
-				try {
-					reader.close();
-				} catch (IOException e) {
-					LOG.fine("Ignoring IOException: " + e.getMessage());
+			batch.add(op);
+			total += amount;
+			count++;
+			if (emittedKeys != null) {
+				if (emittedKeyCount == emittedKeys.length) {
+					emittedKeys = Arrays.copyOf(emittedKeys, emittedKeyCount * 2);
 				}
+				emittedKeys[emittedKeyCount++] = key;
 			}
-			if (is != null) {
-				try {
-					is.close();
-				} catch (IOException e) {
-					LOG.fine("Ignoring IOException: " + e.getMessage());
-				}
+			if (batch.size() >= batchSize) {
+				flush();
+			}
+		}
+
+		/**
+		 * Continues a previous import: the amounts of the new rows are added to the current balance of the account,
+		 * so the changes made to it since the previous import are kept.
+		 * @param total Total of the previous import, in minor units
+		 */
+		void resume(long total) {
+			this.total = total;
+			this.resumedTotal = total;
+		}
+
+		void flush() {
+			if (!batch.isEmpty()) {
+				updateBalance();
+				long start = System.nanoTime();
+				sink.accept(batch);
+				metrics.addStageNanos(ImportMetrics.Stage.EMITTING, System.nanoTime() - start);
+				batch.clear();
+			}
+		}
+
+		/**
+		 * Balance is exact in minor units and rounded once, it is updated before each batch is delivered.
+		 */
+		void updateBalance() {
+			if (account == null || !balanceUpdated) {
+				return;
+			}
+			if (initialBalance == null) {
+				initialBalance = account.getCurrentBalance();
+			}
+			account.setCurrentBalance(initialBalance + AmountParser.toDouble(total - resumedTotal, scale));
+		}
+	}
+
+	/**
+	 * Operations parsed from a chunk of the file.
+	 */
+	private static final class Chunk {
+
+		final List<OperationDto> operations = new ArrayList<>();
+
+		/**
+		 * Amounts of the operations in minor units.
+		 */
+		long[] amounts = new long[256];
+
+		/**
+		 * Keys of the operations, if {@link #operationKeys}.
+		 */
+		long[] keys = new long[256];
+
+		/**
+		 * Rows of the chunk that could not be converted, in file order.
+		 */
+		final List<Reject> rejects = new ArrayList<>(0);
+
+		/**
+		 * Number of non empty rows of the chunk.
+		 */
+		int rowCount;
+
+		/**
+		 * Number of lines of the chunk, empty lines included.
+		 */
+		long lineCount;
+
+		boolean truncated;
+
+		/**
+		 * Number of rounded amounts.
+		 */
+		long rounded;
+
+		void reject(CsvTokenizer tokenizer, String row, MessagesException error) {
+			Reject reject = new Reject();
+			reject.rowIndex = rowCount;
+			reject.line = tokenizer.getRowLine();
+			reject.operationIndex = operations.size();
+			reject.offset = tokenizer.getRowStart();
+			reject.bytes = tokenizer.rowBytes();
+			reject.row = row;
+			reject.error = error;
+			rejects.add(reject);
+		}
+
+		void add(OperationDto op, long amount, long key) {
+			if (operations.size() == amounts.length) {
+				amounts = Arrays.copyOf(amounts, amounts.length * 2);
+				keys = Arrays.copyOf(keys, keys.length * 2);
+			}
+			amounts[operations.size()] = amount;
+			keys[operations.size()] = key;
+			operations.add(op);
+		}
+	}
+
+	/**
+	 * Row of a chunk that could not be converted.
+	 */
+	private static final class Reject {
+
+		/**
+		 * Index of the row in the non empty rows of the chunk.
+		 */
+		int rowIndex;
+
+		/**
+		 * Number of lines of the chunk before the row.
+		 */
+		long line;
+
+		/**
+		 * Number of operations of the chunk before the row.
+		 */
+		int operationIndex;
+
+		long offset;
+
+		byte[] bytes;
+
+		String row;
+
+		MessagesException error;
+	}
+
+	/**
+	 * Parsers used by a thread to convert rows, they are not thread safe.
+	 */
+	private final class RowParsers {
+
+		final DateParser dateParser = DateParser.compile(getDateFormat());
+
+		final AmountParser amountParser = AmountParser.compile(getNumberFormat(), getDecimalSeparator().getCharacter(), getAmountScale());
+
+		/**
+		 * Labels of the import, shared by all threads.
+		 */
+		final LabelPool labels = labelPool;
+
+		/**
+		 * Number of decimals of the amounts.
+		 */
+		final int scale = getAmountScale();
+
+		/**
+		 * Amount of the last converted row, in minor units.
+		 */
+		long amount;
+
+		/**
+		 * True if the key of the operations is computed.
+		 */
+		final boolean keyed = operationKeys;
+
+		/**
+		 * Key of the operation of the last converted row, if {@link #keyed}.
+		 */
+		long key;
+
+		/**
+		 * Metrics of the import, shared by all threads.
+		 */
+		final ImportMetrics metrics = CsvCollector.this.metrics;
+
+		/**
+		 * True if the stages of the current row are timed.
+		 */
+		boolean sampled;
+
+		/**
+		 * Number of rows read by this thread (empty ones included).
+		 */
+		private long rows;
+
+		private long blockStart;
+
+		/**
+		 * Flight recorder event of the current block, null before the first row.
+		 */
+		private ParseBlockEvent blockEvent;
+
+		private long blockFirstRow;
+
+		/**
+		 * True if the rows are timed for {@link SlowRowEvent}, it is checked at each block.
+		 */
+		private boolean traceRows;
+
+		/**
+		 * Event of the last row read, null if rows are not timed.
+		 */
+		private SlowRowEvent rowEvent;
+
+		/**
+		 * Moves the tokenizer to the next row, the time to read one row in {@link ImportMetrics#SAMPLE_INTERVAL} is
+		 * recorded and the time of each block of {@link ImportMetrics#BLOCK_ROWS} rows. The previous row is over
+		 * when it is called.
+		 */
+		boolean next(CsvTokenizer tokenizer) throws IOException {
+			if (rowEvent != null) {
+				endRow(rowEvent);
+				rowEvent = null;
+			}
+			if (blockEvent == null) {
+				startBlock(tokenizer);
+			}
+			else if (rows - blockFirstRow == ImportMetrics.BLOCK_ROWS) {
+				metrics.addBlock(System.nanoTime() - blockStart);
+				endBlock(tokenizer);
+				startBlock(tokenizer);
+			}
+			SlowRowEvent row = null;
+			if (traceRows) {
+				row = new SlowRowEvent();
+				row.begin();
+			}
+			sampled = (rows & (ImportMetrics.SAMPLE_INTERVAL - 1)) == 0;
+			boolean next;
+			if (!sampled) {
+				next = tokenizer.next();
+			}
+			else {
+				long start = System.nanoTime();
+				next = tokenizer.next();
+				metrics.addSample(ImportMetrics.Stage.TOKENIZING, System.nanoTime() - start);
+			}
+			if (!next) {
+				endBlock(tokenizer);
+				return false;
+			}
+			rows++;
+			if (row != null) {
+				row.offset = tokenizer.getRowStart();
+				row.bytes = tokenizer.getPosition() - row.offset;
+				rowEvent = row;
+			}
+			return true;
+		}
+
+		private void startBlock(CsvTokenizer tokenizer) {
+			blockEvent = new ParseBlockEvent();
+			blockEvent.begin();
+			blockEvent.offset = tokenizer.getPosition();
+			blockFirstRow = rows;
+			blockStart = System.nanoTime();
+			traceRows = new SlowRowEvent().isEnabled();
+		}
+
+		private void endBlock(CsvTokenizer tokenizer) {
+			blockEvent.end();
+			if (rows > blockFirstRow && blockEvent.shouldCommit()) {
+				blockEvent.file = String.valueOf(file);
+				blockEvent.rows = rows - blockFirstRow;
+				blockEvent.bytes = tokenizer.getPosition() - blockEvent.offset;
+				blockEvent.commit();
+			}
+		}
+
+		private void endRow(SlowRowEvent event) {
+			event.end();
+			if (event.shouldCommit()) {
+				event.file = String.valueOf(file);
+				event.commit();
 			}
 		}
-		return count;
 	}
 }
@@ -1,5 +1,6 @@
 package com.tibudget.plugins.csv;
 
+import java.nio.charset.Charset;
 import java.text.DecimalFormat;
 
 public class CsvFormat {
@@ -24,6 +25,10 @@ public class CsvFormat {
 
     DecimalFormat valueFormat;
 
+    double confidence = 1.0;
+
+    Charset charset;
+
     public CsvFormat(CsvCollector.ColumnSeparator colSeparator, boolean skipFirstRow, String dateFormat) {
         super();
         this.colSeparator = colSeparator;
@@ -46,6 +51,18 @@ public class CsvFormat {
         this.valueFormat = valueFormat;
     }
 
+    /**
+     * Copy constructor.
+     * @param other The format to copy
+     */
+    public CsvFormat(CsvFormat other) {
+        this(other.dateOperationIndex, other.dateValueIndex, other.labelIndex, other.creditIndex, other.debitIndex,
+                other.valueIndex, other.colSeparator, other.skipFirstRow, other.dateFormat,
+                other.valueFormat != null ? (DecimalFormat) other.valueFormat.clone() : null);
+        this.confidence = other.confidence;
+        this.charset = other.charset;
+    }
+
     public int getDateOperationIndex() {
         return dateOperationIndex;
     }
@@ -125,4 +142,36 @@ public class CsvFormat {
     public void setValueFormat(DecimalFormat valueFormat) {
         this.valueFormat = valueFormat;
     }
+
+    /**
+     * @return The charset of the file or null if it is not known
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * @return How confident the analyzer is in this format, between 0 and 1 (1 for a format set by the user)
+     */
+    public double getConfidence() {
+        return confidence;
+    }
+
+    public void setConfidence(double confidence) {
+        this.confidence = confidence;
+    }
+
+    @Override
+    public String toString() {
+        return "separator=" + colSeparator + " skipFirstRow=" + skipFirstRow
+                + " dateOperation=" + dateOperationIndex + " dateValue=" + dateValueIndex + " label=" + labelIndex
+                + " credit=" + creditIndex + " debit=" + debitIndex + " value=" + valueIndex
+                + " dateFormat=" + dateFormat
+                + " valueFormat=" + (valueFormat != null ? valueFormat.toPattern() + " (" + valueFormat.getDecimalFormatSymbols().getDecimalSeparator() + ")" : null)
+                + " charset=" + charset + " confidence=" + confidence;
+    }
 }
@@ -1,13 +1,10 @@
 package com.tibudget.plugins.csv;
 
-import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
-
 import java.io.*;
 import java.text.DecimalFormat;
-import java.text.ParseException;
 import java.text.ParsePosition;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -15,49 +12,102 @@ public class CsvFormatAnalyzer {
 
 	private static final Logger LOG = Logger.getLogger(CsvFormatAnalyzer.class.getName());
 
+	/**
+	 * Number of lines read from the start of the file to find the separator.
+	 */
 	private static final int ANALYZE_LINE_COUNT = 100;
 
+	/**
+	 * Part of the sampled rows a column must have a value on to be taken as a column with a value on all rows:
+	 * a few rows of the sample (footers, rows from the middle of a quoted field) are not rows of the column.
+	 */
+	static final double FULL_COLUMN_RATIO = 0.99;
+
+	/**
+	 * Bounds of the number of separators on each line: 3 to 9 columns.
+	 */
+	static final int MIN_SEPARATOR_COUNT = 2;
+	static final int MAX_SEPARATOR_COUNT = 8;
+
+	// Quote states of the separator detection
+	private static final int FIELD_START = 0;
+	private static final int UNQUOTED = 1;
+	private static final int QUOTED = 2;
+	private static final int QUOTE_IN_QUOTED = 3;
+
+	/**
+	 * Number of rows read from the start of the file to guess its format (dates and values formats are
+	 * checked against all of them).
+	 */
+	static final int ANALYZE_PREFIX_LINE_COUNT = 1000;
+
 	private static class ColumnStats {
 		int index;
-		DescriptiveStatistics lengthStat;
-		DescriptiveStatistics digitPercentStat;
-		DescriptiveStatistics letterPercentStat;
-		DescriptiveStatistics numberStat;
-		DescriptiveStatistics dateStat;
+		StreamingStatistics lengthStat;
+		StreamingStatistics digitPercentStat;
+		StreamingStatistics letterPercentStat;
+		StreamingStatistics numberStat;
+		StreamingStatistics dateStat;
+		double dateProbability;
+		double numberProbability;
+		double labelProbability;
 
 		public ColumnStats(int index) {
 			super();
 			this.index = index;
-			this.lengthStat = new DescriptiveStatistics();
-			this.digitPercentStat = new DescriptiveStatistics();
-			this.letterPercentStat = new DescriptiveStatistics();
-			this.numberStat = new DescriptiveStatistics();
-			this.dateStat = new DescriptiveStatistics();
+			this.lengthStat = new StreamingStatistics();
+			this.digitPercentStat = new StreamingStatistics();
+			this.letterPercentStat = new StreamingStatistics();
+			this.numberStat = new StreamingStatistics();
+			this.dateStat = new StreamingStatistics();
 		}
 
 		public int getIndex() {
 			return this.index;
 		}
 
-		public DescriptiveStatistics getLengthStat() {
+		public StreamingStatistics getLengthStat() {
 			return this.lengthStat;
 		}
 
-		public DescriptiveStatistics getDigitPercentStat() {
+		public StreamingStatistics getDigitPercentStat() {
 			return this.digitPercentStat;
 		}
 
-		public DescriptiveStatistics getLetterPercentStat() {
+		public StreamingStatistics getLetterPercentStat() {
 			return this.letterPercentStat;
 		}
 
-		public DescriptiveStatistics getNumberStat() {
+		public StreamingStatistics getNumberStat() {
 			return this.numberStat;
 		}
 
-		public DescriptiveStatistics getDateStat() {
+		public StreamingStatistics getDateStat() {
 			return this.dateStat;
 		}
+
+		/**
+		 * Computes the probabilities once values are added, so they are not computed again on each
+		 * comparison while sorting the columns.
+		 * @param lineCount Number of sampled rows
+		 */
+		void computeProbabilities(int lineCount) {
+			this.dateProbability = computeDateProbability(this, lineCount);
+			this.numberProbability = computeNumberProbability(this, lineCount);
+			this.labelProbability = computeLabelProbability(this);
+		}
+
+		public double getDateProbability() {
+			return this.dateProbability;
+		}
+
+		public double getNumberProbability() {
+			return this.numberProbability;
+		}
+
+		public double getLabelProbability() {
+			return this.labelProbability;
+		}
 	}
 
 	private static class ProbabilityDateComparator implements Serializable, Comparator<ColumnStats> {
@@ -66,7 +116,7 @@ public class CsvFormatAnalyzer {
 
 		@Override
 		public int compare(ColumnStats o1, ColumnStats o2) {
-			return (int) ((computeDateProbability(o2) - computeDateProbability(o1)) * 100);
+			return Double.compare(o2.getDateProbability(), o1.getDateProbability());
 		}
 	}
 
@@ -76,7 +126,7 @@ public class CsvFormatAnalyzer {
 
 		@Override
 		public int compare(ColumnStats o1, ColumnStats o2) {
-			return (int) ((computeNumberProbability(o2) - computeNumberProbability(o1)) * 100);
+			return Double.compare(o2.getNumberProbability(), o1.getNumberProbability());
 		}
 	}
 
@@ -86,121 +136,320 @@ public class CsvFormatAnalyzer {
 
 		@Override
 		public int compare(ColumnStats o1, ColumnStats o2) {
-			return (int) ((computeLabelProbability(o2) - computeLabelProbability(o1)) * 100);
+			return Double.compare(o2.getLabelProbability(), o1.getLabelProbability());
 		}
 	}
 
+	/**
+	 * A guess and how confident it is.
+	 */
+	static class Decision<T> {
+		final T value;
+		final double confidence;
+
+		Decision(T value, double confidence) {
+			this.value = value;
+			this.confidence = confidence;
+		}
+	}
+
+	/**
+	 * Values of one or two columns of the rows of a sample, read lazily so the reader can stop as soon as it
+	 * has seen enough of them. Each call to {@link #iterator()} starts a new pass over the sample.
+	 */
+	private static class ColumnValues implements Iterable<String> {
+		private final CsvSample sample;
+		private final int firstCol;
+		private final int secondCol;
+		private int count;
+
+		ColumnValues(CsvSample sample, int firstCol, int secondCol) {
+			this.sample = sample;
+			this.firstCol = firstCol;
+			this.secondCol = secondCol;
+		}
+
+		/**
+		 * @return The number of values returned by the last pass
+		 */
+		int getCount() {
+			return this.count;
+		}
+
+		@Override
+		public Iterator<String> iterator() {
+			sample.rewind();
+			count = 0;
+			return new Iterator<String>() {
+				private int lineCount = 0;
+				private String second;
+				private String next;
+
+				@Override
+				public boolean hasNext() {
+					try {
+						while (next == null) {
+							if (second != null) {
+								next = second;
+								second = null;
+							}
+							else if (!moveToRow()) {
+								return false;
+							}
+						}
+						return true;
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+
+				@Override
+				public String next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					String value = next;
+					next = null;
+					count++;
+					return value;
+				}
+
+				private boolean moveToRow() throws IOException {
+					if (lineCount == 0) {
+						// Skip first line
+						sample.next();
+						lineCount++;
+					}
+					while (lineCount++ < ANALYZE_PREFIX_LINE_COUNT && sample.next()) {
+						CsvRow row = sample.row();
+						if (row.isEmptyLine() || row.fieldCount() < firstCol + 1) {
+							continue;
+						}
+						next = row.fieldAsString(firstCol);
+						if (secondCol >= 0 && row.fieldCount() >= secondCol + 1) {
+							second = row.fieldAsString(secondCol);
+						}
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Guess the format of a CSV file by analyzing its first lines.
+	 * @param csvFile The CSV file
+	 * @return The guessed format or null if it cannot be determined
+	 */
 	public static CsvFormat findFormat(File csvFile) throws IOException {
+		try (CsvTokenizer tokenizer = new CsvTokenizer(csvFile, ',')) {
+			return findFormat(tokenizer);
+		}
+	}
+
+	/**
+	 * Guess the format of a CSV file from a sample of its rows, within {@link AnalysisBudget#DEFAULT}.
+	 * @see #findFormat(CsvTokenizer, AnalysisBudget)
+	 */
+	public static CsvFormat findFormat(CsvTokenizer tokenizer) throws IOException {
+		return findFormat(tokenizer, AnalysisBudget.DEFAULT);
+	}
+
+	/**
+	 * Guess the format of a CSV file from a sample of its rows: the whole file if it is smaller than the byte
+	 * budget, otherwise its start and evenly spaced ranges after it (see {@link CsvSample}). The confidence
+	 * reached is set in the returned format. The tokenizer is rewound after the analysis (and its separator is
+	 * set to the guessed one) so the import can start right after without reading the file again.
+	 * @param tokenizer The tokenizer of the file, it must not have been moved yet
+	 * @param budget The limits of the analysis
+	 * @return The guessed format or null if it cannot be determined
+	 */
+	public static CsvFormat findFormat(CsvTokenizer tokenizer, AnalysisBudget budget) throws IOException {
+		return findFormat(tokenizer, budget, null);
+	}
+
+	/**
+	 * Same as {@link #findFormat(CsvTokenizer, AnalysisBudget)}, the time of each detection stage is added to
+	 * the metrics.
+	 * @param metrics Metrics of the import, or null
+	 */
+	static CsvFormat findFormat(CsvTokenizer tokenizer, AnalysisBudget budget, ImportMetrics metrics) throws IOException {
+		FormatDetectionEvent event = FormatDetectionEvent.start("findFormat", tokenizer.getEnd());
+		try (CsvSample sample = CsvSample.of(tokenizer, budget)) {
+			CsvFormat format = guessFormat(tokenizer, sample, budget, metrics);
+			event.sampledBytes = sample.getBytes();
+			event.finish(format, format != null ? format.getConfidence() : 0.0);
+			if (LOG.isLoggable(Level.FINE)) {
+				LOG.fine("Sampled " + sample.getBytes() + " bytes in " + sample.getRangeCount() + " ranges"
+						+ (sample.isBudgetExceeded() ? " (time budget exceeded)" : "")
+						+ ", confidence=" + (format != null ? format.getConfidence() : 0.0));
+			}
+			return format;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			tokenizer.rewind();
+		}
+	}
+
+	private static CsvFormat guessFormat(CsvTokenizer tokenizer, CsvSample sample, AnalysisBudget budget, ImportMetrics metrics) throws IOException {
 
 		// Guess char separator
-		CsvCollector.ColumnSeparator charSepartor = findCharSeparator(csvFile);
-		if (charSepartor == null) {
+		long start = System.nanoTime();
+		FormatDetectionEvent event = FormatDetectionEvent.start("findCharSeparator", tokenizer.getEnd());
+		Decision<CsvCollector.ColumnSeparator> separator = findCharSeparator(tokenizer.readPrefix(ANALYZE_LINE_COUNT));
+		start = addStageNanos(metrics, ImportMetrics.Stage.SEPARATOR_DETECTION, start);
+		finish(event, separator);
+		if (separator == null) {
 			return null;
 		}
+		CsvCollector.ColumnSeparator charSepartor = separator.value;
+		tokenizer.setSeparator(charSepartor.getCharacter());
+		sample.setSeparator(charSepartor.getCharacter());
 
 		// Guess date format
-		String datePattern = findDatePattern(csvFile, charSepartor.getCharacter());
+		event = FormatDetectionEvent.start("findDatePattern", tokenizer.getEnd());
+		Decision<String> datePattern = findDatePattern(sample, budget);
+		start = addStageNanos(metrics, ImportMetrics.Stage.DATE_DETECTION, start);
+		finish(event, datePattern);
 		if (datePattern == null) {
 			return null;
 		}
-		SimpleDateFormat dateFormat = new SimpleDateFormat(datePattern);
+		DateParser dateParser = DateParser.compile(datePattern.value);
 
 		// Guess values format
-		DecimalFormat decimalFormat = findDecimalFormat(csvFile, charSepartor.getCharacter());
-		if (decimalFormat == null) {
+		event = FormatDetectionEvent.start("findDecimalFormat", tokenizer.getEnd());
+		Decision<DecimalFormat> valueFormat = findDecimalFormat(sample, budget);
+		start = addStageNanos(metrics, ImportMetrics.Stage.DECIMAL_DETECTION, start);
+		finish(event, valueFormat);
+		if (valueFormat == null) {
 			return null;
 		}
+		DecimalFormat decimalFormat = valueFormat.value;
 
-		DescriptiveStatistics colCountStats = new DescriptiveStatistics();
 		Map<Integer, ColumnStats> colStats = new HashMap<Integer, ColumnStats>();
 		boolean skipFirstLine = true;
 		int lineCount = 0;
-		CsvFileReader csvReader = null;
-		try {
-			csvReader = new CsvFileReader(csvFile.getAbsolutePath(), charSepartor.getCharacter());
-			// Analyze first line
-			String[] nextLine = csvReader.readNext();
-			for (String element : nextLine) {
-				if (!DateFormatUtils.determineDateFormat(Collections.singletonList(element)).isEmpty()) {
-					skipFirstLine = false;
-				}
+		sample.rewind();
+		// Analyze first line
+		sample.next();
+		CsvRow row = sample.row();
+		for (int i = 0; i < row.fieldCount(); i++) {
+			if (!DateFormatUtils.determineDateFormat(Collections.singletonList(row.fieldAsString(i))).isEmpty()) {
+				skipFirstLine = false;
 			}
-			// Parse next lines
-			ParsePosition pp = new ParsePosition(0);
-			while (lineCount < ANALYZE_LINE_COUNT && (nextLine = csvReader.readNext()) != null) {
-				if (nextLine.length == 0 || (nextLine.length==1 && nextLine[0].isEmpty())) {
-					// Ignore empty line
-					continue;
+		}
+		// Parse next lines until the columns found are the same on two checks: checks are done every
+		// getMinEvidence() rows, once each range of the sample gave some rows
+		int checkInterval = budget.getMinEvidence();
+		int minRows = Math.max(checkInterval, sample.getRangeCount());
+		CsvFormat checked = null;
+		ParsePosition pp = new ParsePosition(0);
+		while (sample.next()) {
+			row = sample.row();
+			if (row.isEmptyLine()) {
+				// Ignore empty line
+				continue;
+			}
+			lineCount++;
+			for (int colIndex = 1; colIndex <= row.fieldCount(); colIndex++) {
+				CharSequence value = row.field(colIndex - 1);
+				ColumnStats colStat = colStats.get(colIndex);
+				if (colStat == null) {
+					colStat = new ColumnStats(colIndex);
+					colStats.put(colIndex, colStat);
 				}
-				lineCount++;
-				colCountStats.addValue(nextLine.length);
-				int colIndex = 1;
-				for (String string : nextLine) {
-					String value = string.trim();
-					ColumnStats colStat = colStats.get(colIndex);
-					if (colStat == null) {
-						colStat = new ColumnStats(colIndex);
-						colStats.put(colIndex, colStat);
+				colStat.getLengthStat().addValue(value.length());
+				if (value.length() > 0) {
+					double digitCount = 0;
+					double letterCount = 0;
+					String valueStr = value.toString();
+					// Value (Number)
+					pp.setErrorIndex(-1); pp.setIndex(0);
+					Number number = decimalFormat.parse(valueStr, pp);
+					if (valueStr.length() == pp.getIndex() && number != null) {
+						colStat.getNumberStat().addValue(number.doubleValue());
 					}
-					colStat.getLengthStat().addValue(value.length());
-					if (!value.isEmpty()) {
-						double digitCount = 0;
-						double letterCount = 0;
-						// Value (Number)
-						pp.setErrorIndex(-1); pp.setIndex(0);
-						Number number = decimalFormat.parse(value, pp);
-						if (value.length() == pp.getIndex() && number != null) {
-							colStat.getNumberStat().addValue(number.doubleValue());
-						}
-						// Date
-						try {
-							Date date = dateFormat.parse(value);
-							colStat.getDateStat().addValue(date.getTime());
-						}
-						catch (ParseException e) {
-							// ignore
+					// Date
+					long date = dateParser.parseEpochDay(value);
+					if (date != DateParser.INVALID) {
+						colStat.getDateStat().addValue(date);
+					}
+					for (int i = 0; i < value.length(); i++) {
+						char c = value.charAt(i);
+						if (Character.isDigit(c)) {
+							digitCount++;
 						}
-						for (int i = 0; i < value.length(); i++) {
-							char c = value.charAt(i);
-							if (Character.isDigit(c)) {
-								digitCount++;
-							}
-							else if (Character.isLetter(c)) {
-								letterCount++;
-							}
+						else if (Character.isLetter(c)) {
+							letterCount++;
 						}
-						colStat.getDigitPercentStat().addValue(digitCount / value.length());
-						colStat.getLetterPercentStat().addValue(letterCount / value.length());
 					}
-					colIndex++;
+					colStat.getDigitPercentStat().addValue(digitCount / value.length());
+					colStat.getLetterPercentStat().addValue(letterCount / value.length());
 				}
 			}
-		} finally {
-			if (csvReader != null) {
-				try {
-					csvReader.close();
-				} catch (IOException e) {
-					LOG.fine("Ignoring IOException: " + e.getMessage());
+			if (lineCount >= minRows && lineCount % checkInterval == 0 && colStats.size() >= 2) {
+				CsvFormat columns = new CsvFormat(charSepartor, skipFirstLine, datePattern.value);
+				findColumns(columns, colStats, lineCount);
+				if (checked != null && sameColumns(checked, columns)) {
+					break;
 				}
+				checked = columns;
 			}
 		}
+		CsvFormat format = new CsvFormat(charSepartor, skipFirstLine, datePattern.value);
+		format.setValueFormat(decimalFormat);
+		format.setCharset(tokenizer.getCharset());
+		format.setConfidence(Math.min(Math.min(separator.confidence, AnalysisBudget.confidence(lineCount, 1)),
+				Math.min(datePattern.confidence, valueFormat.confidence)));
+		findColumns(format, colStats, lineCount);
 		// Dump stats
-		for (Map.Entry<Integer, ColumnStats> entry : colStats.entrySet()) {
-			ColumnStats colStat = entry.getValue();
-			LOG.info("index=" + entry.getKey()
-					+ " probaDate=" + computeDateProbability(colStat)
-					+ " probaNumber=" + computeNumberProbability(colStat)
-					+ " probaLabel=" + computeLabelProbability(colStat)
-					+ " length_avg=" + colStat.getLengthStat().getMean()
-					+ " date_N=" + colStat.getDateStat().getN()
-					+ " number_min=" + colStat.getNumberStat().getMin()
-					+ " number_max=" + colStat.getNumberStat().getMax()
-					+ " number_N=" + colStat.getNumberStat().getN()
-					+ " letter_%_avg=" + colStat.getLetterPercentStat().getMean()
-					+ " digit_%_avg=" + colStat.getDigitPercentStat().getMean()
-					);
+		if (LOG.isLoggable(Level.FINE)) {
+			for (Map.Entry<Integer, ColumnStats> entry : colStats.entrySet()) {
+				ColumnStats colStat = entry.getValue();
+				LOG.fine("index=" + entry.getKey()
+						+ " probaDate=" + colStat.getDateProbability()
+						+ " probaNumber=" + colStat.getNumberProbability()
+						+ " probaLabel=" + colStat.getLabelProbability()
+						+ " length_avg=" + colStat.getLengthStat().getMean()
+						+ " date_N=" + colStat.getDateStat().getN()
+						+ " number_min=" + colStat.getNumberStat().getMin()
+						+ " number_max=" + colStat.getNumberStat().getMax()
+						+ " number_N=" + colStat.getNumberStat().getN()
+						+ " letter_%_avg=" + colStat.getLetterPercentStat().getMean()
+						+ " digit_%_avg=" + colStat.getDigitPercentStat().getMean()
+						);
+			}
 		}
+		addStageNanos(metrics, ImportMetrics.Stage.COLUMN_DETECTION, start);
+		if (format.getLabelIndex() != format.getDateOperationIndex()
+				&& format.getLabelIndex() != format.getDateValueIndex()
+				&& format.getLabelIndex() != format.getDebitIndex()
+				&& format.getLabelIndex() != format.getCreditIndex()
+				&& format.getLabelIndex() != format.getValueIndex()
+				&& format.getDateOperationIndex() != format.getDebitIndex()
+				&& format.getDateOperationIndex() != format.getCreditIndex()
+				&& format.getDateOperationIndex() != format.getValueIndex()
+				&& format.getDateValueIndex() != format.getDebitIndex()
+				&& format.getDateValueIndex() != format.getCreditIndex()
+				&& format.getDateValueIndex() != format.getValueIndex()
+				) {
+			return format;
+		}
+		return null;
+	}
 
+	/**
+	 * Guesses the columns of the dates, the label and the amounts from the statistics of the sampled rows.
+	 * @param format The format, its columns are set
+	 * @param colStats Statistics of each column
+	 * @param lineCount Number of sampled rows
+	 */
+	private static void findColumns(CsvFormat format, Map<Integer, ColumnStats> colStats, int lineCount) {
+		for (ColumnStats colStat : colStats.values()) {
+			colStat.computeProbabilities(lineCount);
+		}
 		// Sort by 'date probability'
 		List<ColumnStats> colStatsList = new ArrayList<ColumnStats>(colStats.values());
 		colStatsList.sort(new ProbabilityDateComparator());
@@ -213,7 +462,7 @@ public class CsvFormatAnalyzer {
 
 		// Sort by 'number probability'
 		List<ColumnStats> numberCols = colStatsList.stream().filter(
-				columnStats -> computeNumberProbability(columnStats) > 0.5
+				columnStats -> columnStats.getNumberProbability() > 0.5
 		).sorted(
 				(c1, c2) -> (int) (c2.getNumberStat().getN() - c1.getNumberStat().getN())
 		).collect(Collectors.toList());
@@ -223,11 +472,9 @@ public class CsvFormatAnalyzer {
 
 		// Guess which column is 'operation date' or 'value date' and
 		// which one is 'credit', 'debit' or 'value'
-		CsvFormat format = new CsvFormat(charSepartor, skipFirstLine, datePattern);
 		format.setLabelIndex(labelColIndex);
-		format.setValueFormat(decimalFormat);
 
-		if (colStats.get(secondDateColIndex).getDateStat().getN() < lineCount) {
+		if (!isFull(colStats.get(secondDateColIndex).getDateStat().getN(), lineCount)) {
 			// No date datas for second column
 			format.setDateValueIndex(firstDateColIndex);
 			format.setDateOperationIndex(firstDateColIndex);
@@ -244,11 +491,11 @@ public class CsvFormatAnalyzer {
 			}
 		}
 		// If a column represent the value (negative and positive) or the new amount of the account if will contains
-		// ANALYZE_LINE_COUNT values and it will be sorted on first place because of probabilities.
+		// a value on all rows and it will be sorted on first place because of probabilities.
 		long n1 = firstNumberColIndex >= 0 ? colStats.get(firstNumberColIndex).getNumberStat().getN() : 0;
 		long n2 = secondNumberColIndex >= 0 ? colStats.get(secondNumberColIndex).getNumberStat().getN() : 0;
 		long n3 = thirdNumberColIndex >= 0 ? colStats.get(thirdNumberColIndex).getNumberStat().getN() : 0;
-		if (n1 == lineCount && (n2 != lineCount || n3 != lineCount)) {
+		if (isFull(n1, lineCount) && (!isFull(n2, lineCount) || !isFull(n3, lineCount))) {
 			// All lines have a value and not others so this column is the amount of the operation
 			// or the new amount of the account
 			format.setValueIndex(firstNumberColIndex);
@@ -280,29 +527,48 @@ public class CsvFormatAnalyzer {
 				format.setDebitIndex(firstNumberColIndex);
 			}
 		}
-		if (format.getLabelIndex() != format.getDateOperationIndex()
-				&& format.getLabelIndex() != format.getDateValueIndex()
-				&& format.getLabelIndex() != format.getDebitIndex()
-				&& format.getLabelIndex() != format.getCreditIndex()
-				&& format.getLabelIndex() != format.getValueIndex()
-				&& format.getDateOperationIndex() != format.getDebitIndex()
-				&& format.getDateOperationIndex() != format.getCreditIndex()
-				&& format.getDateOperationIndex() != format.getValueIndex()
-				&& format.getDateValueIndex() != format.getDebitIndex()
-				&& format.getDateValueIndex() != format.getCreditIndex()
-				&& format.getDateValueIndex() != format.getValueIndex()
-				) {
-			return format;
+	}
+
+	private static boolean sameColumns(CsvFormat format, CsvFormat other) {
+		return format.getDateOperationIndex() == other.getDateOperationIndex()
+				&& format.getDateValueIndex() == other.getDateValueIndex()
+				&& format.getLabelIndex() == other.getLabelIndex()
+				&& format.getValueIndex() == other.getValueIndex()
+				&& format.getCreditIndex() == other.getCreditIndex()
+				&& format.getDebitIndex() == other.getDebitIndex();
+	}
+
+	/**
+	 * @param n Number of values of a column
+	 * @param lineCount Number of sampled rows
+	 * @return true if the column has a value on (nearly) all rows, see {@link #FULL_COLUMN_RATIO}
+	 */
+	private static boolean isFull(long n, int lineCount) {
+		return lineCount > 0 && n >= lineCount * FULL_COLUMN_RATIO;
+	}
+
+	private static void finish(FormatDetectionEvent event, Decision<?> decision) {
+		event.finish(decision != null ? decision.value : null, decision != null ? decision.confidence : 0.0);
+	}
+
+	/**
+	 * @param start When the stage started
+	 * @return The current time, when the next stage starts
+	 */
+	private static long addStageNanos(ImportMetrics metrics, ImportMetrics.Stage stage, long start) {
+		long now = System.nanoTime();
+		if (metrics != null) {
+			metrics.addStageNanos(stage, now - start);
 		}
-		return null;
+		return now;
 	}
 
-	private static double computeDateProbability(ColumnStats colStats) {
+	private static double computeDateProbability(ColumnStats colStats, int lineCount) {
 		double proba = 0.0;
 		if (colStats.getLengthStat().getMean() > 3.0 && colStats.getLengthStat().getStandardDeviation() == 0.0) {
 			// Fix length
 			proba = 0.7;
-			if (colStats.getDateStat().getN() > ANALYZE_LINE_COUNT - 1) {
+			if (isFull(colStats.getDateStat().getN(), lineCount)) {
 				// Parsed all rows
 				proba = 1.0;
 			}
@@ -314,9 +580,9 @@ public class CsvFormatAnalyzer {
 		return proba;
 	}
 
-	private static double computeNumberProbability(ColumnStats colStats) {
+	private static double computeNumberProbability(ColumnStats colStats, int lineCount) {
 		double proba = 0.0;
-		if (colStats.getNumberStat().getN() > ANALYZE_LINE_COUNT - 1) {
+		if (isFull(colStats.getNumberStat().getN(), lineCount)) {
 			// Parsed all rows
 			proba = 1;
 		}
@@ -361,188 +627,192 @@ public class CsvFormatAnalyzer {
 		}
 	}
 
-	private static String findDatePattern(File file, char sep) throws IOException {
-		CsvFileReader csvReader = null;
-		String selectedFormat = null;
-		Set<String> datesString = new HashSet<String>();
+	private static Decision<String> findDatePattern(CsvSample sample, AnalysisBudget budget) throws IOException {
 		int firstDateCol = -1, secondDateCol = -1;
-		try {
-			csvReader = new CsvFileReader(file.getAbsolutePath(), sep);
-			// Skip next line
-			csvReader.readNext();
-			String[] nextLine = csvReader.readNext();
-			// Determine in which column we have dates
-			for (int i = 0; i < nextLine.length; i++) {
-				if (DateFormatUtils.determineDateFormat(Collections.singletonList(nextLine[i].trim())).size() > 0) {
-					if (firstDateCol >= 0) {
-						secondDateCol = i;
-						datesString.add(nextLine[secondDateCol].trim());
-						break;
-					}
-					else {
-						firstDateCol = i;
-						datesString.add(nextLine[firstDateCol].trim());
-					}
-				}
-			}
-			// Get all date strings
-			while ((nextLine = csvReader.readNext()) != null) {
-				if (nextLine.length == 0 || (nextLine.length==1 && nextLine[0].length() == 0)) {
-					// Ignore empty line
-					continue;
-				}
-				if (firstDateCol >= 0 && nextLine.length >= firstDateCol + 1) {
-					datesString.add(nextLine[firstDateCol].trim());
-					if (secondDateCol >= 0 && nextLine.length >= secondDateCol + 1) {
-						datesString.add(nextLine[secondDateCol].trim());
-					}
+		sample.rewind();
+		// Skip first line
+		sample.next();
+		if (!sample.next()) {
+			return null;
+		}
+		CsvRow row = sample.row();
+		// Determine in which column we have dates
+		for (int i = 0; i < row.fieldCount(); i++) {
+			if (DateFormatUtils.determineDateFormat(Collections.singletonList(row.fieldAsString(i))).size() > 0) {
+				if (firstDateCol >= 0) {
+					secondDateCol = i;
+					break;
 				}
-			}
-			// Choose first compatible format
-			Set<String> formats = DateFormatUtils.determineDateFormat(datesString);
-			if (formats.size() > 0) {
-				selectedFormat = formats.iterator().next();
-			}
-		} finally {
-			if (csvReader != null) {
-				try {
-					csvReader.close();
-				} catch (IOException e) {
-					LOG.fine("Ignoring IOException: " + e.getMessage());
+				else {
+					firstDateCol = i;
 				}
 			}
 		}
-		return selectedFormat;
+		if (firstDateCol < 0) {
+			return null;
+		}
+		// Read date strings until a single format remains with enough evidence
+		ColumnValues datesString = new ColumnValues(sample, firstDateCol, secondDateCol);
+		Set<String> formats = DateFormatUtils.determineDateFormat(datesString, budget.getMinEvidence());
+		if (formats.isEmpty()) {
+			return null;
+		}
+		// Choose first compatible format
+		return new Decision<>(formats.iterator().next(), AnalysisBudget.confidence(datesString.getCount(), formats.size()));
 	}
 
-	private static DecimalFormat findDecimalFormat(File file, char sep) throws IOException {
-		CsvFileReader csvReader = null;
-		DecimalFormat selectedFormat = null;
-		Set<String> valuesString = new HashSet<String>();
+	private static Decision<DecimalFormat> findDecimalFormat(CsvSample sample, AnalysisBudget budget) throws IOException {
 		int firstValueCol = -1, secondValueCol = -1;
-		try {
-			csvReader = new CsvFileReader(file.getAbsolutePath(), sep);
-			// Skip next line
-			csvReader.readNext();
-			String[] nextLine = csvReader.readNext();
-			// Determine in which column we have values
-			for (int i = 0; i < nextLine.length; i++) {
-				if (!ValueFormatUtils.determineValueFormat(Collections.singletonList(nextLine[i].trim())).isEmpty()) {
-					if (firstValueCol >= 0) {
-						secondValueCol = i;
-						valuesString.add(nextLine[secondValueCol].trim());
-						break;
-					}
-					else {
-						firstValueCol = i;
-						valuesString.add(nextLine[firstValueCol].trim());
-					}
-				}
-			}
-			// Get all date strings
-			while ((nextLine = csvReader.readNext()) != null) {
-				if (nextLine.length == 0 || (nextLine.length==1 && nextLine[0].length() == 0)) {
-					// Ignore empty line
-					continue;
-				}
-				if (firstValueCol >= 0 && nextLine.length >= firstValueCol + 1) {
-					valuesString.add(nextLine[firstValueCol].trim());
-					if (secondValueCol >= 0 && nextLine.length >= secondValueCol + 1) {
-						valuesString.add(nextLine[secondValueCol].trim());
-					}
+		sample.rewind();
+		// Skip first line
+		sample.next();
+		if (!sample.next()) {
+			return null;
+		}
+		CsvRow row = sample.row();
+		// Determine in which column we have values
+		for (int i = 0; i < row.fieldCount(); i++) {
+			if (!ValueFormatUtils.determineValueFormat(Collections.singletonList(row.fieldAsString(i))).isEmpty()) {
+				if (firstValueCol >= 0) {
+					secondValueCol = i;
+					break;
 				}
-			}
-			// Choose first compatible format
-			Set<DecimalFormat> formats = ValueFormatUtils.determineValueFormat(valuesString);
-			if (!formats.isEmpty()) {
-				selectedFormat = formats.iterator().next();
-			}
-		} finally {
-			if (csvReader != null) {
-				try {
-					csvReader.close();
-				} catch (IOException e) {
-					LOG.fine("Ignoring IOException: " + e.getMessage());
+				else {
+					firstValueCol = i;
 				}
 			}
 		}
-		return selectedFormat;
+		if (firstValueCol < 0) {
+			return null;
+		}
+		// Read values until a single format remains with enough evidence
+		ColumnValues valuesString = new ColumnValues(sample, firstValueCol, secondValueCol);
+		Set<DecimalFormat> formats = ValueFormatUtils.determineValueFormat(valuesString, budget.getMinEvidence());
+		if (formats.isEmpty()) {
+			return null;
+		}
+		double confidence = AnalysisBudget.confidence(valuesString.getCount(), formats.size());
+		// Choose first compatible format
+		DecimalFormat selectedFormat = formats.iterator().next();
+		// Keep the number of decimals in the pattern, it is the scale of the amounts: all values of the sample
+		// are read again since the format may have been found before the value with the most decimals
+		char decimalSeparator = selectedFormat.getDecimalFormatSymbols().getDecimalSeparator();
+		int decimals = selectedFormat.getMaximumFractionDigits();
+		for (String value : valuesString) {
+			decimals = Math.max(decimals, ValueFormatUtils.countDecimals(value, decimalSeparator));
+		}
+		selectedFormat.setMaximumFractionDigits(decimals);
+		return new Decision<>(selectedFormat, confidence);
 	}
 
-	private static CsvCollector.ColumnSeparator findCharSeparator(File csvFile) throws IOException {
-		Map<Character, DescriptiveStatistics> stats = new HashMap<Character, DescriptiveStatistics>();
-		final int mincol = 3;
-		final int maxcol = 8;
-		char[] separators = new char[] { ',', '\t', ';', '|' };
-		for (char c : separators) {
-			DescriptiveStatistics stat = new DescriptiveStatistics();
-			FileInputStream is = null;
-			InputStreamReader reader = null;
-			BufferedReader buffer = null;
-			try {
-				is = new FileInputStream(csvFile);
-				reader = new InputStreamReader(is, CsvCollector.DEFAULT_CHARSET);
-				buffer = new BufferedReader(reader);
-				int readline = 0;
-				while (readline < ANALYZE_LINE_COUNT) {
-					String line = buffer.readLine();
-					if (line == null) {
-						// No more line
-						break;
-					}
-					readline++;
-
-					// Count character occurence
-					int count = 0;
-					int lastIndex = -1;
-					do {
-						lastIndex = line.indexOf(c, lastIndex + 1);
-						if (lastIndex >= 0) {
-							count++;
-						}
-					} while (lastIndex >= 0);
-
-					if (count < (mincol - 1) || count > maxcol) {
-						// This cannot be this character
-						break;
-					}
-
-					// Make statistics on this character
-					stat.addValue(count);
+	/**
+	 * Finds the column separator in a single pass over the first lines of a file: the number of occurrences of
+	 * each {@link CsvCollector.ColumnSeparator} is counted for each record, with a quote state per separator so
+	 * separators inside quoted fields (like <code>"-74,91"</code>) are ignored and quoted line breaks do not end
+	 * the record. The separator whose count is the same on the most records (between
+	 * {@link #MIN_SEPARATOR_COUNT} and {@link #MAX_SEPARATOR_COUNT}, or one less when the last column is
+	 * omitted) is chosen. Its confidence is the part of
+	 * the records having that count, divided by the number of separators as consistent as it.
+	 * @param lines First lines of the file
+	 * @return The separator or null if no separator is consistent enough
+	 */
+	static Decision<CsvCollector.ColumnSeparator> findCharSeparator(List<String> lines) {
+		CsvCollector.ColumnSeparator[] separators = CsvCollector.ColumnSeparator.values();
+		// Records per number of separators (the last slot is for more than MAX_SEPARATOR_COUNT)
+		int[][] histograms = new int[separators.length][MAX_SEPARATOR_COUNT + 2];
+		int[] records = new int[separators.length];
+		int[] counts = new int[separators.length];
+		int[] states = new int[separators.length];
+		for (String line : lines) {
+			for (int s = 0; s < separators.length; s++) {
+				if (states[s] != QUOTED) {
+					states[s] = FIELD_START;
 				}
-				stats.put(c, stat);
-				LOG.fine(c + "] geomean=" + stat.getGeometricMean()
-						+ " mean=" + stat.getMean()
-						+ " variance=" + stat.getVariance()
-						+ " deviation=" + stat.getStandardDeviation()
-						+ " min=" + stat.getMin()
-						+ " min=" + stat.getMin()
-						+ " max=" + stat.getMax());
-			} finally {
-				if (buffer != null) {
-					buffer.close();
+			}
+			for (int i = 0; i < line.length(); i++) {
+				char c = line.charAt(i);
+				for (int s = 0; s < separators.length; s++) {
+					char separator = separators[s].getCharacter();
+					switch (states[s]) {
+						case QUOTED:
+							if (c == '"') {
+								states[s] = QUOTE_IN_QUOTED;
+							}
+							break;
+						case QUOTE_IN_QUOTED:
+							// A doubled quote stands for a quote, otherwise the quoted field is closed
+							states[s] = c == '"' ? QUOTED : UNQUOTED;
+							if (c == separator) {
+								counts[s]++;
+								states[s] = FIELD_START;
+							}
+							break;
+						default:
+							if (c == separator) {
+								counts[s]++;
+								states[s] = FIELD_START;
+							}
+							else if (c == '"' && states[s] == FIELD_START) {
+								states[s] = QUOTED;
+							}
+							else if (c != ' ' && c != '\t') {
+								states[s] = UNQUOTED;
+							}
+							break;
+					}
 				}
-				if (reader != null) {
-					reader.close();
+			}
+			for (int s = 0; s < separators.length; s++) {
+				if (states[s] == QUOTED) {
+					// The line break is in a quoted field, the record goes on
+					continue;
 				}
-				if (is != null) {
-					is.close();
+				if (line.isEmpty() && counts[s] == 0) {
+					// Ignore empty line
+					continue;
 				}
+				histograms[s][Math.min(counts[s], MAX_SEPARATOR_COUNT + 1)]++;
+				records[s]++;
+				counts[s] = 0;
 			}
 		}
 
-		// Select best character (smallest deviation)
-		Character currentChar = null;
-		double currentDeviation = -1;
-		for (Map.Entry<Character, DescriptiveStatistics> entry : stats.entrySet()) {
-			DescriptiveStatistics stat = entry.getValue();
-			// Accept some format error (last column can be ommited)
-			if (stat.getMean() >= (mincol-1) && stat.getMean() <= maxcol && Math.abs(stat.getStandardDeviation()) < Math.abs(currentDeviation)) {
-				currentChar = entry.getKey();
-				currentDeviation = stat.getStandardDeviation();
+		// Select the most consistent separator
+		CsvCollector.ColumnSeparator best = null;
+		double bestConsistency = 0.0;
+		int ties = 0;
+		for (int s = 0; s < separators.length; s++) {
+			if (records[s] == 0) {
+				continue;
+			}
+			// Accept some format error (last column can be omitted): records with one separator less also count
+			int mode = MIN_SEPARATOR_COUNT;
+			int consistent = 0;
+			for (int count = MIN_SEPARATOR_COUNT; count <= MAX_SEPARATOR_COUNT; count++) {
+				if (histograms[s][count] + histograms[s][count - 1] > consistent) {
+					mode = count;
+					consistent = histograms[s][count] + histograms[s][count - 1];
+				}
+			}
+			double consistency = consistent / (double) records[s];
+			if (LOG.isLoggable(Level.FINE)) {
+				LOG.fine("Separator " + separators[s] + ": records=" + records[s] + " count=" + mode + " consistency=" + consistency);
+			}
+			if (histograms[s][mode] == 0) {
+				continue;
+			}
+			if (consistency > bestConsistency) {
+				bestConsistency = consistency;
+				best = separators[s];
+				ties = 1;
+			}
+			else if (consistency == bestConsistency) {
+				ties++;
 			}
 		}
-		return CsvCollector.ColumnSeparator.fromChar(currentChar);
+		if (best == null) {
+			return null;
+		}
+		return new Decision<>(best, bestConsistency / ties);
 	}
-
 }
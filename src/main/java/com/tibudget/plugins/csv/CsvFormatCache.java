@@ -0,0 +1,430 @@
+package com.tibudget.plugins.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of the formats found by {@link CsvFormatAnalyzer}, so the files exported again and again by the same
+ * bank are not analyzed each time.
+ * <p>
+ * Formats are keyed by a fingerprint made of the first line of the file (usually the header) and of the number
+ * of fields of the next rows for each column separator. They are kept in a bounded LRU map and, if a directory
+ * is set, in one properties file per fingerprint. A cached format is used only if the first rows of the file
+ * can be imported with it (and, for a date format with a numeric day and month, if a date of the file tells
+ * the day from the month), otherwise the file is analyzed again.
+ * <p>
+ * Instances are thread safe, {@link #getShared()} is the cache used by default by all collectors.
+ */
+public class CsvFormatCache {
+
+    private static final Logger LOG = Logger.getLogger(CsvFormatCache.class.getName());
+
+    /**
+     * Default number of formats kept in memory.
+     */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * Number of rows after the first line used in the fingerprint and to verify a cached format.
+     */
+    static final int SAMPLE_ROW_COUNT = 5;
+
+    /**
+     * Maximum number of rows read to find a date telling the day from the month, when the cached date format
+     * has both as numbers (see {@link #verify(CsvFormat, CsvTokenizer)}).
+     */
+    static final int DATE_EVIDENCE_ROW_COUNT = 1000;
+
+    private static final String FILE_EXTENSION = ".properties";
+
+    private static final CsvFormatCache SHARED = new CsvFormatCache(DEFAULT_CAPACITY);
+
+    private final Map<String, CsvFormat> formats;
+
+    private volatile File directory;
+
+    private long hitCount;
+
+    private long missCount;
+
+    public CsvFormatCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        this.formats = new LinkedHashMap<String, CsvFormat>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CsvFormat> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return The cache shared by all collectors
+     */
+    public static CsvFormatCache getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Sets the directory where formats are stored so they survive a restart.
+     * @param directory An existing directory or null to keep formats in memory only
+     */
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Finds the format of a file, from the cache if possible or with {@link CsvFormatAnalyzer}. Like
+     * {@link CsvFormatAnalyzer#findFormat(CsvTokenizer)}, the tokenizer is rewound and its separator is set to
+     * the one of the format.
+     * @param tokenizer The tokenizer of the file, it must not have been moved yet
+     * @return A copy of the format or null if it cannot be determined
+     */
+    public CsvFormat findFormat(CsvTokenizer tokenizer) throws IOException {
+        return findFormat(tokenizer, null);
+    }
+
+    /**
+     * Same as {@link #findFormat(CsvTokenizer)}, a cache hit and the time of the analysis are recorded in the
+     * metrics.
+     * @param metrics Metrics of the import, or null
+     */
+    CsvFormat findFormat(CsvTokenizer tokenizer, ImportMetrics metrics) throws IOException {
+        List<String> lines = tokenizer.readPrefix(SAMPLE_ROW_COUNT + 1);
+        if (lines.isEmpty()) {
+            return CsvFormatAnalyzer.findFormat(tokenizer, AnalysisBudget.DEFAULT, metrics);
+        }
+        String key = fingerprint(lines);
+        CsvFormat cached = get(key);
+        if (cached != null) {
+            if (verify(cached, tokenizer)) {
+                synchronized (this) {
+                    hitCount++;
+                }
+                if (metrics != null) {
+                    metrics.setFormatCacheHit(true);
+                }
+                return new CsvFormat(cached);
+            }
+            LOG.fine("Cached format does not match the file, analyzing it");
+        }
+        synchronized (this) {
+            missCount++;
+        }
+        CsvFormat format = CsvFormatAnalyzer.findFormat(tokenizer, AnalysisBudget.DEFAULT, metrics);
+        if (format != null) {
+            put(key, new CsvFormat(format));
+        }
+        return format;
+    }
+
+    /**
+     * Removes all formats from memory (stored files are kept).
+     */
+    public synchronized void clear() {
+        formats.clear();
+    }
+
+    /**
+     * @return Number of formats found in the cache and matching the file
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return Number of files analyzed because their format was not in the cache or did not match
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    private CsvFormat get(String key) {
+        CsvFormat format;
+        synchronized (this) {
+            format = formats.get(key);
+        }
+        if (format == null && directory != null) {
+            format = load(key);
+            if (format != null) {
+                synchronized (this) {
+                    formats.put(key, format);
+                }
+            }
+        }
+        return format;
+    }
+
+    private void put(String key, CsvFormat format) {
+        synchronized (this) {
+            formats.put(key, format);
+        }
+        if (directory != null) {
+            store(key, format);
+        }
+    }
+
+    /**
+     * Builds the fingerprint of a file from its first lines: the first line as is, then for each next line the
+     * number of fields with each column separator. Spaces are not counted: they depend on the labels, so two
+     * exports with the same layout would not have the same fingerprint.
+     */
+    static String fingerprint(List<String> lines) {
+        StringBuilder key = new StringBuilder(lines.get(0));
+        for (int i = 1; i < lines.size(); i++) {
+            key.append('\n');
+            for (CsvCollector.ColumnSeparator separator : CsvCollector.ColumnSeparator.values()) {
+                if (separator == CsvCollector.ColumnSeparator.SPACE) {
+                    continue;
+                }
+                key.append(countFields(lines.get(i), separator.getCharacter())).append(separator.getCharacter());
+            }
+        }
+        return key.toString();
+    }
+
+    private static int countFields(String line, char separator) {
+        int count = 1;
+        boolean inQuotes = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                inQuotes = !inQuotes;
+            }
+            else if (c == separator && !inQuotes) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks that the first rows of the file can be imported with a format.
+     * <p>
+     * The dates of the first rows may not tell <code>dd/MM</code> from <code>MM/dd</code> (all days are lower
+     * than 13), so if the date format has a numeric day and month, the next rows are read until a date can be
+     * parsed only with the day and the month of the format. If a date can be parsed only with the day and the
+     * month swapped, or if no date tells them apart in {@link #DATE_EVIDENCE_ROW_COUNT} rows, the format is not
+     * used. Dates that cannot be parsed with either order after the sample rows (a footer) are ignored.
+     * @return true if the file has the charset of the format, all dates and amounts of the sample rows can be
+     * parsed and the order of the day and the month is not contradicted by the file
+     */
+    static boolean verify(CsvFormat format, CsvTokenizer tokenizer) throws IOException {
+        if (format.getCharset() != null && !format.getCharset().equals(tokenizer.getCharset())) {
+            return false;
+        }
+        tokenizer.setSeparator(format.getColSeparator().getCharacter());
+        try {
+            int dateValueIndex = format.getDateValueIndex() > 0 ? format.getDateValueIndex() : format.getDateOperationIndex();
+            int dateOperationIndex = format.getDateOperationIndex() > 0 ? format.getDateOperationIndex() : dateValueIndex;
+            int[] dateIndexes = new int[] { dateValueIndex, dateOperationIndex };
+            int[] amountIndexes = new int[] { format.getValueIndex(), format.getCreditIndex(), format.getDebitIndex() };
+            DateParser dateParser = DateParser.compile(format.getDateFormat());
+            DateParser swappedParser = swapDayAndMonth(format.getDateFormat());
+            boolean dayMonthKnown = swappedParser == null;
+            AmountParser amountParser = AmountParser.compile(format.getValueFormat().toPattern(),
+                    format.getValueFormat().getDecimalFormatSymbols().getDecimalSeparator(),
+                    AmountParser.scaleOf(format.getValueFormat().toPattern()));
+            CsvRow row = tokenizer.row();
+            if (format.isSkipFirstRow()) {
+                tokenizer.next();
+            }
+            int rowCount = 0;
+            while ((rowCount < SAMPLE_ROW_COUNT || (!dayMonthKnown && rowCount < DATE_EVIDENCE_ROW_COUNT))
+                    && tokenizer.next()) {
+                if (row.isEmptyLine()) {
+                    continue;
+                }
+                rowCount++;
+                boolean sampleRow = rowCount <= SAMPLE_ROW_COUNT;
+                if (sampleRow && format.getLabelIndex() > row.fieldCount()) {
+                    return false;
+                }
+                for (int index : dateIndexes) {
+                    boolean valid = index > 0 && index <= row.fieldCount()
+                            && dateParser.parseEpochDay(row.field(index - 1)) != DateParser.INVALID;
+                    if (sampleRow && !valid) {
+                        return false;
+                    }
+                    if (!dayMonthKnown && index > 0 && index <= row.fieldCount()) {
+                        boolean swappedValid = swappedParser.parseEpochDay(row.field(index - 1)) != DateParser.INVALID;
+                        if (swappedValid && !valid) {
+                            // The day and the month are swapped in this file
+                            return false;
+                        }
+                        dayMonthKnown = valid && !swappedValid;
+                    }
+                }
+                if (!sampleRow) {
+                    continue;
+                }
+                for (int index : amountIndexes) {
+                    if (index > 0 && index <= row.fieldCount() && row.field(index - 1).length() > 0
+                            && amountParser.parse(row.field(index - 1)) == AmountParser.INVALID) {
+                        return false;
+                    }
+                    if (amountParser.getRoundedCount() > 0) {
+                        // More decimals than the cached format: it would round the amounts
+                        return false;
+                    }
+                }
+            }
+            if (!dayMonthKnown) {
+                LOG.fine("No date of the file tells the day from the month of the cached format");
+                return false;
+            }
+            return rowCount > 0;
+        } catch (RuntimeException e) {
+            LOG.log(Level.FINE, "Cached format cannot be used", e);
+            return false;
+        } finally {
+            tokenizer.rewind();
+        }
+    }
+
+    /**
+     * @param pattern A date format
+     * @return The parser of the format with the day and the month swapped, or null if the format has no numeric
+     * day and month (<code>dd</code> and <code>MM</code>)
+     */
+    static DateParser swapDayAndMonth(String pattern) {
+        if (DateParser.FixedDateParser.tryCompile(pattern) == null) {
+            return null;
+        }
+        return DateParser.compile(pattern.replace("dd", "\0").replace("MM", "dd").replace("\0", "MM"));
+    }
+
+    private File getFile(String key) {
+        return new File(directory, fileName(key) + FILE_EXTENSION);
+    }
+
+    /**
+     * @return A file name made of the first bytes of the SHA-256 of a key
+     */
+    static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                name.append(String.format("%02x", digest[i]));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private CsvFormat load(String key) {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+            if (!key.equals(properties.getProperty("fingerprint"))) {
+                // Two fingerprints with the same hash
+                return null;
+            }
+            return readFormat(properties);
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Cannot read cached format " + file, e);
+            return null;
+        }
+    }
+
+    private void store(String key, CsvFormat format) {
+        File file = getFile(key);
+        Properties properties = new Properties();
+        properties.setProperty("fingerprint", key);
+        writeFormat(format, properties);
+        try {
+            storeAtomically(properties, file, "CSV format");
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Cannot store format in " + file, e);
+        }
+    }
+
+    /**
+     * Reads a format written by {@link #writeFormat(CsvFormat, Properties)}.
+     * @throws RuntimeException if a property is missing or invalid
+     */
+    static CsvFormat readFormat(Properties properties) {
+        DecimalFormatSymbols symb = new DecimalFormatSymbols(Locale.US);
+        symb.setDecimalSeparator(properties.getProperty("decimalSeparator").charAt(0));
+        CsvFormat format = new CsvFormat(
+                Integer.parseInt(properties.getProperty("dateOperationIndex")),
+                Integer.parseInt(properties.getProperty("dateValueIndex")),
+                Integer.parseInt(properties.getProperty("labelIndex")),
+                Integer.parseInt(properties.getProperty("creditIndex")),
+                Integer.parseInt(properties.getProperty("debitIndex")),
+                Integer.parseInt(properties.getProperty("valueIndex")),
+                CsvCollector.ColumnSeparator.valueOf(properties.getProperty("colSeparator")),
+                Boolean.parseBoolean(properties.getProperty("skipFirstRow")),
+                properties.getProperty("dateFormat"),
+                new DecimalFormat(properties.getProperty("numberFormat"), symb));
+        format.setConfidence(Double.parseDouble(properties.getProperty("confidence", "1.0")));
+        if (properties.getProperty("charset") != null) {
+            format.setCharset(Charset.forName(properties.getProperty("charset")));
+        }
+        return format;
+    }
+
+    static void writeFormat(CsvFormat format, Properties properties) {
+        properties.setProperty("dateOperationIndex", String.valueOf(format.getDateOperationIndex()));
+        properties.setProperty("dateValueIndex", String.valueOf(format.getDateValueIndex()));
+        properties.setProperty("labelIndex", String.valueOf(format.getLabelIndex()));
+        properties.setProperty("creditIndex", String.valueOf(format.getCreditIndex()));
+        properties.setProperty("debitIndex", String.valueOf(format.getDebitIndex()));
+        properties.setProperty("valueIndex", String.valueOf(format.getValueIndex()));
+        properties.setProperty("colSeparator", format.getColSeparator().name());
+        properties.setProperty("skipFirstRow", String.valueOf(format.isSkipFirstRow()));
+        properties.setProperty("dateFormat", format.getDateFormat());
+        properties.setProperty("numberFormat", format.getValueFormat().toPattern());
+        properties.setProperty("decimalSeparator", String.valueOf(format.getValueFormat().getDecimalFormatSymbols().getDecimalSeparator()));
+        properties.setProperty("confidence", String.valueOf(format.getConfidence()));
+        if (format.getCharset() != null) {
+            properties.setProperty("charset", format.getCharset().name());
+        }
+    }
+
+    /**
+     * Writes properties in a temporary file first so a concurrent import never reads a partial file.
+     */
+    static void storeAtomically(Properties properties, File file, String comment) throws IOException {
+        Path tmp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                properties.store(out, comment);
+            }
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.tibudget.plugins.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Current row of a {@link CsvTokenizer}.
+ * <p>
+ * The same instance is reused for all the rows of a file: it only keeps the bounds of the fields in the mapped
+ * bytes. Fields are returned as {@link CharSequence} views which are decoded on first access in a buffer
+ * shared by the row, so iterating over the rows does not allocate anything. The views are valid until the
+ * tokenizer moves to the next row, call {@link CharSequence#toString()} to keep a value.
+ * <p>
+ * Fields made only of ASCII chars are copied from the bytes, the {@link CharsetDecoder} is used only for the
+ * other fields.
+ */
+public final class CsvRow {
+
+    private static final char QUOTE = '"';
+
+    private final CharsetDecoder decoder;
+
+    private final float maxCharsPerByte;
+
+    private ByteBuffer bytes;
+
+    private int fieldCount;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private boolean[] escaped = new boolean[16];
+    private int[] charStarts = new int[16];
+    private int[] charEnds = new int[16];
+    private String[] values = new String[16];
+    private Field[] fields = new Field[16];
+
+    private char[] chars = new char[256];
+    private CharBuffer charBuffer = CharBuffer.wrap(chars);
+    private int charCount;
+
+    CsvRow(Charset charset) {
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.maxCharsPerByte = Math.max(1.0f, decoder.maxCharsPerByte());
+    }
+
+    /**
+     * Sets the bytes the bounds of the fields refer to (called when the tokenizer maps a new window).
+     */
+    void setBytes(ByteBuffer bytes) {
+        this.bytes = bytes.duplicate();
+    }
+
+    /**
+     * Drops the bytes of the row, so the buffer it refers to can be garbage collected.
+     */
+    void release() {
+        clear();
+        this.bytes = null;
+    }
+
+    void clear() {
+        for (int i = 0; i < fieldCount; i++) {
+            values[i] = null;
+        }
+        fieldCount = 0;
+        charCount = 0;
+    }
+
+    /**
+     * Adds a field to the row.
+     * @param from Index of the first byte of the (trimmed and unquoted) value
+     * @param to Index after the last byte of the value
+     * @param hasEscapedQuotes True if doubled quotes must be replaced by a single one
+     */
+    void add(int from, int to, boolean hasEscapedQuotes) {
+        if (fieldCount == starts.length) {
+            int size = fieldCount * 2;
+            starts = Arrays.copyOf(starts, size);
+            ends = Arrays.copyOf(ends, size);
+            escaped = Arrays.copyOf(escaped, size);
+            charStarts = Arrays.copyOf(charStarts, size);
+            charEnds = Arrays.copyOf(charEnds, size);
+            values = Arrays.copyOf(values, size);
+            fields = Arrays.copyOf(fields, size);
+        }
+        starts[fieldCount] = from;
+        ends[fieldCount] = to;
+        escaped[fieldCount] = hasEscapedQuotes;
+        charStarts[fieldCount] = -1;
+        fieldCount++;
+    }
+
+    /**
+     * @return The number of fields of the row
+     */
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return True if the row is empty (no field or a single empty field)
+     */
+    public boolean isEmptyLine() {
+        return fieldCount == 0 || (fieldCount == 1 && starts[0] == ends[0]);
+    }
+
+    /**
+     * Returns a view on a field of the row.
+     * @param index Index of the field, starting at 0
+     * @return The trimmed and unquoted value of the field, valid until the next row is read
+     */
+    public CharSequence field(int index) {
+        checkIndex(index);
+        Field field = fields[index];
+        if (field == null) {
+            field = new Field(index);
+            fields[index] = field;
+        }
+        return field;
+    }
+
+    /**
+     * Returns a field of the row as a string.
+     * @param index Index of the field, starting at 0
+     * @return The trimmed and unquoted value of the field
+     */
+    public String fieldAsString(int index) {
+        checkIndex(index);
+        String value = values[index];
+        if (value == null) {
+            decode(index);
+            value = new String(chars, charStarts[index], charEnds[index] - charStarts[index]);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Returns a field of the row as a string taken from a pool when the same value was already read.
+     * @param index Index of the field, starting at 0
+     * @param pool The pool
+     */
+    String fieldAsString(int index, LabelPool pool) {
+        checkIndex(index);
+        String value = values[index];
+        if (value == null) {
+            decode(index);
+            value = pool.intern(chars, charStarts[index], charEnds[index]);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * @return All fields of the row as strings
+     */
+    public String[] fields() {
+        String[] result = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            result[i] = fieldAsString(i);
+        }
+        return result;
+    }
+
+    /**
+     * @param separator The column separator
+     * @return The row as it could be written in the file (without quotes), useful for logs
+     */
+    public String toString(char separator) {
+        return String.join(String.valueOf(separator), fields());
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= fieldCount) {
+            throw new IndexOutOfBoundsException("Field " + index + " of " + fieldCount);
+        }
+    }
+
+    /**
+     * Decodes the bytes of a field in the shared chars buffer if it is not already done.
+     */
+    private void decode(int index) {
+        if (charStarts[index] >= 0) {
+            return;
+        }
+        int from = starts[index];
+        int to = ends[index];
+        int maxLength = (int) Math.ceil((to - from) * (double) maxCharsPerByte);
+        if (charCount + maxLength > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(charCount + maxLength, chars.length * 2));
+            charBuffer = CharBuffer.wrap(chars);
+        }
+        // ASCII fast path: the tokenizer only accepts charsets where ASCII chars are single bytes
+        bytes.clear();
+        int end = charCount;
+        int ascii = from;
+        while (ascii < to) {
+            byte b = bytes.get(ascii);
+            if (b < 0) {
+                break;
+            }
+            chars[end++] = (char) b;
+            ascii++;
+        }
+        if (ascii < to) {
+            // Decode the rest of the field, starting on the first non-ASCII byte
+            bytes.position(ascii);
+            bytes.limit(to);
+            charBuffer.clear();
+            charBuffer.position(end);
+            decoder.reset();
+            decoder.decode(bytes, charBuffer, true);
+            decoder.flush(charBuffer);
+            end = charBuffer.position();
+        }
+        if (escaped[index]) {
+            // Replace doubled quotes by a single one
+            int n = charCount;
+            for (int i = charCount; i < end; i++) {
+                chars[n++] = chars[i];
+                if (chars[i] == QUOTE && i + 1 < end && chars[i + 1] == QUOTE) {
+                    i++;
+                }
+            }
+            end = n;
+        }
+        charStarts[index] = charCount;
+        charEnds[index] = end;
+        charCount = end;
+    }
+
+    /**
+     * View on a field of the current row.
+     */
+    private final class Field implements CharSequence {
+
+        private final int index;
+
+        Field(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public int length() {
+            decode(index);
+            return charEnds[index] - charStarts[index];
+        }
+
+        @Override
+        public char charAt(int i) {
+            decode(index);
+            if (i < 0 || i >= charEnds[index] - charStarts[index]) {
+                throw new IndexOutOfBoundsException(i);
+            }
+            return chars[charStarts[index] + i];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return fieldAsString(index);
+        }
+    }
+}
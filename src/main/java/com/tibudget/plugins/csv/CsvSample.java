@@ -0,0 +1,193 @@
+package com.tibudget.plugins.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rows of a file sampled within an {@link AnalysisBudget}, used by {@link CsvFormatAnalyzer}.
+ * <p>
+ * A file smaller than the byte budget is read entirely: its first half, then its second half split in
+ * {@link #STRIDE_COUNT} ranges. Otherwise, half of the budget is read from the start of the file and the other
+ * half is split in {@link #STRIDE_COUNT} ranges evenly spaced after it. Each range is moved to the start of a row. Rows are returned in turn from each range (after the first row of the file, which is
+ * always returned first), so the first rows of the sample already come from the whole file. Rows of the ranges
+ * after the start of the file are skipped when they have more fields than the header and the first data row, or
+ * more than one field less: they may start inside a quoted field. Rows with one field less are kept since
+ * exports often omit the last field when it is empty (the credit of a debit row).
+ * <p>
+ * Once the time budget is spent, {@link #next()} returns false (but at least {@link #MIN_ROWS} rows are
+ * returned by each pass).
+ */
+class CsvSample implements Closeable {
+
+    /**
+     * Number of ranges read after the start of a file bigger than the byte budget.
+     */
+    static final int STRIDE_COUNT = 16;
+
+    /**
+     * Number of rows returned by each pass whatever the time spent.
+     */
+    static final int MIN_ROWS = DateFormatUtils.MIN_EVIDENCE;
+
+    private final List<CsvTokenizer> ranges;
+
+    private final long bytes;
+
+    private final long deadline;
+
+    private boolean[] exhausted;
+
+    private int index;
+
+    private int rowCount;
+
+    private int maxFieldCount;
+
+    private CsvRow current;
+
+    private boolean budgetExceeded;
+
+    private CsvSample(List<CsvTokenizer> ranges, long bytes, long deadline) {
+        this.ranges = ranges;
+        this.bytes = bytes;
+        this.deadline = deadline;
+        this.exhausted = new boolean[ranges.size()];
+    }
+
+    /**
+     * Chooses the ranges of a file to read.
+     * @param tokenizer The tokenizer of the file, it must not have been moved yet
+     * @param budget The budget of the analysis, its time budget starts now
+     */
+    static CsvSample of(CsvTokenizer tokenizer, AnalysisBudget budget) throws IOException {
+        long deadline = System.nanoTime() + budget.getMaxMillis() * 1_000_000L;
+        long start = tokenizer.getPosition();
+        long end = tokenizer.getEnd();
+        List<CsvTokenizer> ranges = new ArrayList<>();
+        // Ranges in the first window of the file, and the search of their first rows, read it instead of mapping
+        // their bytes again
+        tokenizer.mapWindow();
+        if (end - start <= budget.getMaxBytes()) {
+            // Rows of the second half are read in turn from each range, so the analysis can stop before the end
+            // of the file without having read only its first rows
+            long previousEnd = CsvChunker.nextRowStart(tokenizer, start + (end - start) / 2, end, false);
+            ranges.add(tokenizer.range(start, previousEnd));
+            for (int i = 1; i <= STRIDE_COUNT; i++) {
+                long to = CsvChunker.nextRowStart(tokenizer, previousEnd + (end - previousEnd) / (STRIDE_COUNT + 1 - i), end, false);
+                if (previousEnd < to) {
+                    ranges.add(tokenizer.range(previousEnd, to));
+                    previousEnd = to;
+                }
+            }
+            return new CsvSample(ranges, end - start, deadline);
+        }
+        long headEnd = CsvChunker.nextRowStart(tokenizer, start + budget.getMaxBytes() / 2, end, false);
+        ranges.add(tokenizer.range(start, headEnd));
+        long bytes = headEnd - start;
+        long strideBytes = (budget.getMaxBytes() - budget.getMaxBytes() / 2) / STRIDE_COUNT;
+        long previousEnd = headEnd;
+        for (int i = 1; i <= STRIDE_COUNT; i++) {
+            long offset = headEnd + (end - headEnd - strideBytes) * i / STRIDE_COUNT;
+            long from = CsvChunker.nextRowStart(tokenizer, Math.max(offset, previousEnd), end, false);
+            long to = CsvChunker.nextRowStart(tokenizer, Math.min(from + strideBytes, end), end, false);
+            if (from < to) {
+                ranges.add(tokenizer.range(from, to));
+                bytes += to - from;
+                previousEnd = to;
+            }
+        }
+        return new CsvSample(ranges, bytes, deadline);
+    }
+
+    void setSeparator(char separator) {
+        for (CsvTokenizer range : ranges) {
+            range.setSeparator(separator);
+        }
+    }
+
+    /**
+     * Moves back to the first row of the sample, for a new pass.
+     */
+    void rewind() {
+        for (CsvTokenizer range : ranges) {
+            range.rewind();
+        }
+        exhausted = new boolean[ranges.size()];
+        index = 0;
+        rowCount = 0;
+        maxFieldCount = 0;
+        current = null;
+    }
+
+    /**
+     * Moves to the next row of the sample.
+     * @return false if all rows were read or if the time budget is spent
+     */
+    boolean next() throws IOException {
+        if (rowCount >= MIN_ROWS && System.nanoTime() - deadline > 0) {
+            budgetExceeded = true;
+            return false;
+        }
+        int attempts = 0;
+        while (attempts < ranges.size()) {
+            CsvTokenizer range = ranges.get(index);
+            if (exhausted[index] || !range.next()) {
+                exhausted[index] = true;
+                index = (index + 1) % ranges.size();
+                attempts++;
+                continue;
+            }
+            CsvRow row = range.row();
+            if (index == 0 && rowCount <= 1) {
+                maxFieldCount = Math.max(maxFieldCount, row.fieldCount());
+            }
+            if (index > 0 && (row.fieldCount() > maxFieldCount || row.fieldCount() < maxFieldCount - 1)) {
+                continue;
+            }
+            current = row;
+            // The first row is the header, the first data row comes from the same range
+            if (++rowCount > 1) {
+                index = (index + 1) % ranges.size();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The current row, it changes with each call to {@link #next()}
+     */
+    CsvRow row() {
+        return current;
+    }
+
+    /**
+     * @return The number of bytes of the sampled ranges
+     */
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The number of ranges read
+     */
+    int getRangeCount() {
+        return ranges.size();
+    }
+
+    /**
+     * @return True if a pass stopped because the time budget was spent
+     */
+    boolean isBudgetExceeded() {
+        return budgetExceeded;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (CsvTokenizer range : ranges) {
+            range.close();
+        }
+    }
+}
@@ -0,0 +1,538 @@
+package com.tibudget.plugins.csv;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CSV tokenizer working on the raw bytes of a memory-mapped file.
+ * <p>
+ * The file is mapped by windows (so files bigger than 2 GB can be read), each row is scanned once to find
+ * separators, quotes and end of line, and only the bounds of the fields are kept in the {@link CsvRow} cursor.
+ * Strings are created only for the fields that are actually consumed.
+ * <p>
+ * Quotes follow RFC 4180: a field starting with a quote ends at the next single quote, a doubled quote
+ * inside it stands for one quote, and separators or line breaks inside it are part of the value. Fields are
+ * trimmed like {@link String#trim()} does. The separator must be an ASCII character.
+ */
+public class CsvTokenizer implements Closeable {
+
+    /**
+     * Size of the mapped windows, a single row must fit in it.
+     */
+    static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final byte QUOTE = '"';
+
+    private final FileChannel channel;
+    private final boolean ownChannel;
+    private final long start;
+    private final long end;
+    private final int windowSize;
+    private final Charset charset;
+    private byte separator;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int windowLimit;
+
+    /**
+     * Number of bytes mapped by this tokenizer and the tokenizers of its ranges.
+     */
+    private final AtomicLong mappedBytes;
+
+    /**
+     * Offset (in the file) of the next row to read.
+     */
+    private long position;
+
+    private long rowStart = -1;
+
+    /**
+     * Number of lines read since the start of the range (or the last {@link #seek(long)}), including empty lines
+     * and line breaks inside quoted fields.
+     */
+    private long lineCount;
+
+    /**
+     * Number of lines read before the current row.
+     */
+    private long rowLine;
+
+    private boolean truncated;
+    private final CsvRow row;
+    private byte[] scratch = new byte[256];
+
+    /**
+     * Creates a tokenizer on a file, its charset is detected (see {@link CharsetDetector}).
+     */
+    public CsvTokenizer(File file, char separator) throws IOException {
+        this(file, separator, null);
+    }
+
+    /**
+     * @param file The file
+     * @param separator The column separator
+     * @param charset The charset of the file or null to detect it
+     */
+    public CsvTokenizer(File file, char separator, Charset charset) throws IOException {
+        this(FileChannel.open(file.toPath(), StandardOpenOption.READ), true, 0, -1, separator, charset,
+                DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a tokenizer on the range <code>[start, end)</code> of a file.
+     * @param channel The file channel
+     * @param ownChannel If true, the channel will be closed by {@link #close()}
+     * @param start Offset of the first byte to read, it must be the start of a row
+     * @param end Offset after the last byte to read or -1 to read until the end of the file
+     * @param separator The column separator
+     * @param charset The charset of the file or null to detect it, then a byte order mark at <code>start</code>
+     * is skipped
+     * @param windowSize Size of the mapped windows
+     */
+    CsvTokenizer(FileChannel channel, boolean ownChannel, long start, long end, char separator, Charset charset,
+                 int windowSize) throws IOException {
+        this(channel, ownChannel, start, end, separator, charset, windowSize, new AtomicLong());
+    }
+
+    private CsvTokenizer(FileChannel channel, boolean ownChannel, long start, long end, char separator,
+                         Charset charset, int windowSize, AtomicLong mappedBytes) throws IOException {
+        this.channel = channel;
+        this.ownChannel = ownChannel;
+        this.mappedBytes = mappedBytes;
+        try {
+            if (charset == null) {
+                // The charset is detected on the first window, which is then read as usual
+                long size = Math.min(windowSize, (end < 0 ? channel.size() : end) - start);
+                CharsetDetector.Detection detection;
+                if (size > 0) {
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+                    windowStart = start;
+                    windowLimit = (int) size;
+                    mappedBytes.addAndGet(size);
+                    ByteBuffer prefix = window.duplicate();
+                    prefix.limit((int) Math.min(CharsetDetector.PREFIX_SIZE, size));
+                    detection = CharsetDetector.detect(prefix, channel.size() - start < CharsetDetector.PREFIX_SIZE);
+                }
+                else {
+                    detection = CharsetDetector.detect(channel, start);
+                }
+                charset = detection.getCharset();
+                start += detection.getBomLength();
+            }
+            else if (!CharsetDetector.isAsciiCompatible(charset)) {
+                throw new IOException("Charset " + charset + " is not supported, ASCII chars must be single bytes");
+            }
+        } catch (IOException e) {
+            if (ownChannel) {
+                channel.close();
+            }
+            throw e;
+        }
+        this.start = start;
+        this.end = end < 0 ? channel.size() : end;
+        this.charset = charset;
+        this.windowSize = windowSize;
+        this.position = start;
+        this.row = new CsvRow(charset);
+        if (window != null) {
+            row.setBytes(window);
+        }
+        setSeparator(separator);
+    }
+
+    public void setSeparator(char separator) {
+        if (separator > 0x7F) {
+            throw new IllegalArgumentException("Separator must be an ASCII character: " + separator);
+        }
+        this.separator = (byte) separator;
+    }
+
+    /**
+     * Reads up to <code>maxLines</code> raw lines from the start of the range so they can be analyzed before
+     * the separator is known. It does not move the row cursor.
+     * @param maxLines Maximum number of lines to read
+     * @return The lines (may be shorter than <code>maxLines</code> if the file is small)
+     */
+    public List<String> readPrefix(int maxLines) throws IOException {
+        List<String> lines = new ArrayList<>();
+        long offset = start;
+        while (lines.size() < maxLines && offset < end) {
+            int from = map(offset);
+            int i = from;
+            while (i < windowLimit && window.get(i) != '\n' && window.get(i) != '\r') {
+                i++;
+            }
+            if (i == windowLimit && windowStart + windowLimit < end) {
+                // The line is crossing the end of the window: map a new window starting on this line and retry
+                if (from == 0) {
+                    throw new IOException("Line at offset " + offset + " is longer than " + windowSize + " bytes");
+                }
+                remap(offset);
+                continue;
+            }
+            lines.add(decode(from, i));
+            offset = windowStart + i;
+            if (offset < end && window.get(map(offset)) == '\r') {
+                offset++;
+                if (offset < end && window.get(map(offset)) == '\n') {
+                    offset++;
+                }
+            }
+            else if (offset < end) {
+                offset++;
+            }
+        }
+        return Collections.unmodifiableList(lines);
+    }
+
+    /**
+     * Creates a tokenizer on another range of the same file, with the same separator and charset. The file is
+     * not closed when the new tokenizer is closed. The bytes of the range in the current window are not mapped
+     * again: the new tokenizer reads them from the same window. The window is only read, so the new tokenizer can
+     * be used by another thread as long as this one is not moved meanwhile.
+     * @param from Offset of the first byte to read, it must be the start of a row
+     * @param to Offset after the last byte to read
+     * @return A new tokenizer
+     */
+    CsvTokenizer range(long from, long to) throws IOException {
+        CsvTokenizer range = new CsvTokenizer(channel, false, from, to, (char) separator, charset, windowSize, mappedBytes);
+        long windowEnd = windowStart + windowLimit;
+        if (window != null && from >= windowStart && from < windowEnd) {
+            // The window of the range ends with the range, rows are not scanned after it
+            range.window = window;
+            range.windowStart = windowStart;
+            range.windowLimit = (int) (Math.min(windowEnd, range.end) - windowStart);
+            range.row.setBytes(window);
+        }
+        return range;
+    }
+
+    /**
+     * Returns bytes of the file, from the current window if it contains them. The window is only read, so this
+     * can be called by other threads as long as this tokenizer is not moved meanwhile.
+     * @param from Offset of the first byte
+     * @param to Offset after the last byte
+     * @return The bytes <code>[from, to)</code>, from position 0 to the limit of the buffer
+     */
+    ByteBuffer bytes(long from, long to) throws IOException {
+        MappedByteBuffer current = window;
+        if (current != null && from >= windowStart && to <= windowStart + windowLimit) {
+            ByteBuffer bytes = current.duplicate();
+            bytes.limit((int) (to - windowStart));
+            bytes.position((int) (from - windowStart));
+            return bytes.slice();
+        }
+        mappedBytes.addAndGet(to - from);
+        return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+    }
+
+    /**
+     * Maps the window of the next row if it is not mapped yet, so that the ranges created after (see
+     * {@link #range(long, long)}) read it instead of mapping their bytes again.
+     */
+    void mapWindow() throws IOException {
+        if (position < end) {
+            map(position);
+        }
+    }
+
+    /**
+     * Moves the row cursor to an offset of the range.
+     * @param offset Offset of the next row to read, it must be the start of a row
+     */
+    void seek(long offset) {
+        if (offset < start || offset > end) {
+            throw new IllegalArgumentException("Offset " + offset + " is not in [" + start + ", " + end + "]");
+        }
+        position = offset;
+        rowStart = -1;
+        lineCount = 0;
+        truncated = false;
+        row.clear();
+    }
+
+    /**
+     * Moves the row cursor back to the start of the range. The mapped window is kept so the rows already read are
+     * not read again from the file.
+     */
+    public void rewind() {
+        position = start;
+        rowStart = -1;
+        lineCount = 0;
+        truncated = false;
+        row.clear();
+    }
+
+    /**
+     * Moves to the next row.
+     * @return false if end of file is reached
+     */
+    public boolean next() throws IOException {
+        if (position >= end) {
+            rowStart = -1;
+            row.clear();
+            return false;
+        }
+        while (!scanRow()) {
+            // The row is crossing the end of the window: map a new window starting on this row and retry
+            if (windowStart == position) {
+                throw new IOException("Row at offset " + position + " is longer than " + windowSize + " bytes");
+            }
+            remap(position);
+        }
+        return true;
+    }
+
+    /**
+     * Scans the row starting at {@link #position}.
+     * @return false if the end of the window has been reached before the end of the row
+     */
+    private boolean scanRow() throws IOException {
+        int i = map(position);
+        int limit = windowLimit;
+        boolean lastWindow = windowStart + limit >= end;
+        row.clear();
+        int fieldStart = i;
+        boolean quoted = false;
+        boolean escaped = false;
+        boolean inQuotes = false;
+        boolean fieldBegin = true;
+        int lines = 1;
+        while (true) {
+            if (i >= limit) {
+                if (!lastWindow) {
+                    return false;
+                }
+                truncated = inQuotes;
+                addField(fieldStart, i, quoted, escaped);
+                break;
+            }
+            byte b = window.get(i);
+            if (inQuotes) {
+                if (b == QUOTE) {
+                    if (i + 1 >= limit && !lastWindow) {
+                        return false;
+                    }
+                    if (i + 1 < limit && window.get(i + 1) == QUOTE) {
+                        escaped = true;
+                        i += 2;
+                        continue;
+                    }
+                    inQuotes = false;
+                }
+                else if (b == '\n' || (b == '\r' && (i + 1 >= limit || window.get(i + 1) != '\n'))) {
+                    lines++;
+                }
+                i++;
+                continue;
+            }
+            if (b == separator) {
+                addField(fieldStart, i, quoted, escaped);
+                i++;
+                fieldStart = i;
+                quoted = false;
+                escaped = false;
+                fieldBegin = true;
+                continue;
+            }
+            if (b == '\n' || b == '\r') {
+                addField(fieldStart, i, quoted, escaped);
+                if (b == '\r') {
+                    if (i + 1 >= limit && !lastWindow) {
+                        return false;
+                    }
+                    if (i + 1 < limit && window.get(i + 1) == '\n') {
+                        i++;
+                    }
+                }
+                i++;
+                break;
+            }
+            if (b == QUOTE && fieldBegin) {
+                quoted = true;
+                inQuotes = true;
+            }
+            else if (b != ' ' && b != '\t') {
+                fieldBegin = false;
+            }
+            i++;
+        }
+        rowStart = position;
+        position = windowStart + i;
+        rowLine = lineCount;
+        lineCount += lines;
+        return true;
+    }
+
+    private void addField(int from, int to, boolean quoted, boolean escaped) {
+        // Trim
+        while (from < to && (window.get(from) & 0xFF) <= ' ') {
+            from++;
+        }
+        while (to > from && (window.get(to - 1) & 0xFF) <= ' ') {
+            to--;
+        }
+        boolean unquote = quoted && to - from >= 2 && window.get(from) == QUOTE && window.get(to - 1) == QUOTE;
+        if (unquote) {
+            from++;
+            to--;
+            while (from < to && (window.get(from) & 0xFF) <= ' ') {
+                from++;
+            }
+            while (to > from && (window.get(to - 1) & 0xFF) <= ' ') {
+                to--;
+            }
+        }
+        // Unbalanced quotes are kept as they are in the value
+        row.add(from, to, unquote && escaped);
+    }
+
+    /**
+     * Maps the window containing the given offset if it is not already mapped.
+     * @return The index of the offset in the window
+     */
+    private int map(long offset) throws IOException {
+        long windowEnd = windowStart + windowLimit;
+        if (window == null || offset < windowStart || offset > windowEnd || (offset == windowEnd && windowEnd < end)) {
+            remap(offset);
+        }
+        return (int) (offset - windowStart);
+    }
+
+    /**
+     * Maps a new window starting at the given offset.
+     */
+    private void remap(long offset) throws IOException {
+        long size = Math.min(windowSize, end - offset);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        windowStart = offset;
+        windowLimit = (int) size;
+        mappedBytes.addAndGet(size);
+        row.setBytes(window);
+    }
+
+    /**
+     * @return The current row, the same instance is returned for all rows
+     */
+    public CsvRow row() {
+        return row;
+    }
+
+    private String decode(int from, int to) {
+        int length = to - from;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = window.get(from + i);
+        }
+        return new String(scratch, 0, length, charset);
+    }
+
+    /**
+     * @return Offset in the file of the current row or -1 if there is no current row
+     */
+    public long getRowStart() {
+        return rowStart;
+    }
+
+    /**
+     * @return Number of lines read since the start of the range (or the last {@link #seek(long)}), empty lines and
+     * line breaks inside quoted fields included
+     */
+    long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return Number of lines read before the current row, since the start of the range (or the last
+     * {@link #seek(long)})
+     */
+    long getRowLine() {
+        return rowLine;
+    }
+
+    /**
+     * @return A copy of the bytes of the current row, with its line break
+     */
+    byte[] rowBytes() {
+        byte[] bytes = new byte[(int) (position - rowStart)];
+        int from = (int) (rowStart - windowStart);
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = window.get(from + i);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return Offset in the file of the next row to read
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return Offset in the file after the last byte to read
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return True if the end of the range has been reached inside a quoted field: the last row is incomplete
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return The charset of the file, given or detected
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return The number of bytes mapped so far by this tokenizer and the tokenizers of its ranges, used to check
+     * that the file is read only once
+     */
+    long getMappedBytes() {
+        return mappedBytes.get();
+    }
+
+    /**
+     * Drops the references of this tokenizer to the mapped window (its own and the one of its row) and closes the
+     * file if it belongs to this tokenizer.
+     * <p>
+     * The window is not unmapped: Java has no public API to unmap a {@link MappedByteBuffer}, its mapping is only
+     * released once the buffer is garbage collected. Until then the file stays mapped, and on Windows it cannot
+     * be deleted or replaced. The windows of the ranges and the buffers returned by {@link #bytes(long, long)}
+     * are referenced separately and must be dropped by their users too.
+     */
+    @Override
+    public void close() throws IOException {
+        window = null;
+        windowLimit = 0;
+        rowStart = -1;
+        row.release();
+        if (ownChannel) {
+            channel.close();
+        }
+    }
+}
@@ -1,8 +1,7 @@
 package com.tibudget.plugins.csv;
-import java.text.ParsePosition;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 public class DateFormatUtils {
@@ -14,53 +13,153 @@ public class DateFormatUtils {
             "MMM dd yyyy", "MMMM dd yyyy", "dd MMM yyyy", "dd MMMM yyyy"
     };
 
+    /**
+     * Shapes accepted by each format (see {@link #shapeOf(String)}).
+     */
+    private static final String[][] FORMAT_SHAPES = new String[DATE_FORMATS.length][];
+    static {
+        for (int i = 0; i < DATE_FORMATS.length; i++) {
+            FORMAT_SHAPES[i] = shapesOfFormat(DATE_FORMATS[i]);
+        }
+    }
+
+    /**
+     * Number of dates that must be parsed by the last remaining format before the other dates are ignored.
+     */
+    static final int MIN_EVIDENCE = 32;
+
     /**
      * Return a set of accepted date formats for this collection of date strings.
+     * <p>
+     * Formats are eliminated as soon as a date does not match them, first by comparing the shape of the date
+     * (digits, letters and separators) with the shapes of the formats, then by parsing it. A rejected format
+     * is never tried again, and the scan stops when a single format remains and it parsed
+     * {@link #MIN_EVIDENCE} dates.
      * @param datesString List of date strings
      * @return A set of accepted date formats for this collection of date strings
      */
     public static Set<String> determineDateFormat(Iterable<String> datesString) {
-        Set<String> acceptFormats = new HashSet<>();
-        Set<String> rejectFormats = new HashSet<>();
-        ParsePosition pp = new ParsePosition(0);
+        return determineDateFormat(datesString, MIN_EVIDENCE);
+    }
+
+    /**
+     * Same as {@link #determineDateFormat(Iterable)} but the scan stops when a single format remains and it
+     * parsed <code>minEvidence</code> dates.
+     * @param datesString List of date strings, read only until the format is known
+     * @param minEvidence Number of dates the last remaining format must parse
+     * @return A set of accepted date formats for this collection of date strings
+     */
+    public static Set<String> determineDateFormat(Iterable<String> datesString, int minEvidence) {
+        // Bit i is set if DATE_FORMATS[i] is still a candidate / has parsed at least one date
+        int candidates = (1 << DATE_FORMATS.length) - 1;
+        int accepted = 0;
+        int evidence = 0;
+        DateParser[] parsers = new DateParser[DATE_FORMATS.length];
+        // Many dates have the same shape, formats matching a shape are computed once
+        Map<String, Integer> shapeMatches = new HashMap<>();
 
         for (String dateString : datesString) {
             // Ignore empty strings or strings without any number
             if (dateString == null || doesNotLookLikeADate(dateString)) {
                 continue;
             }
+            String shape = shapeOf(dateString);
+            Integer matches = shapeMatches.get(shape);
+            if (matches == null) {
+                matches = matchingFormats(shape);
+                shapeMatches.put(shape, matches);
+            }
+            candidates &= matches;
+            for (int i = 0; i < DATE_FORMATS.length; i++) {
+                if ((candidates & (1 << i)) == 0) {
+                    continue;
+                }
+                if (parsers[i] == null) {
+                    parsers[i] = DateParser.compile(DATE_FORMATS[i]);
+                }
+                if (parsers[i].parseEpochDay(dateString) == DateParser.INVALID) {
+                    candidates &= ~(1 << i);
+                }
+                else {
+                    accepted |= 1 << i;
+                }
+            }
+            if (candidates == 0) {
+                break;
+            }
+            if (Integer.bitCount(candidates) == 1 && ++evidence >= minEvidence) {
+                break;
+            }
+        }
 
-            for (String format : DATE_FORMATS) {
-                SimpleDateFormat simpleDateFormat = new SimpleDateFormat(format);
-                // Don't automatically convert invalid dates
-                simpleDateFormat.setLenient(false);
-                pp.setErrorIndex(-1);
-                pp.setIndex(0);
-
-                try {
-                    Date date = simpleDateFormat.parse(dateString, pp);
+        Set<String> acceptFormats = new HashSet<>();
+        for (int i = 0; i < DATE_FORMATS.length; i++) {
+            if ((candidates & accepted & (1 << i)) != 0) {
+                acceptFormats.add(DATE_FORMATS[i]);
+            }
+        }
+        return acceptFormats;
+    }
 
-                    // Check if the parsing was complete and successful
-                    if (pp.getIndex() == dateString.length() && date != null) {
-                        if (!rejectFormats.contains(format)) {
-                            acceptFormats.add(format);
-                        }
-                    } else {
-                        rejectFormats.add(format);
-                        acceptFormats.remove(format);
-                    }
-                } catch (Exception e) {
-                    // If parsing throws an exception, reject the format
-                    rejectFormats.add(format);
-                    acceptFormats.remove(format);
+    /**
+     * Computes the shape of a string: digits are replaced by <code>9</code>, runs of letters by a single
+     * <code>a</code>, other chars are kept. For instance the shape of "22/02/2012" is "99/99/9999".
+     */
+    static String shapeOf(String value) {
+        StringBuilder shape = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                shape.append('9');
+            }
+            else if (Character.isLetter(c)) {
+                if (shape.length() == 0 || shape.charAt(shape.length() - 1) != 'a') {
+                    shape.append('a');
                 }
             }
+            else {
+                shape.append(c);
+            }
         }
+        return shape.toString();
+    }
 
-        return acceptFormats;
+    /**
+     * @return The shapes of the dates written with a format: numeric fields have a fixed width, except the day
+     * of the formats with a month name which can have 1 or 2 digits
+     */
+    private static String[] shapesOfFormat(String format) {
+        String shape = format.replaceAll("M{3,}", "a");
+        boolean textMonth = shape.length() != format.length();
+        int day = shape.indexOf("dd");
+        shape = shape.replaceAll("[yMd]", "9");
+        if (!textMonth) {
+            return new String[] { shape };
+        }
+        return new String[] { shape, shape.substring(0, day) + shape.substring(day + 1) };
+    }
+
+    /**
+     * @return A bit mask of the formats accepting this shape
+     */
+    private static int matchingFormats(String shape) {
+        int matches = 0;
+        for (int i = 0; i < DATE_FORMATS.length; i++) {
+            for (String formatShape : FORMAT_SHAPES[i]) {
+                if (formatShape.equals(shape)) {
+                    matches |= 1 << i;
+                }
+            }
+        }
+        return matches;
     }
 
     private static boolean doesNotLookLikeADate(String input) {
-        return !input.matches(".*\\d.*");
+        for (int i = 0; i < input.length(); i++) {
+            if (Character.isDigit(input.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -0,0 +1,227 @@
+package com.tibudget.plugins.csv;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+
+/**
+ * Parses dates of a given pattern into epoch days.
+ * <p>
+ * Patterns made of <code>yyyy</code>, <code>MM</code>, <code>dd</code> and non-letter separators (all
+ * numeric patterns of {@link DateFormatUtils}, and most user defined ones) are compiled into a parser reading
+ * digits at fixed positions of the text, without any allocation. Other patterns (month names, two-digit
+ * years...) are parsed by a {@link SimpleDateFormat}. In both cases parsing is strict: the whole text must
+ * match and out of range values are rejected, as with {@link SimpleDateFormat#setLenient(boolean)} set to
+ * false.
+ * <p>
+ * Instances are not thread safe, use one per thread.
+ */
+public abstract class DateParser {
+
+    /**
+     * Returned by {@link #parseEpochDay(CharSequence)} when the text is not a valid date.
+     */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private final String pattern;
+
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    private long lastEpochDay = INVALID;
+
+    private long lastMillis;
+
+    DateParser(String pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * @param pattern A {@link SimpleDateFormat} pattern
+     * @return The fastest parser for this pattern
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    public static DateParser compile(String pattern) {
+        DateParser parser = FixedDateParser.tryCompile(pattern);
+        if (parser == null) {
+            parser = new SimpleDateParser(pattern);
+        }
+        return parser;
+    }
+
+    /**
+     * @param text The text to parse (already trimmed)
+     * @return The number of days since 1970-01-01 or {@link #INVALID} if the text is not a valid date
+     */
+    public abstract long parseEpochDay(CharSequence text);
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Converts an epoch day to a date at midnight in the default time zone (as {@link SimpleDateFormat} does).
+     * @param epochDay The number of days since 1970-01-01
+     * @return A new date
+     */
+    public Date toDate(long epochDay) {
+        if (epochDay != lastEpochDay) {
+            // Rows are usually sorted by date so the conversion is done once per day
+            lastMillis = LocalDate.ofEpochDay(epochDay).atStartOfDay(zone).toInstant().toEpochMilli();
+            lastEpochDay = epochDay;
+        }
+        return new Date(lastMillis);
+    }
+
+    /**
+     * @return true if the year is a leap year in the proleptic Gregorian calendar
+     */
+    static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * @return The number of days since 1970-01-01 of a valid date
+     */
+    static long toEpochDay(int year, int month, int day) {
+        // Days from civil algorithm (shifted year starting in March)
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Parser reading digits at fixed positions.
+     */
+    static final class FixedDateParser extends DateParser {
+
+        private final int length;
+        private final int yearPos;
+        private final int monthPos;
+        private final int dayPos;
+        /**
+         * Expected char at each position, 0 for a digit.
+         */
+        private final char[] literals;
+
+        private FixedDateParser(String pattern, int yearPos, int monthPos, int dayPos, char[] literals) {
+            super(pattern);
+            this.length = literals.length;
+            this.yearPos = yearPos;
+            this.monthPos = monthPos;
+            this.dayPos = dayPos;
+            this.literals = literals;
+        }
+
+        /**
+         * @return The compiled parser or null if the pattern is not made of yyyy, MM, dd and separators
+         */
+        static FixedDateParser tryCompile(String pattern) {
+            int yearPos = -1, monthPos = -1, dayPos = -1;
+            char[] literals = new char[pattern.length()];
+            int i = 0;
+            while (i < pattern.length()) {
+                char c = pattern.charAt(i);
+                int run = 1;
+                while (i + run < pattern.length() && pattern.charAt(i + run) == c) {
+                    run++;
+                }
+                if (c == 'y' && run == 4 && yearPos < 0) {
+                    yearPos = i;
+                }
+                else if (c == 'M' && run == 2 && monthPos < 0) {
+                    monthPos = i;
+                }
+                else if (c == 'd' && run == 2 && dayPos < 0) {
+                    dayPos = i;
+                }
+                else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '\'' || Character.isDigit(c)) {
+                    // Other fields, quoted text or digits in the pattern
+                    return null;
+                }
+                else {
+                    for (int j = i; j < i + run; j++) {
+                        literals[j] = c;
+                    }
+                }
+                i += run;
+            }
+            if (yearPos < 0 || monthPos < 0 || dayPos < 0) {
+                return null;
+            }
+            return new FixedDateParser(pattern, yearPos, monthPos, dayPos, literals);
+        }
+
+        @Override
+        public long parseEpochDay(CharSequence text) {
+            if (text.length() != length) {
+                return INVALID;
+            }
+            for (int i = 0; i < length; i++) {
+                char expected = literals[i];
+                char c = text.charAt(i);
+                if (expected == 0 ? (c < '0' || c > '9') : c != expected) {
+                    return INVALID;
+                }
+            }
+            int year = digit(text, yearPos) * 1000 + digit(text, yearPos + 1) * 100
+                    + digit(text, yearPos + 2) * 10 + digit(text, yearPos + 3);
+            int month = digit(text, monthPos) * 10 + digit(text, monthPos + 1);
+            int day = digit(text, dayPos) * 10 + digit(text, dayPos + 1);
+            if (year < 1 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+                return INVALID;
+            }
+            return toEpochDay(year, month, day);
+        }
+
+        private static int digit(CharSequence text, int index) {
+            return text.charAt(index) - '0';
+        }
+    }
+
+    /**
+     * Fallback parser for patterns that cannot be compiled.
+     */
+    static final class SimpleDateParser extends DateParser {
+
+        private final SimpleDateFormat format;
+
+        private final ParsePosition pp = new ParsePosition(0);
+
+        SimpleDateParser(String pattern) {
+            super(pattern);
+            this.format = new SimpleDateFormat(pattern);
+            this.format.setLenient(false);
+        }
+
+        @Override
+        public long parseEpochDay(CharSequence text) {
+            String str = text.toString();
+            pp.setIndex(0);
+            pp.setErrorIndex(-1);
+            Date date = format.parse(str, pp);
+            if (date == null || pp.getIndex() != str.length()) {
+                return INVALID;
+            }
+            return date.toInstant().atZone(format.getTimeZone().toZoneId()).toLocalDate().toEpochDay();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.tibudget.plugins.csv;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.text.DecimalFormat;
+
+/**
+ * Flight recorder event of a stage of {@link CsvFormatAnalyzer}: the whole analysis (<code>findFormat</code>) and
+ * the detection of the separator, of the date pattern and of the decimal format inside it.
+ */
+@Name("com.tibudget.plugins.csv.FormatDetection")
+@Label("CSV Format Detection")
+@Category({ "Tibudget", "CSV Import" })
+@Description("Detection of the format of a CSV file")
+@StackTrace(false)
+final class FormatDetectionEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("File Size")
+    @DataAmount(DataAmount.BYTES)
+    long fileSize;
+
+    @Label("Sampled Bytes")
+    @Description("Bytes of the file analyzed, for the whole analysis")
+    @DataAmount(DataAmount.BYTES)
+    long sampledBytes;
+
+    @Label("Result")
+    @Description("Detected value, null if it could not be detected")
+    String result;
+
+    @Label("Confidence")
+    double confidence;
+
+    /**
+     * @param stage Name of the method of the analyzer
+     * @param fileSize Size of the analyzed file
+     * @return A started event
+     */
+    static FormatDetectionEvent start(String stage, long fileSize) {
+        FormatDetectionEvent event = new FormatDetectionEvent();
+        event.begin();
+        event.stage = stage;
+        event.fileSize = fileSize;
+        return event;
+    }
+
+    /**
+     * Ends the stage, the event is recorded if it is enabled and above its threshold.
+     * @param result The detected value, or null
+     * @param confidence Confidence in the detected value
+     */
+    void finish(Object result, double confidence) {
+        end();
+        if (shouldCommit()) {
+            if (result instanceof DecimalFormat) {
+                this.result = ((DecimalFormat) result).toPattern();
+            }
+            else {
+                this.result = result != null ? result.toString() : null;
+            }
+            this.confidence = confidence;
+            commit();
+        }
+    }
+}
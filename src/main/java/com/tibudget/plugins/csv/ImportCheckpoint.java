@@ -0,0 +1,228 @@
+package com.tibudget.plugins.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * State of a file after an import, so that a later import of the same file, once rows have been appended to it,
+ * only parses the new rows.
+ * <p>
+ * The checkpoint keeps the offset after the last imported row, a hash of all the bytes before it, the format
+ * used and the balance in minor units. The hash is chained over blocks of {@link #HASH_BLOCK} bytes (see
+ * {@link PrefixHasher}): the blocks hashed to check the checkpoint are not hashed again to store the next one, so
+ * an import hashes each byte of the file once.
+ */
+public final class ImportCheckpoint {
+
+    private static final Logger LOG = Logger.getLogger(ImportCheckpoint.class.getName());
+
+    /**
+     * Number of bytes of the blocks of the hash.
+     */
+    static final int HASH_BLOCK = 1024 * 1024;
+
+    private static final String FILE_EXTENSION = ".checkpoint";
+
+    private final long offset;
+
+    private final String prefixHash;
+
+    private final long lineCount;
+
+    private final CsvFormat format;
+
+    private final double initialBalance;
+
+    private final long total;
+
+    private final int scale;
+
+    /**
+     * @param offset Offset after the last imported row
+     * @param prefixHash Hash of the bytes before the offset (see {@link PrefixHasher#hash(FileChannel, long)})
+     * @param lineCount Number of lines before the offset
+     * @param format The format of the file
+     * @param initialBalance Balance of the account before the first import
+     * @param total Sum of the imported amounts, in minor units
+     * @param scale Number of decimals of the minor units
+     */
+    public ImportCheckpoint(long offset, String prefixHash, long lineCount, CsvFormat format, double initialBalance,
+                            long total, int scale) {
+        this.offset = offset;
+        this.prefixHash = prefixHash;
+        this.lineCount = lineCount;
+        this.format = format;
+        this.initialBalance = initialBalance;
+        this.total = total;
+        this.scale = scale;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public String getPrefixHash() {
+        return prefixHash;
+    }
+
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    public CsvFormat getFormat() {
+        return format;
+    }
+
+    public double getInitialBalance() {
+        return initialBalance;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * @return The balance of the account after the import
+     */
+    public double getBalance() {
+        return initialBalance + AmountParser.toDouble(total, scale);
+    }
+
+    /**
+     * Checks that the file still starts with the imported bytes.
+     * @param channel The file
+     * @param hasher Hasher of the file, its full blocks before the offset are hashed and can be reused to hash a
+     * longer prefix
+     * @return true if the rows after the offset can be imported on top of this checkpoint
+     */
+    boolean matches(FileChannel channel, PrefixHasher hasher) throws IOException {
+        return channel.size() >= offset && prefixHash.equals(hasher.hash(channel, offset));
+    }
+
+    /**
+     * Hashes prefixes of a file. The hash of a prefix is chained over its full blocks, then covers the remaining
+     * bytes and the length of the prefix. The chain is kept, so hashing a longer prefix of the same file only
+     * reads the bytes after the last full block.
+     */
+    static final class PrefixHasher {
+
+        private final MessageDigest digest;
+
+        /**
+         * Hash of the blocks before {@link #hashed}.
+         */
+        private byte[] chain = new byte[0];
+
+        /**
+         * Number of bytes of the chained blocks.
+         */
+        private long hashed;
+
+        PrefixHasher() {
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * @param channel The file, whose bytes before the ones already hashed must not have changed
+         * @param offset Length of the prefix
+         * @return The hash of the bytes before the offset
+         */
+        String hash(FileChannel channel, long offset) throws IOException {
+            if (offset < hashed) {
+                throw new IllegalArgumentException("Prefix " + offset + " is shorter than the hashed blocks: " + hashed);
+            }
+            while (offset - hashed >= HASH_BLOCK) {
+                digest.update(chain);
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, hashed, HASH_BLOCK));
+                chain = digest.digest();
+                hashed += HASH_BLOCK;
+            }
+            digest.update(chain);
+            if (offset > hashed) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, hashed, offset - hashed));
+            }
+            for (int i = 0; i < Long.BYTES; i++) {
+                digest.update((byte) (offset >>> (8 * i)));
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+
+        /**
+         * @return Number of bytes hashed in blocks, they are not read again
+         */
+        long getHashed() {
+            return hashed;
+        }
+    }
+
+    /**
+     * @param directory Where checkpoints are stored
+     * @param csvFile The imported file
+     * @return The file of the checkpoint of an imported file
+     */
+    static File getFile(File directory, File csvFile) {
+        return new File(directory, CsvFormatCache.fileName(csvFile.getAbsolutePath()) + FILE_EXTENSION);
+    }
+
+    /**
+     * @return The checkpoint of a file or null if there is none or it cannot be read
+     */
+    static ImportCheckpoint load(File directory, File csvFile) {
+        File file = getFile(directory, csvFile);
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+            if (!csvFile.getAbsolutePath().equals(properties.getProperty("file"))) {
+                // Two paths with the same hash
+                return null;
+            }
+            return new ImportCheckpoint(
+                    Long.parseLong(properties.getProperty("offset")),
+                    properties.getProperty("prefixHash"),
+                    Long.parseLong(properties.getProperty("lineCount")),
+                    CsvFormatCache.readFormat(properties),
+                    Double.parseDouble(properties.getProperty("initialBalance")),
+                    Long.parseLong(properties.getProperty("total")),
+                    Integer.parseInt(properties.getProperty("scale")));
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Cannot read checkpoint " + file, e);
+            return null;
+        }
+    }
+
+    void store(File directory, File csvFile) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("file", csvFile.getAbsolutePath());
+        properties.setProperty("offset", String.valueOf(offset));
+        properties.setProperty("prefixHash", prefixHash);
+        properties.setProperty("lineCount", String.valueOf(lineCount));
+        properties.setProperty("initialBalance", String.valueOf(initialBalance));
+        properties.setProperty("total", String.valueOf(total));
+        properties.setProperty("scale", String.valueOf(scale));
+        CsvFormatCache.writeFormat(format, properties);
+        CsvFormatCache.storeAtomically(properties, getFile(directory, csvFile), "CSV import checkpoint");
+    }
+}
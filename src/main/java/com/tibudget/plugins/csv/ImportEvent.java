@@ -0,0 +1,48 @@
+package com.tibudget.plugins.csv;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of a {@link CsvCollector#collect(Iterable)}.
+ */
+@Name("com.tibudget.plugins.csv.Import")
+@Label("CSV Import")
+@Category({ "Tibudget", "CSV Import" })
+@Description("Import of a CSV file")
+@StackTrace(false)
+final class ImportEvent extends Event {
+
+    @Label("File")
+    String file;
+
+    @Label("File Size")
+    @DataAmount(DataAmount.BYTES)
+    long fileSize;
+
+    @Label("Format")
+    String format;
+
+    @Label("Format Cache Hit")
+    boolean formatCacheHit;
+
+    @Label("Threads")
+    int parallelism;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Rejected Rows")
+    long rejectedRows;
+
+    @Label("Duplicate Rows")
+    long duplicateRows;
+
+    @Label("Failed")
+    boolean failed;
+}
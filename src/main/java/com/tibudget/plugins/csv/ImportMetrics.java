@@ -0,0 +1,274 @@
+package com.tibudget.plugins.csv;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Where the time of an import goes, see {@link CsvCollector#getMetrics()}.
+ * <p>
+ * Detection stages and emission are timed once per import. Tokenizing, date parsing and amount parsing take a few
+ * tens of nanoseconds per row, so they are timed on one row in {@link #SAMPLE_INTERVAL} and the time of the other
+ * rows is estimated from it. When the file is parsed by several threads, the times of the parsing stages are
+ * summed over the threads and can exceed the elapsed time.
+ * <p>
+ * The latency of each block of {@link #BLOCK_ROWS} rows (parsing, and emission when the file is parsed by a single
+ * thread) is counted in a histogram whose bucket <code>i</code> holds the blocks that took less than
+ * <code>2<sup>i</sup></code> microseconds (and at least <code>2<sup>i-1</sup></code>).
+ * <p>
+ * Counters are written by the import threads and can be read by any thread.
+ */
+public final class ImportMetrics {
+
+    /**
+     * Stages of an import.
+     */
+    public enum Stage {
+        SEPARATOR_DETECTION,
+        DATE_DETECTION,
+        DECIMAL_DETECTION,
+        COLUMN_DETECTION,
+        TOKENIZING,
+        DATE_PARSING,
+        AMOUNT_PARSING,
+        /**
+         * Time spent in the {@link OperationSink}.
+         */
+        EMITTING
+    }
+
+    /**
+     * Number of rows of the blocks whose latency is recorded.
+     */
+    public static final int BLOCK_ROWS = 10_000;
+
+    /**
+     * One row in this number is timed stage by stage, it must be a power of 2.
+     */
+    static final int SAMPLE_INTERVAL = 64;
+
+    static final int HISTOGRAM_BUCKETS = 32;
+
+    private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+
+    private final AtomicLongArray blockLatencies = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+    private final long startNanos = System.nanoTime();
+
+    private volatile long elapsedNanos = -1;
+
+    private volatile long rowCount;
+
+    private volatile long byteCount;
+
+    private volatile long rejectedRowCount;
+
+    private volatile long duplicateRowCount;
+
+    private volatile boolean formatCacheHit;
+
+    private volatile boolean failed;
+
+    ImportMetrics() {
+    }
+
+    void addStageNanos(Stage stage, long nanos) {
+        stageNanos.addAndGet(stage.ordinal(), nanos);
+    }
+
+    /**
+     * @param nanos Time of a row timed on behalf of {@link #SAMPLE_INTERVAL} rows
+     */
+    void addSample(Stage stage, long nanos) {
+        stageNanos.addAndGet(stage.ordinal(), nanos * SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @param nanos Time taken by a block of {@link #BLOCK_ROWS} rows
+     */
+    void addBlock(long nanos) {
+        blockLatencies.incrementAndGet(bucketOf(nanos / 1000));
+    }
+
+    void setRowCount(long rowCount) {
+        this.rowCount = rowCount;
+    }
+
+    void setByteCount(long byteCount) {
+        this.byteCount = byteCount;
+    }
+
+    void setRejectedRowCount(long rejectedRowCount) {
+        this.rejectedRowCount = rejectedRowCount;
+    }
+
+    void setDuplicateRowCount(long duplicateRowCount) {
+        this.duplicateRowCount = duplicateRowCount;
+    }
+
+    void setFormatCacheHit(boolean formatCacheHit) {
+        this.formatCacheHit = formatCacheHit;
+    }
+
+    /**
+     * Ends the import.
+     * @param failed True if the import was aborted
+     */
+    void finish(boolean failed) {
+        this.failed = failed;
+        this.elapsedNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return The time spent in a stage, in nanoseconds
+     */
+    public long getStageNanos(Stage stage) {
+        return stageNanos.get(stage.ordinal());
+    }
+
+    /**
+     * @return The time of the import in nanoseconds, up to now if it is not finished
+     */
+    public long getElapsedNanos() {
+        long elapsed = elapsedNanos;
+        return elapsed >= 0 ? elapsed : System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return True once the import is finished
+     */
+    public boolean isFinished() {
+        return elapsedNanos >= 0;
+    }
+
+    /**
+     * @return True if the import was aborted
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * @return The number of non empty rows read
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return The number of bytes imported (the rows after the header, or after the checkpoint of an incremental
+     * import)
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    public long getRejectedRowCount() {
+        return rejectedRowCount;
+    }
+
+    /**
+     * @return The number of rows skipped because they were imported before
+     */
+    public long getDuplicateRowCount() {
+        return duplicateRowCount;
+    }
+
+    /**
+     * @return True if the format of the file was found in the {@link CsvFormatCache}
+     */
+    public boolean isFormatCacheHit() {
+        return formatCacheHit;
+    }
+
+    public double getRowsPerSecond() {
+        return perSecond(rowCount, getElapsedNanos());
+    }
+
+    public double getBytesPerSecond() {
+        return perSecond(byteCount, getElapsedNanos());
+    }
+
+    /**
+     * @return Number of blocks of {@link #BLOCK_ROWS} rows by latency bucket
+     */
+    public long[] getBlockLatencyHistogram() {
+        long[] histogram = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = blockLatencies.get(i);
+        }
+        return histogram;
+    }
+
+    /**
+     * @return The number of blocks of {@link #BLOCK_ROWS} rows whose latency was recorded
+     */
+    public long getBlockCount() {
+        long count = 0;
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            count += blockLatencies.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile Between 0 and 100
+     * @return The latency in microseconds under which this percentile of the blocks were processed (the upper
+     * bound of their bucket), 0 if there is no block
+     */
+    public long getBlockLatencyPercentile(double percentile) {
+        return percentile(getBlockLatencyHistogram(), percentile);
+    }
+
+    static long percentile(long[] histogram, double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+        }
+        long count = 0;
+        for (long blocks : histogram) {
+            count += blocks;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return 1L << (histogram.length - 1);
+    }
+
+    static int bucketOf(long micros) {
+        return Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, micros)));
+    }
+
+    static double perSecond(long count, long nanos) {
+        return nanos <= 0 ? 0.0 : count * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(rowCount).append(" rows, ").append(byteCount).append(" bytes in ")
+                .append(getElapsedNanos() / 1_000_000).append(" ms (")
+                .append(Math.round(getRowsPerSecond())).append(" rows/s");
+        if (rejectedRowCount > 0) {
+            sb.append(", ").append(rejectedRowCount).append(" rejected");
+        }
+        if (duplicateRowCount > 0) {
+            sb.append(", ").append(duplicateRowCount).append(" duplicates");
+        }
+        if (formatCacheHit) {
+            sb.append(", cached format");
+        }
+        sb.append(')');
+        for (Stage stage : Stage.values()) {
+            sb.append(' ').append(stage.name().toLowerCase(Locale.ROOT)).append('=')
+                    .append(getStageNanos(stage) / 1_000_000).append("ms");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,14 @@
+package com.tibudget.plugins.csv;
+
+/**
+ * Receives the metrics of each import of a {@link CsvCollector}.
+ */
+@FunctionalInterface
+public interface ImportMetricsListener {
+
+    /**
+     * Called by the importing thread at the end of each import, including the aborted ones.
+     * @param metrics The metrics of the import, they are no longer modified
+     */
+    void importFinished(ImportMetrics metrics);
+}
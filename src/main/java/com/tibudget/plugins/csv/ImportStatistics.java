@@ -0,0 +1,194 @@
+package com.tibudget.plugins.csv;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Metrics of the imports of several collectors added up. {@link #getShared()} is fed by all collectors by default
+ * (see {@link CsvCollector#setStatistics(ImportStatistics)}) and can be exposed with JMX by
+ * {@link #registerMBean()}.
+ * <p>
+ * Instances are thread safe.
+ */
+public final class ImportStatistics implements ImportStatisticsMXBean, ImportMetricsListener {
+
+    /**
+     * Name of the MBean registered by {@link #registerMBean()}.
+     */
+    public static final String OBJECT_NAME = "com.tibudget.plugins.csv:type=ImportStatistics";
+
+    private static final ImportStatistics SHARED = new ImportStatistics();
+
+    private final long[] stageNanos = new long[ImportMetrics.Stage.values().length];
+
+    private final long[] blockLatencies = new long[ImportMetrics.HISTOGRAM_BUCKETS];
+
+    private long importCount;
+
+    private long failedImportCount;
+
+    private long rowCount;
+
+    private long byteCount;
+
+    private long rejectedRowCount;
+
+    private long duplicateRowCount;
+
+    private long formatCacheHitCount;
+
+    private long elapsedNanos;
+
+    private ObjectName objectName;
+
+    /**
+     * @return The statistics fed by all collectors by default
+     */
+    public static ImportStatistics getShared() {
+        return SHARED;
+    }
+
+    @Override
+    public synchronized void importFinished(ImportMetrics metrics) {
+        importCount++;
+        if (metrics.isFailed()) {
+            failedImportCount++;
+        }
+        rowCount += metrics.getRowCount();
+        byteCount += metrics.getByteCount();
+        rejectedRowCount += metrics.getRejectedRowCount();
+        duplicateRowCount += metrics.getDuplicateRowCount();
+        if (metrics.isFormatCacheHit()) {
+            formatCacheHitCount++;
+        }
+        elapsedNanos += metrics.getElapsedNanos();
+        for (ImportMetrics.Stage stage : ImportMetrics.Stage.values()) {
+            stageNanos[stage.ordinal()] += metrics.getStageNanos(stage);
+        }
+        long[] histogram = metrics.getBlockLatencyHistogram();
+        for (int i = 0; i < histogram.length; i++) {
+            blockLatencies[i] += histogram[i];
+        }
+    }
+
+    /**
+     * Registers the statistics in the platform MBean server under {@link #OBJECT_NAME}, it does nothing if they
+     * are already registered.
+     * @return The name of the MBean
+     */
+    public synchronized ObjectName registerMBean() throws JMException {
+        if (objectName == null) {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        }
+        return objectName;
+    }
+
+    /**
+     * Removes the statistics from the platform MBean server, if they were registered.
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public synchronized long getImportCount() {
+        return importCount;
+    }
+
+    @Override
+    public synchronized long getFailedImportCount() {
+        return failedImportCount;
+    }
+
+    @Override
+    public synchronized long getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    @Override
+    public synchronized long getRejectedRowCount() {
+        return rejectedRowCount;
+    }
+
+    @Override
+    public synchronized long getDuplicateRowCount() {
+        return duplicateRowCount;
+    }
+
+    @Override
+    public synchronized long getFormatCacheHitCount() {
+        return formatCacheHitCount;
+    }
+
+    @Override
+    public synchronized long getElapsedMillis() {
+        return elapsedNanos / 1_000_000;
+    }
+
+    @Override
+    public synchronized double getRowsPerSecond() {
+        return ImportMetrics.perSecond(rowCount, elapsedNanos);
+    }
+
+    @Override
+    public synchronized double getBytesPerSecond() {
+        return ImportMetrics.perSecond(byteCount, elapsedNanos);
+    }
+
+    @Override
+    public synchronized Map<String, Long> getStageMillis() {
+        Map<String, Long> millis = new LinkedHashMap<>();
+        for (ImportMetrics.Stage stage : ImportMetrics.Stage.values()) {
+            millis.put(stage.name().toLowerCase(Locale.ROOT), stageNanos[stage.ordinal()] / 1_000_000);
+        }
+        return millis;
+    }
+
+    @Override
+    public synchronized long[] getBlockLatencyHistogram() {
+        return blockLatencies.clone();
+    }
+
+    @Override
+    public long getBlockLatencyMedian() {
+        return ImportMetrics.percentile(getBlockLatencyHistogram(), 50);
+    }
+
+    @Override
+    public long getBlockLatency99thPercentile() {
+        return ImportMetrics.percentile(getBlockLatencyHistogram(), 99);
+    }
+
+    @Override
+    public synchronized void reset() {
+        importCount = 0;
+        failedImportCount = 0;
+        rowCount = 0;
+        byteCount = 0;
+        rejectedRowCount = 0;
+        duplicateRowCount = 0;
+        formatCacheHitCount = 0;
+        elapsedNanos = 0;
+        Arrays.fill(stageNanos, 0);
+        Arrays.fill(blockLatencies, 0);
+    }
+}
@@ -0,0 +1,54 @@
+package com.tibudget.plugins.csv;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link ImportStatistics}.
+ */
+public interface ImportStatisticsMXBean {
+
+    long getImportCount();
+
+    long getFailedImportCount();
+
+    long getRowCount();
+
+    long getByteCount();
+
+    long getRejectedRowCount();
+
+    long getDuplicateRowCount();
+
+    long getFormatCacheHitCount();
+
+    /**
+     * @return The time spent in imports, in milliseconds
+     */
+    long getElapsedMillis();
+
+    double getRowsPerSecond();
+
+    double getBytesPerSecond();
+
+    /**
+     * @return The time spent in each {@link ImportMetrics.Stage}, in milliseconds
+     */
+    Map<String, Long> getStageMillis();
+
+    /**
+     * @return Number of blocks of {@link ImportMetrics#BLOCK_ROWS} rows by latency bucket
+     */
+    long[] getBlockLatencyHistogram();
+
+    /**
+     * @return The latency, in microseconds, under which 50% of the blocks were processed
+     */
+    long getBlockLatencyMedian();
+
+    /**
+     * @return The latency, in microseconds, under which 99% of the blocks were processed
+     */
+    long getBlockLatency99thPercentile();
+
+    void reset();
+}
@@ -0,0 +1,98 @@
+package com.tibudget.plugins.csv;
+
+/**
+ * Bounded pool of labels used during an import, so that the labels repeated all along a bank export (direct
+ * debits, card payments at the same merchant) share a single {@link String}.
+ * <p>
+ * The chars of a label are hashed and compared where they were decoded, a string is created only when the label
+ * is not in the pool. The pool is a table of buckets of two slots, kept in least recently used order: a new label
+ * evicts the older label of its bucket, so the pool never holds more than its capacity, the labels that are not
+ * repeated are soon evicted and a label repeated all along the file stays. Labels longer than {@link #MAX_LENGTH}
+ * are not pooled.
+ * <p>
+ * It can be used by several threads without locking: slots hold immutable strings, a slot overwritten by another
+ * thread only costs a miss.
+ */
+final class LabelPool {
+
+    /**
+     * Number of slots of the pool used by the collector.
+     */
+    static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * Maximum length of a pooled label.
+     */
+    static final int MAX_LENGTH = 128;
+
+    private final String[] slots;
+
+    private final int mask;
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of 2 (at least 2)
+     */
+    LabelPool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Math.max(2, Integer.highestOneBit(capacity));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new String[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * @param chars Buffer holding the label
+     * @param from Index of the first char of the label
+     * @param to Index after the last char of the label
+     * @return The pooled label equal to the chars, or a new string if there is none
+     */
+    String intern(char[] chars, int from, int to) {
+        int length = to - from;
+        if (length > MAX_LENGTH) {
+            return new String(chars, from, length);
+        }
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        // First slot of the bucket holds the most recently used label
+        int slot = (hash ^ (hash >>> 16)) & mask & ~1;
+        String recent = slots[slot];
+        if (recent != null && equals(recent, chars, from, length)) {
+            return recent;
+        }
+        String older = slots[slot + 1];
+        if (older != null && equals(older, chars, from, length)) {
+            slots[slot + 1] = recent;
+            slots[slot] = older;
+            return older;
+        }
+        String label = new String(chars, from, length);
+        slots[slot + 1] = recent;
+        slots[slot] = label;
+        return label;
+    }
+
+    private static boolean equals(String pooled, char[] chars, int from, int length) {
+        if (pooled.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (pooled.charAt(i) != chars[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of slots
+     */
+    int capacity() {
+        return slots.length;
+    }
+}
@@ -0,0 +1,144 @@
+package com.tibudget.plugins.csv;
+
+import java.util.Arrays;
+
+/**
+ * Set of longs stored in an open addressing table with linear probing, 8 bytes per slot and no boxing.
+ * <p>
+ * The table is at most half full, so a set of n values takes between 16n and 32n bytes. It is not thread safe,
+ * but {@link #contains(long)} can be called by several threads once the set is no longer modified.
+ */
+final class LongHashSet {
+
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * 0 marks the free slots, it is stored aside.
+     */
+    private static final long FREE = 0L;
+
+    private long[] table;
+
+    private int size;
+
+    private boolean containsFree;
+
+    /**
+     * @param expectedSize Number of values the set can hold without growing
+     */
+    LongHashSet(int expectedSize) {
+        table = new long[capacityFor(expectedSize)];
+    }
+
+    /**
+     * @return true if the value was not in the set
+     */
+    boolean add(long value) {
+        if (value == FREE) {
+            if (containsFree) {
+                return false;
+            }
+            containsFree = true;
+            size++;
+            return true;
+        }
+        int mask = table.length - 1;
+        int slot = slot(value, mask);
+        while (table[slot] != FREE) {
+            if (table[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = value;
+        if (++size * 2 > table.length) {
+            grow();
+        }
+        return true;
+    }
+
+    boolean contains(long value) {
+        if (value == FREE) {
+            return containsFree;
+        }
+        int mask = table.length - 1;
+        int slot = slot(value, mask);
+        long current;
+        while ((current = table[slot]) != FREE) {
+            if (current == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The values of the set, in no particular order
+     */
+    long[] toArray() {
+        long[] values = new long[size];
+        int i = 0;
+        if (containsFree) {
+            values[i++] = FREE;
+        }
+        for (long value : table) {
+            if (value != FREE) {
+                values[i++] = value;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return The size of the table in bytes
+     */
+    long getMemorySize() {
+        return (long) table.length * Long.BYTES;
+    }
+
+    private void grow() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        int mask = table.length - 1;
+        for (long value : old) {
+            if (value != FREE) {
+                int slot = slot(value, mask);
+                while (table[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = value;
+            }
+        }
+    }
+
+    private static int slot(long value, int mask) {
+        // Values are usually hashes already, the high bits are folded for the ones that are not
+        return (int) (value ^ (value >>> 32)) * 0x9E3779B9 & mask;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Negative size: " + expectedSize);
+        }
+        long capacity = MIN_CAPACITY;
+        while (capacity < 2L * expectedSize) {
+            capacity *= 2;
+        }
+        if (capacity > 1 << 30) {
+            throw new IllegalArgumentException("Too many values: " + expectedSize);
+        }
+        return (int) capacity;
+    }
+
+    @Override
+    public String toString() {
+        long[] values = toArray();
+        Arrays.sort(values);
+        return Arrays.toString(values);
+    }
+}
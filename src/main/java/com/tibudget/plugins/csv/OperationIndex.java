@@ -0,0 +1,347 @@
+package com.tibudget.plugins.csv;
+
+import com.tibudget.dto.OperationDto;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * Index of operations already imported, used to skip the rows of a file that were imported before (bank exports
+ * of overlapping periods) before an operation is created for them.
+ * <p>
+ * Operations are identified by a 64-bit hash of their operation date, their exact amount in units of
+ * {@link AmountParser#MAX_SCALE} decimals and their label (trimmed, with spaces collapsed and in upper case). The
+ * index is a multiset: two identical operations (two card payments of the same amount at the same merchant on the
+ * same day) are both kept, the n-th occurrence of an operation under its own key (see
+ * {@link #occurrence(long, int)}), and a row of a file only matches an occurrence not matched yet by another row
+ * (see {@link Matcher}).
+ * <p>
+ * Up to {@link #EXACT_LIMIT} operations, hashes are kept in a {@link LongHashSet} (16 to 32 bytes per
+ * operation). Bigger histories use a {@link BloomFilter} with a {@link #FALSE_POSITIVE_RATE} probability to skip a
+ * new operation (about 2 bytes per operation, 10 million operations take 18 MB): skipped rows are counted by
+ * {@link CsvCollector#getDuplicateCount()} so they can be reviewed.
+ */
+public final class OperationIndex {
+
+    /**
+     * Maximum number of operations indexed exactly.
+     */
+    public static final int EXACT_LIMIT = 1 << 20;
+
+    /**
+     * Probability that a new operation is taken for an imported one, for indexes of more than {@link #EXACT_LIMIT}
+     * operations.
+     */
+    public static final double FALSE_POSITIVE_RATE = 0.001;
+
+    /**
+     * Start of the index files, the previous version (amounts in cents, no occurrences) started with 0x4F504958.
+     */
+    private static final int MAGIC = 0x4F504932;
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private LongHashSet exact;
+
+    private BloomFilter filter;
+
+    /**
+     * @param expectedSize Number of operations that will be added
+     */
+    public OperationIndex(long expectedSize) {
+        if (expectedSize <= EXACT_LIMIT) {
+            exact = new LongHashSet((int) Math.max(0, expectedSize));
+        }
+        else {
+            filter = new BloomFilter(expectedSize, FALSE_POSITIVE_RATE);
+        }
+    }
+
+    private OperationIndex(LongHashSet exact, BloomFilter filter) {
+        this.exact = exact;
+        this.filter = filter;
+    }
+
+    /**
+     * @param operations Operations already imported
+     * @return An index of the operations
+     */
+    public static OperationIndex of(Iterable<OperationDto> operations) {
+        OperationIndex index = new OperationIndex(operations instanceof Collection ? ((Collection<?>) operations).size() : 0);
+        for (OperationDto operation : operations) {
+            index.add(operation);
+        }
+        return index;
+    }
+
+    public void add(OperationDto operation) {
+        add(key(operation));
+    }
+
+    /**
+     * Adds an occurrence of an operation.
+     * @param key Key of an operation, see {@link #key(long, long, CharSequence)}
+     */
+    void add(long key) {
+        int n = 0;
+        while (containsKey(occurrence(key, n))) {
+            n++;
+        }
+        addKey(occurrence(key, n));
+    }
+
+    private void addKey(long key) {
+        if (exact != null) {
+            exact.add(key);
+            if (exact.size() > EXACT_LIMIT) {
+                // Keep memory bounded, room is left for as many operations again
+                BloomFilter bloom = new BloomFilter(2L * exact.size(), FALSE_POSITIVE_RATE);
+                for (long value : exact.toArray()) {
+                    bloom.add(value);
+                }
+                filter = bloom;
+                exact = null;
+            }
+        }
+        else {
+            filter.add(key);
+        }
+    }
+
+    public boolean contains(OperationDto operation) {
+        return contains(key(operation));
+    }
+
+    /**
+     * It can be called by several threads while the index is not modified.
+     * @param key Key of an operation, see {@link #key(long, long, CharSequence)}
+     * @return true if the operation was added (or, for a Bloom filter, probably added)
+     */
+    boolean contains(long key) {
+        return containsKey(occurrence(key, 0));
+    }
+
+    /**
+     * @param key Key of an operation, see {@link #key(long, long, CharSequence)}
+     * @return The number of times the operation was added (for a Bloom filter, probably added)
+     */
+    int count(long key) {
+        int n = 0;
+        while (containsKey(occurrence(key, n))) {
+            n++;
+        }
+        return n;
+    }
+
+    private boolean containsKey(long key) {
+        return exact != null ? exact.contains(key) : filter.mightContain(key);
+    }
+
+    /**
+     * @param key Key of an operation
+     * @param n Number of occurrences of the operation before this one
+     * @return The key of the n-th occurrence of an operation, the first one is the key itself
+     */
+    static long occurrence(long key, int n) {
+        return n == 0 ? key : mix(key + n * 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * @return A matcher of the rows of an import against this index
+     */
+    Matcher matcher() {
+        return new Matcher();
+    }
+
+    /**
+     * Matches the rows of an import, in file order, against the occurrences of the index: each occurrence is
+     * matched by one row only, so a file with two identical rows when the index has one skips only the first.
+     * The index must not be modified while it is used.
+     */
+    final class Matcher {
+
+        /**
+         * Occurrences matched by the rows so far.
+         */
+        private final LongHashSet matched = new LongHashSet(0);
+
+        /**
+         * @param key Key of the operation of a row
+         * @return true if an occurrence of the operation was not matched yet, it is matched by this row
+         */
+        boolean match(long key) {
+            for (int n = 0; ; n++) {
+                long occurrence = occurrence(key, n);
+                if (!containsKey(occurrence)) {
+                    return false;
+                }
+                if (matched.add(occurrence)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of added operations
+     */
+    public long size() {
+        return exact != null ? exact.size() : filter.size();
+    }
+
+    /**
+     * @return true if the operations are indexed exactly, false if the index is a Bloom filter
+     */
+    public boolean isExact() {
+        return exact != null;
+    }
+
+    /**
+     * @return The memory used by the index, in bytes
+     */
+    public long getMemorySize() {
+        return exact != null ? exact.getMemorySize() : filter.getMemorySize();
+    }
+
+    /**
+     * @return The key of an operation
+     */
+    static long key(OperationDto operation) {
+        Date date = operation.getDateOperation() != null ? operation.getDateOperation() : operation.getDateValue();
+        long epochDay = date == null ? 0 : date.toInstant().atZone(ZONE).toLocalDate().toEpochDay();
+        return key(epochDay, units(operation.getAmount()), operation.getLabel() == null ? "" : operation.getLabel());
+    }
+
+    /**
+     * @param epochDay Operation date
+     * @param units Amount in units of {@link AmountParser#MAX_SCALE} decimals, see {@link #units(long, int)}
+     * @param label Label, it is normalized without creating a string
+     * @return The key of an operation
+     */
+    static long key(long epochDay, long units, CharSequence label) {
+        long h = mix(epochDay * 0x9E3779B97F4A7C15L + units);
+        // FNV-1a on the normalized label
+        long labelHash = 0xCBF29CE484222325L;
+        int length = label.length();
+        int start = 0;
+        while (start < length && Character.isWhitespace(label.charAt(start))) {
+            start++;
+        }
+        boolean space = false;
+        for (int i = start; i < length; i++) {
+            char c = label.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space) {
+                labelHash = (labelHash ^ ' ') * 0x100000001B3L;
+                space = false;
+            }
+            labelHash = (labelHash ^ Character.toUpperCase(c)) * 0x100000001B3L;
+        }
+        return mix(h ^ labelHash);
+    }
+
+    /**
+     * @param amount An amount in minor units
+     * @param scale Number of decimals of the minor units
+     * @return The amount in units of {@link AmountParser#MAX_SCALE} decimals
+     */
+    static long units(long amount, int scale) {
+        return amount * AmountParser.POWERS_OF_TEN[AmountParser.MAX_SCALE - scale];
+    }
+
+    /**
+     * @param amount The amount of an operation, converted from minor units
+     * @return The amount in units of {@link AmountParser#MAX_SCALE} decimals, from its shortest decimal form so
+     * that it equals the minor units it was converted from
+     */
+    static long units(double amount) {
+        return BigDecimal.valueOf(amount).setScale(AmountParser.MAX_SCALE, RoundingMode.HALF_EVEN).unscaledValue().longValue();
+    }
+
+    /**
+     * Finalizer of MurmurHash3, so that close inputs give unrelated keys.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @param file A file written by {@link #store(File)}
+     * @return The index stored in the file
+     */
+    public static OperationIndex load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an operation index, or written by a previous version: " + file);
+            }
+            if (in.readBoolean()) {
+                int size = in.readInt();
+                LongHashSet exact = new LongHashSet(size);
+                for (int i = 0; i < size; i++) {
+                    exact.add(in.readLong());
+                }
+                return new OperationIndex(exact, null);
+            }
+            int hashCount = in.readInt();
+            long size = in.readLong();
+            long[] words = new long[in.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readLong();
+            }
+            return new OperationIndex(null, new BloomFilter(words, hashCount, size));
+        }
+    }
+
+    /**
+     * Writes the index in a file, the file is replaced atomically.
+     */
+    public void store(File file) throws IOException {
+        Path target = file.toPath();
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), file.getName(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeBoolean(exact != null);
+                if (exact != null) {
+                    long[] values = exact.toArray();
+                    out.writeInt(values.length);
+                    for (long value : values) {
+                        out.writeLong(value);
+                    }
+                }
+                else {
+                    out.writeInt(filter.getHashCount());
+                    out.writeLong(filter.size());
+                    long[] words = filter.getWords();
+                    out.writeInt(words.length);
+                    for (long word : words) {
+                        out.writeLong(word);
+                    }
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
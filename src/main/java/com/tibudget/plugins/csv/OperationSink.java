@@ -0,0 +1,20 @@
+package com.tibudget.plugins.csv;
+
+import com.tibudget.dto.OperationDto;
+
+import java.util.List;
+
+/**
+ * Receives the operations imported by {@link CsvCollector} by batches, while the file is still parsed, so the
+ * host can persist them without keeping the whole file in memory.
+ */
+@FunctionalInterface
+public interface OperationSink {
+
+    /**
+     * Called each time a batch of operations has been parsed (and once at the end for the remaining ones).
+     * @param operations The operations, in file order. The list is reused for the next batch so it must be
+     *                   copied if it has to be kept after the call.
+     */
+    void accept(List<OperationDto> operations);
+}
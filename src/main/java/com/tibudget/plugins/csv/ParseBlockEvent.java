@@ -0,0 +1,35 @@
+package com.tibudget.plugins.csv;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of a block of {@link ImportMetrics#BLOCK_ROWS} rows parsed by a thread (and emitted, when
+ * the file is parsed by a single thread). The last block of a file or of a chunk can be smaller.
+ */
+@Name("com.tibudget.plugins.csv.ParseBlock")
+@Label("CSV Parse Block")
+@Category({ "Tibudget", "CSV Import" })
+@Description("Rows of a CSV file parsed by a thread")
+@StackTrace(false)
+final class ParseBlockEvent extends Event {
+
+    @Label("File")
+    String file;
+
+    @Label("Offset")
+    @Description("Offset of the first row of the block in the file")
+    long offset;
+
+    @Label("Size")
+    @DataAmount(DataAmount.BYTES)
+    long bytes;
+
+    @Label("Rows")
+    long rows;
+}
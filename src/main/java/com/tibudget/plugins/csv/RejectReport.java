@@ -0,0 +1,91 @@
+package com.tibudget.plugins.csv;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rows rejected by an import. All rejected rows are counted but only the last ones are kept, in a ring buffer,
+ * so a file full of errors does not fill the memory.
+ */
+public final class RejectReport {
+
+    private final RejectedRow[] rows;
+
+    private long rejectedCount;
+
+    private long rowCount;
+
+    /**
+     * @param capacity Number of rejected rows kept
+     */
+    RejectReport(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity cannot be negative: " + capacity);
+        }
+        this.rows = new RejectedRow[capacity];
+    }
+
+    void add(RejectedRow row) {
+        if (rows.length > 0) {
+            rows[(int) (rejectedCount % rows.length)] = row;
+        }
+        rejectedCount++;
+    }
+
+    void setRowCount(long rowCount) {
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * @return The number of rejected rows, including the ones that are no longer kept
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return The number of rows read by the import (empty rows are not counted), rejected or not
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return The part of the rows that were rejected, between 0 and 1
+     */
+    public double getRejectedRatio() {
+        return rowCount == 0 ? 0.0 : rejectedCount / (double) rowCount;
+    }
+
+    /**
+     * @return The last rejected rows, in file order
+     */
+    public List<RejectedRow> getRejectedRows() {
+        int kept = (int) Math.min(rejectedCount, rows.length);
+        List<RejectedRow> result = new ArrayList<>(kept);
+        for (long i = rejectedCount - kept; i < rejectedCount; i++) {
+            result.add(rows[(int) (i % rows.length)]);
+        }
+        return result;
+    }
+
+    /**
+     * @return True if rejected rows were dropped from the report
+     */
+    public boolean isTruncated() {
+        return rejectedCount > rows.length;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(rejectedCount).append(" rejected rows out of ").append(rowCount);
+        if (isTruncated()) {
+            report.append(", last ").append(rows.length).append(':');
+        }
+        for (RejectedRow row : getRejectedRows()) {
+            report.append(System.lineSeparator()).append(row);
+        }
+        return report.toString();
+    }
+}
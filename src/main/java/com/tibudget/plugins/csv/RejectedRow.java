@@ -0,0 +1,70 @@
+package com.tibudget.plugins.csv;
+
+import com.tibudget.api.exceptions.MessagesException;
+
+import java.nio.charset.Charset;
+
+/**
+ * Row of a file that could not be imported. Its bytes are kept as they are in the file and decoded only when
+ * {@link #getLine()} is called.
+ */
+public final class RejectedRow {
+
+    private final long lineNumber;
+
+    private final long offset;
+
+    private final byte[] bytes;
+
+    private final Charset charset;
+
+    private final MessagesException reason;
+
+    private String line;
+
+    /**
+     * @param lineNumber Number of the row in the file, starting at 1
+     * @param offset Offset of the row in the file
+     * @param bytes Bytes of the row
+     * @param charset Charset of the file
+     * @param reason Why the row was rejected
+     */
+    RejectedRow(long lineNumber, long offset, byte[] bytes, Charset charset, MessagesException reason) {
+        this.lineNumber = lineNumber;
+        this.offset = offset;
+        this.bytes = bytes;
+        this.charset = charset;
+        this.reason = reason;
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public MessagesException getReason() {
+        return reason;
+    }
+
+    /**
+     * @return The row as it is in the file, without its line break
+     */
+    public String getLine() {
+        if (line == null) {
+            int length = bytes.length;
+            while (length > 0 && (bytes[length - 1] == '\n' || bytes[length - 1] == '\r')) {
+                length--;
+            }
+            line = new String(bytes, 0, length, charset);
+        }
+        return line;
+    }
+
+    @Override
+    public String toString() {
+        return "Line #" + lineNumber + " at offset " + offset + ": " + reason.getMessage() + " (" + getLine() + ")";
+    }
+}
@@ -0,0 +1,34 @@
+package com.tibudget.plugins.csv;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event of a row that took more than the threshold of the event to be read and converted (and
+ * emitted, when the file is parsed by a single thread). Rows are timed only while the event is enabled.
+ */
+@Name("com.tibudget.plugins.csv.SlowRow")
+@Label("CSV Slow Row")
+@Category({ "Tibudget", "CSV Import" })
+@Description("Row of a CSV file slow to import")
+@Threshold("1 ms")
+@StackTrace(false)
+final class SlowRowEvent extends Event {
+
+    @Label("File")
+    String file;
+
+    @Label("Offset")
+    @Description("Offset of the row in the file")
+    long offset;
+
+    @Label("Size")
+    @DataAmount(DataAmount.BYTES)
+    long bytes;
+}
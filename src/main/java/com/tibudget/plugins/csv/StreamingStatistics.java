@@ -0,0 +1,78 @@
+package com.tibudget.plugins.csv;
+
+/**
+ * Statistics of a stream of values computed in constant memory: values are not stored, the mean and the
+ * variance are updated with Welford's algorithm.
+ * <p>
+ * Results follow the conventions of commons-math <code>DescriptiveStatistics</code>: the variance is the sample
+ * variance (0 for a single value) and all statistics except {@link #getN()} are NaN when no value was added.
+ */
+class StreamingStatistics {
+
+    private long n;
+
+    private double mean;
+
+    /**
+     * Sum of the squared differences from the mean.
+     */
+    private double m2;
+
+    private double sum;
+
+    private double min = Double.NaN;
+
+    private double max = Double.NaN;
+
+    public void addValue(double value) {
+        n++;
+        double delta = value - mean;
+        mean += delta / n;
+        m2 += delta * (value - mean);
+        sum += value;
+        if (n == 1) {
+            min = value;
+            max = value;
+        }
+        else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+    }
+
+    public long getN() {
+        return n;
+    }
+
+    public double getSum() {
+        return n > 0 ? sum : Double.NaN;
+    }
+
+    public double getMean() {
+        return n > 0 ? mean : Double.NaN;
+    }
+
+    public double getVariance() {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        return n == 1 ? 0.0 : m2 / (n - 1);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + n + " mean=" + getMean() + " deviation=" + getStandardDeviation() + " min=" + min + " max=" + max;
+    }
+}
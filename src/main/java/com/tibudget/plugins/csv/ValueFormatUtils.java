@@ -2,70 +2,339 @@ package com.tibudget.plugins.csv;
 
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
-import java.text.ParsePosition;
 import java.util.*;
 
 public class ValueFormatUtils {
 
-    public static Set<DecimalFormat> determineValueFormat(Iterable<String> valuesString) {
+    /**
+     * Kind of number found by {@link #classify(CharSequence)}.
+     */
+    public enum ValueType {
+        /** A number with a dot as decimal separator (or a comma as grouping separator) */
+        DOT_DECIMAL,
+        /** A number with a comma as decimal separator (or a dot as grouping separator) */
+        COMMA_DECIMAL,
+        /** A number that can be read with both separators, like <code>12</code> or <code>1,234</code> */
+        AMBIGUOUS,
+        /** Not a monetary value */
+        NOT_A_NUMBER
+    }
+
+    /**
+     * Grouping separator found by {@link #classify(CharSequence)}.
+     */
+    public enum Grouping {
+        NONE, DOT, COMMA, SPACE, APOSTROPHE
+    }
+
+    /**
+     * Result of {@link #classify(CharSequence)}, instances are shared.
+     */
+    public static final class Classification {
 
-        List<DecimalFormat> NUMBER_FORMATS = new ArrayList<DecimalFormat>();
-        {
-            DecimalFormatSymbols symb = new DecimalFormatSymbols(Locale.US);
-            symb.setDecimalSeparator('.');
-            NUMBER_FORMATS.add(new DecimalFormat("#.#", symb));
+        private static final Classification[] ALL = new Classification[ValueType.values().length * Grouping.values().length];
+        static {
+            for (ValueType type : ValueType.values()) {
+                for (Grouping grouping : Grouping.values()) {
+                    ALL[type.ordinal() * Grouping.values().length + grouping.ordinal()] = new Classification(type, grouping);
+                }
+            }
+        }
+
+        static final Classification NOT_A_NUMBER = of(ValueType.NOT_A_NUMBER, Grouping.NONE);
+
+        private final ValueType type;
+        private final Grouping grouping;
+
+        private Classification(ValueType type, Grouping grouping) {
+            this.type = type;
+            this.grouping = grouping;
         }
-        {
-            DecimalFormatSymbols symb = new DecimalFormatSymbols(Locale.US);
-            symb.setDecimalSeparator(',');
-            NUMBER_FORMATS.add(new DecimalFormat("#.#", symb));
+
+        static Classification of(ValueType type, Grouping grouping) {
+            return ALL[type.ordinal() * Grouping.values().length + grouping.ordinal()];
+        }
+
+        public ValueType getType() {
+            return type;
+        }
+
+        public Grouping getGrouping() {
+            return grouping;
         }
 
-        Set<DecimalFormat> acceptFormats = new HashSet<DecimalFormat>();
-        Set<DecimalFormat> rejectFormats = new HashSet<DecimalFormat>();
-        ParsePosition pp = new ParsePosition(0);
+        @Override
+        public String toString() {
+            return type + "/" + grouping;
+        }
+    }
+
+    // Char classes of the scanner
+    private static final int DIGIT = 0;
+    private static final int DOT = 1;
+    private static final int COMMA = 2;
+    private static final int SPACE = 3;
+    private static final int APOSTROPHE = 4;
+    private static final int SIGN = 5;
+    private static final int CURRENCY = 6;
+    private static final int OTHER = 7;
+
+    // States of the scanner
+    private static final int PREFIX = 0;
+    private static final int NUMBER = 1;
+    private static final int SUFFIX = 2;
+
+    /**
+     * Return the formats that can parse all the values, values that do not look like a monetary value are
+     * ignored. The format with a dot is first when both are possible.
+     * @param valuesString List of values
+     * @return A set of accepted formats (<code>#.#</code> with a dot or a comma as decimal separator)
+     */
+    public static Set<DecimalFormat> determineValueFormat(Iterable<String> valuesString) {
+        return determineValueFormat(valuesString, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #determineValueFormat(Iterable)} but the scan stops when a single format remains and
+     * <code>minEvidence</code> values were read since.
+     * @param valuesString List of values, read only until the format is known
+     * @param minEvidence Number of values the last remaining format must parse
+     * @return A set of accepted formats (<code>#.#</code> with a dot or a comma as decimal separator)
+     */
+    public static Set<DecimalFormat> determineValueFormat(Iterable<String> valuesString, int minEvidence) {
+        boolean dot = true;
+        boolean comma = true;
+        boolean found = false;
+        int evidence = 0;
         for (String valueString : valuesString) {
-            // Ignore empty strings or strings without any number
-            if (valueString == null || doesNotLookLikeAValue(valueString)) {
+            if (valueString == null) {
                 continue;
             }
-            for (DecimalFormat format : NUMBER_FORMATS) {
-                pp.setErrorIndex(-1); pp.setIndex(0);
-                Number value = format.parse(valueString, pp);
-                if (valueString.length() != pp.getIndex() || value == null) {
-                    // Error parsing (add to rejected and remove from accepted)
-                    rejectFormats.add(format);
-                    acceptFormats.remove(format);
-                }
-                else {
-                    if (!rejectFormats.contains(format)) {
-                        // Add to accepted only if not already rejected
-                        acceptFormats.add(format);
-                    }
-                }
+            switch (classify(valueString).getType()) {
+                case DOT_DECIMAL:
+                    comma = false;
+                    break;
+                case COMMA_DECIMAL:
+                    dot = false;
+                    break;
+                case NOT_A_NUMBER:
+                    // Ignore empty strings or strings without any number
+                    continue;
+                default:
+                    break;
+            }
+            found = true;
+            if (!dot && !comma) {
+                break;
             }
+            if (dot != comma && ++evidence >= minEvidence) {
+                break;
+            }
+        }
+
+        Set<DecimalFormat> acceptFormats = new LinkedHashSet<DecimalFormat>();
+        if (found && dot) {
+            acceptFormats.add(newDecimalFormat('.'));
+        }
+        if (found && comma) {
+            acceptFormats.add(newDecimalFormat(','));
         }
         return acceptFormats;
     }
 
+    private static DecimalFormat newDecimalFormat(char decimalSeparator) {
+        DecimalFormatSymbols symb = new DecimalFormatSymbols(Locale.US);
+        symb.setDecimalSeparator(decimalSeparator);
+        return new DecimalFormat("#.#", symb);
+    }
+
+    /**
+     * Classifies a value in a single pass over its chars.
+     * <p>
+     * A value is an optional sign and currency symbol (in any order, with spaces), digits with separators and
+     * an optional currency symbol. When a dot and a comma are used, the last one is the decimal separator. A
+     * separator used several times, or followed by a number of digits different from 3, is a grouping
+     * separator. Groups must have 3 digits, except the first one which has 1 to 3 digits.
+     * @param value the input string
+     * @return the classification, never null
+     */
+    public static Classification classify(CharSequence value) {
+        if (value == null) {
+            return Classification.NOT_A_NUMBER;
+        }
+        int state = PREFIX;
+        boolean sign = false;
+        boolean currency = false;
+        int digits = 0;
+        // Length of the current run of digits and of the first one
+        int run = 0;
+        int firstRun = -1;
+        // Separators seen so far, as char classes
+        int lastSeparator = -1;
+        int separatorCount = 0;
+        int dotCount = 0;
+        int commaCount = 0;
+        int otherGrouping = -1;
+        // True if all runs after a separator (except the last one) have 3 digits
+        boolean groupsOk = true;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            int cls = charClass(c);
+            switch (state) {
+                case PREFIX:
+                    if (cls == DIGIT) {
+                        state = NUMBER;
+                        digits++;
+                        run = 1;
+                    }
+                    else if (cls == SIGN && !sign) {
+                        sign = true;
+                    }
+                    else if (cls == CURRENCY && !currency) {
+                        currency = true;
+                    }
+                    else if (cls != SPACE) {
+                        return Classification.NOT_A_NUMBER;
+                    }
+                    break;
+                case NUMBER:
+                    if (cls == DIGIT) {
+                        digits++;
+                        run++;
+                    }
+                    else if ((cls == DOT || cls == COMMA || cls == SPACE || cls == APOSTROPHE)
+                            && i + 1 < length && charClass(value.charAt(i + 1)) == DIGIT) {
+                        if (firstRun < 0) {
+                            firstRun = run;
+                        }
+                        else if (run != 3) {
+                            groupsOk = false;
+                        }
+                        if (cls == DOT) {
+                            dotCount++;
+                        }
+                        else if (cls == COMMA) {
+                            commaCount++;
+                        }
+                        else if (otherGrouping < 0 || otherGrouping == cls) {
+                            otherGrouping = cls;
+                        }
+                        else {
+                            return Classification.NOT_A_NUMBER;
+                        }
+                        lastSeparator = cls;
+                        separatorCount++;
+                        run = 0;
+                    }
+                    else if (cls == SPACE || (cls == CURRENCY && !currency)) {
+                        state = SUFFIX;
+                        currency |= cls == CURRENCY;
+                    }
+                    else {
+                        return Classification.NOT_A_NUMBER;
+                    }
+                    break;
+                default:
+                    if (cls == CURRENCY && !currency) {
+                        currency = true;
+                    }
+                    else if (cls != SPACE) {
+                        return Classification.NOT_A_NUMBER;
+                    }
+                    break;
+            }
+        }
+        if (digits == 0) {
+            return Classification.NOT_A_NUMBER;
+        }
+        if (separatorCount == 0) {
+            return Classification.of(ValueType.AMBIGUOUS, Grouping.NONE);
+        }
+        Grouping other = otherGrouping == SPACE ? Grouping.SPACE : otherGrouping == APOSTROPHE ? Grouping.APOSTROPHE : null;
+        // The last separator is the decimal one if it is a dot or a comma used once
+        boolean lastIsDecimal = (lastSeparator == DOT && dotCount == 1) || (lastSeparator == COMMA && commaCount == 1);
+        int groupCount = separatorCount - (lastIsDecimal ? 1 : 0);
+        if (groupCount > 0 && (firstRun > 3 || !groupsOk)) {
+            return Classification.NOT_A_NUMBER;
+        }
+        if (!lastIsDecimal) {
+            // Only grouping separators: an integer
+            if (run != 3 || firstRun > 3 || (dotCount > 0 && commaCount > 0)) {
+                return Classification.NOT_A_NUMBER;
+            }
+            if (dotCount > 0) {
+                return Classification.of(ValueType.COMMA_DECIMAL, Grouping.DOT);
+            }
+            if (commaCount > 0) {
+                return Classification.of(ValueType.DOT_DECIMAL, Grouping.COMMA);
+            }
+            return Classification.of(ValueType.AMBIGUOUS, other);
+        }
+        boolean decimalIsDot = lastSeparator == DOT;
+        // Grouping separator used before the decimal separator
+        Grouping grouping;
+        if (decimalIsDot ? commaCount > 0 : dotCount > 0) {
+            if (other != null) {
+                return Classification.NOT_A_NUMBER;
+            }
+            grouping = decimalIsDot ? Grouping.COMMA : Grouping.DOT;
+        }
+        else {
+            grouping = other != null ? other : Grouping.NONE;
+        }
+        if (grouping == Grouping.NONE && run == 3 && firstRun <= 3) {
+            // "1,234" is either 1234 or 1.234
+            return Classification.of(ValueType.AMBIGUOUS, Grouping.NONE);
+        }
+        return Classification.of(decimalIsDot ? ValueType.DOT_DECIMAL : ValueType.COMMA_DECIMAL, grouping);
+    }
+
+    private static int charClass(char c) {
+        if (c >= '0' && c <= '9') {
+            return DIGIT;
+        }
+        switch (c) {
+            case '.':
+                return DOT;
+            case ',':
+                return COMMA;
+            case ' ':
+            case '\t':
+            case '\u00A0':
+            case '\u202F':
+                return SPACE;
+            case '\'':
+                return APOSTROPHE;
+            case '-':
+            case '+':
+                return SIGN;
+            default:
+                return c >= 0x80 && Character.getType(c) == Character.CURRENCY_SYMBOL || c == '$' ? CURRENCY : OTHER;
+        }
+    }
+
+    /**
+     * Counts the decimals of a value.
+     * @param val the input string
+     * @param decimalSeparator the decimal separator of the value
+     * @return the number of digits after the decimal separator
+     */
+    public static int countDecimals(String val, char decimalSeparator) {
+        int index = val.lastIndexOf(decimalSeparator);
+        int count = 0;
+        while (index >= 0 && index + 1 + count < val.length() && Character.isDigit(val.charAt(index + 1 + count))) {
+            count++;
+        }
+        return count;
+    }
+
     /**
      * Checks if a string does not look like a monetary value.
      * @param val the input string
      * @return true if the string does not look like a monetary value, false otherwise
      */
     public static boolean doesNotLookLikeAValue(String val) {
-        if (val == null || val.trim().isEmpty()) {
-            return true; // Null or empty strings do not look like monetary values
-        }
-
-        // Updated regex to handle more generic monetary values:
-        // - Optional sign (- or +) at the beginning
-        // - Digits with or without separators (., space)
-        // - Optional decimal part (, or .) followed by 1-2 digits
-        // - May include currency symbols at the start or end
-        String genericValueRegex =
-                "^[\\s]*[-+]?[^a-zA-Z0-9]*([0-9]{1,3}([.,\\s][0-9]{3})*|[0-9]+)([.,][0-9]{1,2})?[^a-zA-Z0-9]*[\\s]*$";
-
-        return !val.matches(genericValueRegex);
+        return classify(val).getType() == ValueType.NOT_A_NUMBER;
     }
 }
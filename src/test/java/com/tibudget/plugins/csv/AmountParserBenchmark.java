@@ -0,0 +1,61 @@
+package com.tibudget.plugins.csv;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.text.ParsePosition;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Amount parsing with a {@link DecimalFormat} built for each cell (former implementation) and with the
+ * {@link AmountParser}. Run it with <code>mvn test -Pbenchmark</code>.
+ */
+@Tag("benchmark")
+public class AmountParserBenchmark {
+
+    private static final int VALUES = 100_000;
+
+    private static final int RUNS = 10;
+
+    @Test
+    public void benchmarkParsers() {
+        Random random = new Random(1);
+        String[] values = new String[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            values[i] = String.format(Locale.FRANCE, "%.2f", (random.nextInt(2_000_000) - 1_000_000) / 100.0);
+        }
+
+        double sink = 0;
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (String value : values) {
+                DecimalFormatSymbols symb = new DecimalFormatSymbols(Locale.US);
+                symb.setDecimalSeparator(',');
+                NumberFormat numberFormat = new DecimalFormat("#.#", symb);
+                ParsePosition pp = new ParsePosition(0);
+                sink += numberFormat.parse(value, pp).doubleValue();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double decimalFormatTime = best / (double) VALUES;
+        System.out.printf("DecimalFormat per cell: %8.1f ns/value%n", decimalFormatTime);
+
+        AmountParser parser = AmountParser.compile("#.#", ',', 2);
+        best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (String value : values) {
+                sink += parser.parse(value);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double amountParserTime = best / (double) VALUES;
+        System.out.printf("AmountParser:           %8.1f ns/value, %.1fx faster (%s)%n",
+                amountParserTime, decimalFormatTime / amountParserTime, sink != 0 ? "ok" : "");
+    }
+}
@@ -0,0 +1,98 @@
+package com.tibudget.plugins.csv;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AmountParserTest {
+
+    @Test
+    void testSimpleFormatsAreScanned() {
+        assertTrue(AmountParser.compile("#.#", ',', 2) instanceof AmountParser.ScanningAmountParser);
+        assertTrue(AmountParser.compile("#,##0.00", '.', 2) instanceof AmountParser.ScanningAmountParser);
+        assertTrue(AmountParser.compile(null, ',', 2) instanceof AmountParser.ScanningAmountParser);
+        assertTrue(AmountParser.compile("#.#%", '.', 2) instanceof AmountParser.DecimalFormatAmountParser);
+    }
+
+    @Test
+    void testDotSeparator() {
+        AmountParser parser = AmountParser.compile("#.#", '.', 2);
+        assertEquals(-10110, parser.parse("-101.1"));
+        assertEquals(-10110, parser.parse("-101.1  "));
+        assertEquals(10220, parser.parse("102.2"));
+        assertEquals(1250, parser.parse("+12.5"));
+        assertEquals(-50, parser.parse("-.5"));
+        assertEquals(1200, parser.parse("12."));
+        assertEquals(0, parser.parse("-0"));
+        assertEquals(123456789, parser.parse("1,234,567.89"));
+        assertEquals(123456789, parser.parse("1 234 567.89"));
+        assertEquals(123456789, parser.parse("1 234 567.89"));
+        assertEquals(123456789, parser.parse("1'234'567.89"));
+        assertEquals(1200, parser.parse("$12"));
+        assertEquals(-1200, parser.parse("-$12.00"));
+        assertEquals(-1200, parser.parse("$ -12"));
+        assertEquals(1200, parser.parse("12.000 €"));
+    }
+
+    @Test
+    void testCommaSeparator() {
+        AmountParser parser = AmountParser.compile("#.#", ',', 2);
+        assertEquals(-7491, parser.parse("-74,91"));
+        assertEquals(1360, parser.parse("13,60"));
+        assertEquals(123456, parser.parse("1.234,56"));
+        assertEquals(123456, parser.parse("1 234,56"));
+        assertEquals(123456, parser.parse("€1 234,56"));
+        assertEquals(-123456, parser.parse("-1.234,56 €"));
+    }
+
+    @Test
+    void testInvalid() {
+        AmountParser parser = AmountParser.compile("#.#", '.', 2);
+        String[] invalids = new String[] {
+                "", " ", "-", "abc", "12a", "1.2.3", "1,5", "1,2345", "1234,567", "1,234 567", "--12",
+                "$12$", "1e3", "12 3", "12-", "99999999999999999999"
+        };
+        for (String invalid : invalids) {
+            assertEquals(AmountParser.INVALID, parser.parse(invalid), invalid);
+        }
+        assertEquals(AmountParser.INVALID, parser.parse("1.2.3"));
+        assertEquals("1.2", parser.getParsedPrefix("1.2.3"));
+        // Extra decimals are accepted if they are zeros
+        assertEquals(1234, parser.parse("12.3400"));
+        assertEquals(0, parser.getRoundedCount());
+    }
+
+    @Test
+    void testRounding() {
+        AmountParser parser = AmountParser.compile("#.#", '.', 2);
+        assertEquals(1234, parser.parse("12.345"));
+        assertEquals(1236, parser.parse("12.355"));
+        assertEquals(1235, parser.parse("12.3450001"));
+        assertEquals(-100, parser.parse("-1.005"));
+        assertEquals(-102, parser.parse("-1.015"));
+        assertEquals(-1235, parser.parse("-12.349"));
+        assertEquals(0, parser.parse("0.004"));
+        assertEquals(7, parser.getRoundedCount());
+        assertEquals(AmountParser.INVALID, parser.parse("92233720368547758.075"));
+    }
+
+    @Test
+    void testDecimalFormatFallback() {
+        AmountParser parser = AmountParser.compile("#.#%", ',', 4);
+        assertEquals(1250, parser.parse("12,5%"));
+        assertEquals(AmountParser.INVALID, parser.parse("12,5"));
+        assertEquals(0, parser.parse("0,000001%"));
+        assertEquals(1, parser.getRoundedCount());
+    }
+
+    @Test
+    void testToDouble() {
+        AmountParser parser = AmountParser.compile("#.#", ',', 2);
+        String[] values = new String[] { "0,1", "-74,91", "3201,17", "1,005", "123456789,99" };
+        for (String value : values) {
+            AmountParser exact = AmountParser.compile("#.#", ',', AmountParser.MAX_SCALE);
+            assertEquals(Double.parseDouble(value.replace(',', '.')), exact.toDouble(exact.parse(value)), value);
+        }
+        assertEquals(-74.91, parser.toDouble(parser.parse("-74,91")));
+    }
+}
@@ -0,0 +1,132 @@
+package com.tibudget.plugins.csv;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * File generated by {@link CsvGenerator} for the JMH benchmarks, shared by all the threads of a trial. The same
+ * parameters always give the same file. Run the benchmarks with
+ * <code>mvn -Pjmh test-compile exec:java</code> (add <code>-Dexec.args="CollectJmh -p rows=10000000"</code> to
+ * select benchmarks and parameters).
+ */
+@State(Scope.Benchmark)
+public class BankFileJmh {
+
+    /**
+     * Dialects of the generated files.
+     */
+    public enum Dialect {
+        /**
+         * Comma separator, quoted amounts, UTF-8.
+         */
+        COMMA(',', true, StandardCharsets.UTF_8),
+        /**
+         * Semicolon separator, quoted amounts, ISO-8859-1 labels.
+         */
+        SEMICOLON(';', true, StandardCharsets.ISO_8859_1),
+        /**
+         * Tab separator, unquoted amounts, ISO-8859-1 labels.
+         */
+        TAB('\t', false, StandardCharsets.ISO_8859_1);
+
+        final char separator;
+
+        final boolean quoteAmounts;
+
+        final Charset charset;
+
+        Dialect(char separator, boolean quoteAmounts, Charset charset) {
+            this.separator = separator;
+            this.quoteAmounts = quoteAmounts;
+            this.charset = charset;
+        }
+    }
+
+    @Param({ "COMMA", "SEMICOLON", "TAB" })
+    public Dialect dialect;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int rows;
+
+    public File file;
+
+    public long bytes;
+
+    /**
+     * Dates of the first column, in file order.
+     */
+    public List<String> dates;
+
+    /**
+     * Debit and credit amounts, empty cells are skipped.
+     */
+    public List<String> amounts;
+
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        directory = Files.createTempDirectory("csv-jmh");
+        Path csv = new CsvGenerator(rows)
+                .separator(dialect.separator)
+                .quoteAmounts(dialect.quoteAmounts)
+                .accentedLabels(true)
+                .charset(dialect.charset)
+                .write(directory.resolve(dialect.name().toLowerCase() + "-" + rows + ".csv"), rows);
+        file = csv.toFile();
+        bytes = Files.size(csv);
+        dates = new ArrayList<>(rows);
+        amounts = new ArrayList<>(rows);
+        try (CsvTokenizer tokenizer = new CsvTokenizer(file, dialect.separator, dialect.charset)) {
+            // Header
+            tokenizer.next();
+            CsvRow row = tokenizer.row();
+            while (tokenizer.next()) {
+                dates.add(row.fieldAsString(0));
+                for (int i = 3; i < row.fieldCount(); i++) {
+                    if (row.field(i).length() > 0) {
+                        amounts.add(row.fieldAsString(i));
+                    }
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Rows and bytes read by a benchmark, JMH reports them per second next to the time of each call.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+
+        public long rows;
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rows = 0;
+            bytes = 0;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.tibudget.plugins.csv;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CharsetDetectorTest {
+
+    @Test
+    void testDetect() {
+        assertEquals(StandardCharsets.UTF_8, detect("Date,Libelle,Montant\n", true).getCharset());
+        assertEquals(StandardCharsets.UTF_8, detect("Libellé,Débit\n", true).getCharset());
+        assertEquals(0, detect("Libellé,Débit\n", true).getBomLength());
+        assertEquals(CharsetDetector.WINDOWS_1252,
+                CharsetDetector.detect(ByteBuffer.wrap("Libellé,Débit 12€\n".getBytes(CharsetDetector.WINDOWS_1252)), true).getCharset());
+        // 0x81 is not defined in windows-1252
+        assertEquals(StandardCharsets.ISO_8859_1,
+                CharsetDetector.detect(ByteBuffer.wrap(new byte[] { 'a', (byte) 0xE9, (byte) 0x81 }), true).getCharset());
+
+        CharsetDetector.Detection bom = CharsetDetector.detect(ByteBuffer.wrap(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF, 'a' }), true);
+        assertEquals(StandardCharsets.UTF_8, bom.getCharset());
+        assertEquals(3, bom.getBomLength());
+    }
+
+    @Test
+    void testIsUtf8() {
+        assertTrue(isUtf8(new byte[] { 'a', (byte) 0xC3, (byte) 0xA9 }, true));
+        assertTrue(isUtf8("€ 💶".getBytes(StandardCharsets.UTF_8), true));
+        // Truncated sequence: valid only if the bytes are a prefix of the file
+        assertFalse(isUtf8(new byte[] { 'a', (byte) 0xE2, (byte) 0x82 }, true));
+        assertTrue(isUtf8(new byte[] { 'a', (byte) 0xE2, (byte) 0x82 }, false));
+        assertFalse(isUtf8(new byte[] { 'a', (byte) 0xE2, 'b' }, false));
+        // Overlong encoding of '/', surrogate and code point above U+10FFFF
+        assertFalse(isUtf8(new byte[] { (byte) 0xC0, (byte) 0xAF }, true));
+        assertFalse(isUtf8(new byte[] { (byte) 0xE0, (byte) 0x80, (byte) 0xAF }, true));
+        assertFalse(isUtf8(new byte[] { (byte) 0xED, (byte) 0xA0, (byte) 0x80 }, true));
+        assertFalse(isUtf8(new byte[] { (byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80 }, true));
+        // Latin-1 "é" followed by ASCII
+        assertFalse(isUtf8(new byte[] { (byte) 0xE9, 't', (byte) 0xE9 }, true));
+    }
+
+    @Test
+    void testIsAsciiCompatible() {
+        assertTrue(CharsetDetector.isAsciiCompatible(StandardCharsets.UTF_8));
+        assertTrue(CharsetDetector.isAsciiCompatible(StandardCharsets.ISO_8859_1));
+        assertTrue(CharsetDetector.isAsciiCompatible(CharsetDetector.WINDOWS_1252));
+        assertFalse(CharsetDetector.isAsciiCompatible(StandardCharsets.UTF_16LE));
+    }
+
+    private static CharsetDetector.Detection detect(String content, boolean complete) {
+        return CharsetDetector.detect(ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8)), complete);
+    }
+
+    private static boolean isUtf8(byte[] bytes, boolean complete) {
+        return CharsetDetector.isUtf8(ByteBuffer.wrap(bytes), 0, bytes.length, complete);
+    }
+}
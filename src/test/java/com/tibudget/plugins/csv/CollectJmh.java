@@ -0,0 +1,49 @@
+package com.tibudget.plugins.csv;
+
+import com.tibudget.api.exceptions.CollectError;
+import com.tibudget.api.exceptions.ParameterError;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole import of a generated file in auto mode, operations are dropped once sent. The rows and bytes counters
+ * give the throughput in rows/s and bytes/s.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CollectJmh {
+
+    /**
+     * Number of threads parsing the file, 0 for the number of cores.
+     */
+    @Param({ "1", "0" })
+    public int parallelism;
+
+    @Benchmark
+    public long collect(BankFileJmh file, BankFileJmh.Counters counters) throws CollectError, ParameterError {
+        CsvCollector collector = new CsvCollector(file.file);
+        collector.setFormatCache(null);
+        collector.setParallelism(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        collector.setParallelThreshold(0);
+        collector.setOperationSink(operations -> { });
+        collector.validate();
+        collector.collect(null);
+        counters.rows += file.rows;
+        counters.bytes += file.bytes;
+        return collector.getRejectReport().getRowCount();
+    }
+}
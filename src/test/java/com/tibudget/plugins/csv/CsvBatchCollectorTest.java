@@ -0,0 +1,199 @@
+package com.tibudget.plugins.csv;
+
+import com.tibudget.api.exceptions.CollectError;
+import com.tibudget.api.exceptions.ParameterError;
+import com.tibudget.dto.AccountDto;
+import com.tibudget.dto.OperationDto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvBatchCollectorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testBatchImport() throws Exception {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            // Two headers: comma and semicolon separated files
+            CsvGenerator generator = new CsvGenerator(i).separator(i % 2 == 0 ? ',' : ';');
+            files.add(generator.write(tempDir.resolve("month-" + i + ".csv"), 500 + i * 100).toFile());
+        }
+
+        // Files imported one after the other
+        List<OperationDto> expected = new ArrayList<>();
+        AccountDto serialAccount = account(100.0);
+        for (File file : files) {
+            CsvCollector collector = new CsvCollector(file);
+            collector.setAccount(serialAccount);
+            collector.setFormatCache(null);
+            collector.validate();
+            collector.collect(null);
+            expected.addAll(collector.getOperations());
+        }
+
+        CsvFormatCache cache = new CsvFormatCache(16);
+        AccountDto account = account(100.0);
+        List<Integer> batches = new ArrayList<>();
+        List<OperationDto> operations = new ArrayList<>();
+        CsvBatchCollector batch = new CsvBatchCollector(files, account);
+        batch.setFormatCache(cache);
+        batch.setConcurrency(3);
+        batch.setBatchSize(256);
+        Thread caller = Thread.currentThread();
+        batch.setOperationSink(ops -> {
+            assertSame(caller, Thread.currentThread(), "operations are sent by the calling thread");
+            batches.add(ops.size());
+            operations.addAll(ops);
+        });
+        batch.collect();
+
+        assertEquals(expected.size(), operations.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getLabel(), operations.get(i).getLabel(), "operation " + i);
+            assertEquals(expected.get(i).getAmount(), operations.get(i).getAmount(), 0.0, "operation " + i);
+            assertEquals(expected.get(i).getDateOperation(), operations.get(i).getDateOperation(), "operation " + i);
+            assertEquals(account.getUuid(), operations.get(i).getAccountUuid());
+        }
+        assertTrue(batches.stream().allMatch(size -> size <= 256));
+        assertEquals(serialAccount.getCurrentBalance(), account.getCurrentBalance(), 1e-9);
+        // One analysis per header, the other files are found in the cache
+        assertEquals(2, cache.getMissCount());
+        assertEquals(files.size(), cache.getHitCount());
+    }
+
+    @Test
+    void testFailedFile() throws Exception {
+        File first = new CsvGenerator(1).write(tempDir.resolve("first.csv"), 100).toFile();
+        File missing = tempDir.resolve("missing.csv").toFile();
+        CsvBatchCollector batch = new CsvBatchCollector(Arrays.asList(first, missing), account(0.0));
+        batch.setFormatCache(null);
+        assertThrows(CollectError.class, batch::collect);
+        // Operations of the files before the failed one are sent
+        assertEquals(100, batch.getOperations().size());
+    }
+
+    @Test
+    void testFailedSink() throws Exception {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            files.add(new CsvGenerator(i).write(tempDir.resolve("month-" + i + ".csv"), 500).toFile());
+        }
+        Set<Thread> threadsBefore = new HashSet<>(Thread.getAllStackTraces().keySet());
+        List<CsvCollector> collectors = Collections.synchronizedList(new ArrayList<>());
+        List<OperationDto> operations = new ArrayList<>();
+        CsvBatchCollector batch = new CsvBatchCollector(files, account(0.0));
+        batch.setFormatCache(null);
+        batch.setConcurrency(3);
+        // The imports of the next files fill their queues while the first one is sent
+        batch.setBatchSize(10);
+        batch.setCollectorConfigurer(collectors::add);
+        batch.setOperationSink(ops -> {
+            if (!operations.isEmpty()) {
+                throw new IllegalStateException("Sink failure");
+            }
+            operations.addAll(ops);
+        });
+        assertThrows(IllegalStateException.class, batch::collect);
+        // Only the first batch of the first file was sent
+        assertEquals(10, operations.size());
+
+        // The imports waiting for their batches to be sent end (the ones not started yet are not run)
+        assertEquals(3, collectors.size());
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (!threadsBefore.contains(thread) && thread.getName().startsWith("csv-batch-")) {
+                    thread.join();
+                }
+            }
+        });
+        for (CsvCollector collector : collectors) {
+            assertTrue(collector.getPhase() == null || collector.getPhase() == CsvCollector.Phase.DONE);
+        }
+        assertEquals(10, operations.size());
+    }
+
+    @Test
+    void testCollectorConfigurer() throws Exception {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            files.add(write("month-" + i + ".csv", "02/0" + (i + 1) + "/2025;OP " + i + ";-12,50\n"
+                    + "03/0" + (i + 1) + "/2025;OP " + i + "b;100,00\n"
+                    + "Total;;87,50\n"));
+        }
+        AccountDto account = account(0.0);
+        CsvBatchCollector batch = new CsvBatchCollector(files, account);
+        CsvFormatCache cache = new CsvFormatCache(4);
+        batch.setFormatCache(cache);
+        batch.setCollectorConfigurer(collector -> {
+            collector.setAuto(false);
+            collector.setColSeparator(CsvCollector.ColumnSeparator.SEMICOLON);
+            collector.setSkipFirstRow(false);
+            collector.setDateValueIndex(1);
+            collector.setLabelIndex(2);
+            collector.setValueIndex(3);
+            collector.setDateFormat("dd/MM/yyyy");
+            collector.setNumberFormat("#.#");
+            collector.setDecimalSeparator(CsvCollector.DecimalSeparator.COMMA);
+            // The total at the end of each file is rejected
+            collector.setErrorBudget(1, 0.0);
+        });
+        assertTrue(batch.validate().isEmpty());
+        batch.collect();
+        assertEquals(8, batch.getOperations().size());
+        assertEquals("OP 0", batch.getOperations().get(0).getLabel());
+        assertEquals("OP 3b", batch.getOperations().get(7).getLabel());
+        assertEquals(350.0, account.getCurrentBalance(), 1e-9);
+        // The format is given: no file is analyzed
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    void testInvalidCollector() throws Exception {
+        File first = new CsvGenerator(1).write(tempDir.resolve("first.csv"), 100).toFile();
+        File second = new CsvGenerator(2).write(tempDir.resolve("second.csv"), 100).toFile();
+        CsvBatchCollector batch = new CsvBatchCollector(Arrays.asList(first, second), account(0.0));
+        batch.setFormatCache(null);
+        // Manual mode without the columns
+        batch.setCollectorConfigurer(collector -> collector.setAuto(false));
+        assertFalse(batch.validate().isEmpty());
+        assertThrows(ParameterError.class, batch::collect);
+        // Nothing is imported
+        assertTrue(batch.getOperations().isEmpty());
+    }
+
+    @Test
+    void testExecutor() throws Exception {
+        ExecutorService executor = CsvBatchCollector.newExecutor(2);
+        try {
+            assertEquals(42, executor.submit(() -> 42).get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private File write(String name, String content) throws IOException {
+        return Files.write(tempDir.resolve(name), content.getBytes(StandardCharsets.UTF_8)).toFile();
+    }
+
+    private static AccountDto account(double balance) {
+        return new AccountDto(AccountDto.AccountDtoType.PAYMENT, "Account", "Batch", "EUR", balance);
+    }
+}
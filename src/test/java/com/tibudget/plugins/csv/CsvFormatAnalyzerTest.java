@@ -2,13 +2,22 @@ package com.tibudget.plugins.csv;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTimeout;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import com.tibudget.api.exceptions.CollectError;
 
@@ -16,6 +25,9 @@ public class CsvFormatAnalyzerTest {
 
 	private static final Duration TIMEOUT = Duration.ofSeconds(10); // Définition du timeout
 
+	@TempDir
+	Path tempDir;
+
 	@Test
 	public void testImport1() throws CollectError, IOException {
 		assertTimeout(TIMEOUT, () -> {
@@ -95,4 +107,141 @@ public class CsvFormatAnalyzerTest {
 					"decimal separator");
 		});
 	}
+
+	@Test
+	public void testSampleAcrossFile() throws IOException {
+		// Sorted by date: the first 12000 rows only have days that can also be months
+		File csv = writeSortedByDate(tempDir.resolve("sorted.csv"), 1000, 100);
+		AnalysisBudget budget = new AnalysisBudget(64 * 1024, 10_000, 1.0);
+		try (CsvTokenizer tokenizer = new CsvTokenizer(csv, ',')) {
+			assertTrue(tokenizer.getEnd() > 8 * budget.getMaxBytes());
+			try (CsvSample sample = CsvSample.of(tokenizer, budget)) {
+				assertEquals(CsvSample.STRIDE_COUNT + 1, sample.getRangeCount());
+				// Ranges are moved to the end of a row
+				assertTrue(sample.getBytes() <= budget.getMaxBytes() + 100 * sample.getRangeCount(), "sampled bytes");
+			}
+			CsvFormat guessedFormat = CsvFormatAnalyzer.findFormat(tokenizer, budget);
+			assertNotNull(guessedFormat, "Cannot guess format");
+			assertEquals(CsvCollector.ColumnSeparator.SEMICOLON, guessedFormat.getColSeparator(), "char separator");
+			assertEquals("dd/MM/yyyy", guessedFormat.getDateFormat(), "date format");
+			assertEquals(3, guessedFormat.getLabelIndex(), "label index");
+			assertEquals(4, guessedFormat.getValueIndex(), "value index");
+			assertEquals(1.0, guessedFormat.getConfidence(), "confidence");
+			// The tokenizer is rewound
+			assertTrue(tokenizer.next());
+			assertEquals("Date", tokenizer.row().fieldAsString(0));
+		}
+	}
+
+	@Test
+	public void testColumnsOfFileSortedByAmount() throws IOException {
+		// Sorted by amount: credits are only in the last rows, the first two thousand rows have no credit
+		Path csv = tempDir.resolve("sorted-by-amount.csv");
+		try (BufferedWriter writer = Files.newBufferedWriter(csv)) {
+			writer.write("Date;Valeur;Libelle;Debit;Credit\n");
+			for (int i = 0; i < 2100; i++) {
+				writer.write(String.format("%02d/01/2024;%02d/01/2024;PAIEMENT CB CARTE %d;-%d,%02d;\n", 13 + i % 18, 13 + i % 18, i, i % 500, i % 100));
+			}
+			for (int i = 0; i < 900; i++) {
+				writer.write(String.format("%02d/01/2024;%02d/01/2024;VIREMENT RECU %d;;%d,%02d\n", 13 + i % 18, 13 + i % 18, i, 100 + i, i % 100));
+			}
+		}
+		CsvFormat guessedFormat = CsvFormatAnalyzer.findFormat(csv.toFile());
+		assertNotNull(guessedFormat, "Cannot guess format");
+		assertEquals(-1, guessedFormat.getValueIndex(), "value index");
+		assertEquals(4, guessedFormat.getDebitIndex(), "debit index");
+		assertEquals(5, guessedFormat.getCreditIndex(), "credit index");
+	}
+
+	@Test
+	public void testSampleKeepsRowsWithoutLastField() throws IOException {
+		// Debit rows omit the empty credit field: sampled rows have 4 or 5 fields
+		File csv = new File("src/test/resources/import-nrow.csv");
+		try (CsvTokenizer tokenizer = new CsvTokenizer(csv, '\t')) {
+			CsvFormat guessedFormat = CsvFormatAnalyzer.findFormat(tokenizer, new AnalysisBudget(16 * 1024, 10_000, 1.0));
+			assertNotNull(guessedFormat, "Cannot guess format");
+			assertEquals(5, guessedFormat.getCreditIndex(), "credit index");
+			assertEquals(4, guessedFormat.getDebitIndex(), "debit index");
+		}
+	}
+
+	@Test
+	public void testConfidence() throws IOException {
+		// Only days that can also be months: the date format is a guess
+		File csv = writeSortedByDate(tempDir.resolve("ambiguous.csv"), 10, 0);
+		CsvFormat guessedFormat = CsvFormatAnalyzer.findFormat(csv);
+		assertNotNull(guessedFormat, "Cannot guess format");
+		assertTrue(guessedFormat.getConfidence() <= 0.5, "confidence " + guessedFormat.getConfidence());
+
+		assertEquals(1.0, CsvFormatAnalyzer.findFormat(new File("src/test/resources/import-nrow.csv")).getConfidence(),
+				"confidence");
+	}
+
+	@Test
+	public void testTimeBudget() throws IOException {
+		File csv = writeSortedByDate(tempDir.resolve("sorted.csv"), 1000, 100);
+		try (CsvTokenizer tokenizer = new CsvTokenizer(csv, ',')) {
+			// Time is already spent: the analysis is done on the first rows only
+			CsvFormat guessedFormat = CsvFormatAnalyzer.findFormat(tokenizer, new AnalysisBudget(64 * 1024, 0, 1.0));
+			assertNotNull(guessedFormat, "Cannot guess format");
+			assertEquals(3, guessedFormat.getLabelIndex(), "label index");
+			assertEquals(4, guessedFormat.getValueIndex(), "value index");
+		}
+	}
+
+	@Test
+	public void testFindCharSeparator() {
+		// Commas inside quotes are not counted
+		CsvFormatAnalyzer.Decision<CsvCollector.ColumnSeparator> separator = CsvFormatAnalyzer.findCharSeparator(Arrays.asList(
+				"Date;Libelle;Debit;Credit",
+				"27/11/2024;\"PRLV SEPA, FREE MOBILE\";\"-74,91\";",
+				"27/11/2024;VIR SEPA SMITH;\"-41,10\";",
+				"28/11/2024;\"CARTE, \"\"RENNES\"\", 28/11\";\"-1,10\";"));
+		assertEquals(CsvCollector.ColumnSeparator.SEMICOLON, separator.value);
+		assertEquals(1.0, separator.confidence);
+
+		// Quoted line breaks do not end the record
+		separator = CsvFormatAnalyzer.findCharSeparator(Arrays.asList(
+				"Date|Libelle|Montant",
+				"27/11/2024|\"PRLV SEPA",
+				"FREE MOBILE\"|-74.91",
+				"27/11/2024|VIR SEPA SMITH|-41.10"));
+		assertEquals(CsvCollector.ColumnSeparator.PIPE, separator.value);
+		assertEquals(1.0, separator.confidence);
+
+		separator = CsvFormatAnalyzer.findCharSeparator(Arrays.asList(
+				"Date Valeur Libelle Montant",
+				"27/11/2024 27/11/2024 PRLV -74.91",
+				"",
+				"27/11/2024 27/11/2024 VIR -41.10"));
+		assertEquals(CsvCollector.ColumnSeparator.SPACE, separator.value);
+
+		// Same count of commas and semicolons on all lines
+		separator = CsvFormatAnalyzer.findCharSeparator(Arrays.asList(
+				"a,b;c,d;e",
+				"1,2;3,4;5"));
+		assertEquals(CsvCollector.ColumnSeparator.COMMA, separator.value);
+		assertEquals(0.5, separator.confidence);
+
+		assertNull(CsvFormatAnalyzer.findCharSeparator(Arrays.asList("Date", "27/11/2024")));
+	}
+
+	/**
+	 * Writes <code>firstRowsPerDay</code> rows for each of the 12 first days of January, then
+	 * <code>nextRowsPerDay</code> rows for each of the next days.
+	 */
+	private static File writeSortedByDate(Path file, int firstRowsPerDay, int nextRowsPerDay) throws IOException {
+		DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+		try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+			writer.write("Date;Valeur;Libelle;Montant\n");
+			for (int day = 1; day <= 31; day++) {
+				String date = dateFormat.format(LocalDate.of(2024, 1, day));
+				int rows = day <= 12 ? firstRowsPerDay : nextRowsPerDay;
+				for (int i = 0; i < rows; i++) {
+					writer.write(date + ";" + date + ";PAIEMENT CB CARTE " + i + ";-" + (i % 500) + "," + (10 + i % 90) + "\n");
+				}
+			}
+		}
+		return file.toFile();
+	}
 }
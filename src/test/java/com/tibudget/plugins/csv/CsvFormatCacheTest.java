@@ -0,0 +1,190 @@
+package com.tibudget.plugins.csv;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvFormatCacheTest {
+
+    private static final String HEADER = "Date;Date de valeur;Montant;Libelle;Solde\n";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testHit() throws IOException {
+        CsvFormatCache cache = new CsvFormatCache(4);
+        File csv = new File("target/test-classes/import-cic-2.csv");
+        CsvFormat analyzed = findFormat(cache, csv);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+
+        CsvFormat cached = findFormat(cache, csv);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertSameFormat(analyzed, cached);
+
+        // A copy is returned
+        cached.setLabelIndex(42);
+        assertSameFormat(analyzed, findFormat(cache, csv));
+    }
+
+    @Test
+    void testSameHeaderOtherFormat() throws IOException {
+        CsvFormatCache cache = new CsvFormatCache(4);
+        File slashes = write("slashes.csv", HEADER
+                + "17/01/2025;17/01/2025;-128,29;PRLV SEPA;3201,17\n"
+                + "18/01/2025;18/01/2025;-34,46;PAIEMENT PSC;3166,71\n");
+        File dashes = write("dashes.csv", HEADER
+                + "2025-01-17;2025-01-17;-128,29;PRLV SEPA;3201,17\n"
+                + "2025-01-18;2025-01-18;-34,46;PAIEMENT PSC;3166,71\n");
+        assertEquals(CsvFormatCache.fingerprint(Arrays.asList(Files.readString(slashes.toPath()).split("\n"))),
+                CsvFormatCache.fingerprint(Arrays.asList(Files.readString(dashes.toPath()).split("\n"))));
+
+        assertEquals("dd/MM/yyyy", findFormat(cache, slashes).getDateFormat());
+        // Same fingerprint but the dates cannot be parsed: the file is analyzed again
+        assertEquals("yyyy-MM-dd", findFormat(cache, dashes).getDateFormat());
+        assertEquals(2, cache.getMissCount());
+        assertEquals("yyyy-MM-dd", findFormat(cache, dashes).getDateFormat());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    void testOtherMonthSameFormat() throws IOException {
+        CsvFormatCache cache = new CsvFormatCache(4);
+        File january = write("january.csv", HEADER
+                + "17/01/2025;17/01/2025;-128,29;PRLV SEPA;3201,17\n"
+                + "18/01/2025;18/01/2025;-34,46;PAIEMENT PSC;3166,71\n");
+        File february = write("february.csv", HEADER
+                + "03/02/2025;03/02/2025;-650,00;VIR LOYER FEVRIER 2025;2516,71\n"
+                + "14/02/2025;14/02/2025;-12,90;CB BOULANGERIE DU MARCHE;2503,81\n");
+        // Labels have other spaces
+        assertEquals(CsvFormatCache.fingerprint(Arrays.asList(Files.readString(january.toPath()).split("\n"))),
+                CsvFormatCache.fingerprint(Arrays.asList(Files.readString(february.toPath()).split("\n"))));
+
+        assertSameFormat(findFormat(cache, january), findFormat(cache, february));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    void testDayAndMonthSwapped() throws IOException {
+        CsvFormatCache cache = new CsvFormatCache(4);
+        StringBuilder dayFirst = new StringBuilder(HEADER);
+        for (int day = 13; day <= 20; day++) {
+            dayFirst.append(String.format("%02d/01/2025;%02d/01/2025;-10,00;PAIEMENT PSC;3000,00\n", day, day));
+        }
+        File dayFirstFile = write("day-first.csv", dayFirst.toString());
+        StringBuilder monthFirst = new StringBuilder(HEADER);
+        for (int day = 1; day <= 12; day++) {
+            monthFirst.append(String.format("01/%02d/2025;01/%02d/2025;-10,00;PAIEMENT PSC;3000,00\n", day, day));
+        }
+        monthFirst.append("01/13/2025;01/13/2025;-10,00;PAIEMENT PSC;3000,00\n");
+        File monthFirstFile = write("month-first.csv", monthFirst.toString());
+        assertEquals(CsvFormatCache.fingerprint(Arrays.asList(dayFirst.toString().split("\n"))
+                        .subList(0, CsvFormatCache.SAMPLE_ROW_COUNT + 1)),
+                CsvFormatCache.fingerprint(Arrays.asList(monthFirst.toString().split("\n"))
+                        .subList(0, CsvFormatCache.SAMPLE_ROW_COUNT + 1)));
+
+        assertEquals("dd/MM/yyyy", findFormat(cache, dayFirstFile).getDateFormat());
+        // The first dates can be parsed with the cached format but a next one cannot
+        assertEquals("MM/dd/yyyy", findFormat(cache, monthFirstFile).getDateFormat());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    void testDayAndMonthUnknown() throws IOException {
+        CsvFormatCache cache = new CsvFormatCache(4);
+        File january = write("january.csv", HEADER
+                + "17/01/2025;17/01/2025;-128,29;PRLV SEPA;3201,17\n"
+                + "18/01/2025;18/01/2025;-34,46;PAIEMENT PSC;3166,71\n");
+        File february = write("february.csv", HEADER
+                + "03/02/2025;03/02/2025;-650,00;VIR LOYER FEVRIER 2025;2516,71\n"
+                + "05/02/2025;05/02/2025;-12,90;CB BOULANGERIE DU MARCHE;2503,81\n");
+        CsvFormat cached = findFormat(cache, january);
+        try (CsvTokenizer tokenizer = new CsvTokenizer(january, ',')) {
+            assertTrue(CsvFormatCache.verify(cached, tokenizer));
+        }
+        // No date of the file tells the day from the month: the cached format is not trusted
+        try (CsvTokenizer tokenizer = new CsvTokenizer(february, ',')) {
+            assertFalse(CsvFormatCache.verify(cached, tokenizer));
+        }
+    }
+
+    @Test
+    void testDirectory() throws IOException {
+        File csv = new File("target/test-classes/import-cic.csv");
+        CsvFormatCache cache = new CsvFormatCache(4);
+        cache.setDirectory(tempDir.toFile());
+        CsvFormat analyzed = findFormat(cache, csv);
+        assertEquals(1, tempDir.toFile().listFiles((dir, name) -> name.endsWith(".properties")).length);
+
+        CsvFormatCache restarted = new CsvFormatCache(4);
+        restarted.setDirectory(tempDir.toFile());
+        CsvFormat loaded = findFormat(restarted, csv);
+        assertEquals(0, restarted.getMissCount());
+        assertEquals(1, restarted.getHitCount());
+        assertSameFormat(analyzed, loaded);
+    }
+
+    @Test
+    void testEviction() throws IOException {
+        CsvFormatCache cache = new CsvFormatCache(1);
+        File cic = new File("target/test-classes/import-cic.csv");
+        File cic2 = new File("target/test-classes/import-cic-2.csv");
+        findFormat(cache, cic);
+        findFormat(cache, cic2);
+        findFormat(cache, cic);
+        assertEquals(3, cache.getMissCount());
+        findFormat(cache, cic);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    void testTokenizerIsRewound() throws IOException {
+        CsvFormatCache cache = new CsvFormatCache(4);
+        File csv = new File("target/test-classes/import-semi-colon-do-dv-m-l.csv");
+        findFormat(cache, csv);
+        try (CsvTokenizer tokenizer = new CsvTokenizer(csv, ',')) {
+            assertNotNull(cache.findFormat(tokenizer));
+            assertEquals(1, cache.getHitCount());
+            assertTrue(tokenizer.next());
+            assertEquals(4, tokenizer.row().fieldCount());
+            assertEquals("date value", tokenizer.row().fieldAsString(0));
+        }
+    }
+
+    private static CsvFormat findFormat(CsvFormatCache cache, File csv) throws IOException {
+        try (CsvTokenizer tokenizer = new CsvTokenizer(csv, ',')) {
+            return cache.findFormat(tokenizer);
+        }
+    }
+
+    private File write(String name, String content) throws IOException {
+        return Files.write(tempDir.resolve(name), content.getBytes(StandardCharsets.UTF_8)).toFile();
+    }
+
+    private static void assertSameFormat(CsvFormat expected, CsvFormat actual) {
+        assertEquals(expected.getColSeparator(), actual.getColSeparator());
+        assertEquals(expected.isSkipFirstRow(), actual.isSkipFirstRow());
+        assertEquals(expected.getDateOperationIndex(), actual.getDateOperationIndex());
+        assertEquals(expected.getDateValueIndex(), actual.getDateValueIndex());
+        assertEquals(expected.getLabelIndex(), actual.getLabelIndex());
+        assertEquals(expected.getCreditIndex(), actual.getCreditIndex());
+        assertEquals(expected.getDebitIndex(), actual.getDebitIndex());
+        assertEquals(expected.getValueIndex(), actual.getValueIndex());
+        assertEquals(expected.getDateFormat(), actual.getDateFormat());
+        assertEquals(expected.getValueFormat().toPattern(), actual.getValueFormat().toPattern());
+        assertEquals(expected.getValueFormat().getDecimalFormatSymbols().getDecimalSeparator(),
+                actual.getValueFormat().getDecimalFormatSymbols().getDecimalSeparator());
+    }
+}
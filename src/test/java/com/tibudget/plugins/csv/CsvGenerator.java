@@ -0,0 +1,150 @@
+package com.tibudget.plugins.csv;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+/**
+ * Generates bank-like CSV files for tests and benchmarks. Files are deterministic: the same parameters always
+ * give the same content.
+ */
+public class CsvGenerator {
+
+    private static final String[] LABELS = new String[] {
+            "PRLV SEPA FREE MOBILE FMPMT-123456789",
+            "PAIEMENT CB 2411 PAYLI1234561/ AMAZON PAYMENTS CARTE 2671",
+            "PRLV TRESOR PUBLIC 35 I 005002",
+            "CARTE 16/10 L'ORANGERIE VITRE",
+            "VIR SEPA SMITH",
+            "F COTIS CP GLOBAL",
+            "PAIEMENT PSC 0601 ST AGATHON GEMO CARTE 2671",
+            "RETRAIT DAB 12/01 RENNES"
+    };
+
+    /**
+     * Labels with chars outside ASCII, all of them exist in ISO-8859-1.
+     */
+    private static final String[] ACCENTED_LABELS = new String[] {
+            "PRLV SEPA ÉLECTRICITÉ DE FRANCE",
+            "CARTE 16/10 CAFÉ DU MARCHÉ",
+            "VIR SEPA MME HÉLÈNE LEFÈVRE",
+            "PAIEMENT CB 0212 CRÊPERIE SAINT-GEORGES"
+    };
+
+    private final long seed;
+
+    private char separator = ',';
+
+    private boolean quoteAmounts = true;
+
+    private boolean multiLineLabels = false;
+
+    private boolean strayQuotes = false;
+
+    private boolean accentedLabels = false;
+
+    private Charset charset = StandardCharsets.UTF_8;
+
+    public CsvGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public CsvGenerator separator(char separator) {
+        this.separator = separator;
+        return this;
+    }
+
+    public CsvGenerator quoteAmounts(boolean quoteAmounts) {
+        this.quoteAmounts = quoteAmounts;
+        return this;
+    }
+
+    /**
+     * @param multiLineLabels If true, some labels are quoted and contain line breaks
+     */
+    public CsvGenerator multiLineLabels(boolean multiLineLabels) {
+        this.multiLineLabels = multiLineLabels;
+        return this;
+    }
+
+    /**
+     * @param strayQuotes If true, some labels contain a single quote character in the middle of the text
+     */
+    public CsvGenerator strayQuotes(boolean strayQuotes) {
+        this.strayQuotes = strayQuotes;
+        return this;
+    }
+
+    /**
+     * @param accentedLabels If true, some labels have accented letters
+     */
+    public CsvGenerator accentedLabels(boolean accentedLabels) {
+        this.accentedLabels = accentedLabels;
+        return this;
+    }
+
+    /**
+     * @param charset Charset of the file, UTF-8 by default (use ISO-8859-1 for the files of most French banks)
+     */
+    public CsvGenerator charset(Charset charset) {
+        this.charset = charset;
+        return this;
+    }
+
+    /**
+     * Writes a file with a header line and <code>rows</code> operations: date, value date, label, debit, credit,
+     * with comma as decimal separator and dates formatted as dd/MM/yyyy.
+     * @param file Where to write the file
+     * @param rows Number of operations
+     * @return The file
+     */
+    public Path write(Path file, int rows) throws IOException {
+        Random random = new Random(seed);
+        DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+        LocalDate date = LocalDate.of(2008, 10, 16);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), charset), 1 << 16)) {
+            writer.write(String.join(String.valueOf(separator), "Date", "Valeur", "Libelle", "Debit", "Credit"));
+            writer.write('\n');
+            for (int i = 0; i < rows; i++) {
+                if (random.nextInt(10) == 0) {
+                    date = date.plusDays(1);
+                }
+                LocalDate valueDate = date.minusDays(random.nextInt(3));
+                String label = accentedLabels && random.nextInt(4) == 0
+                        ? ACCENTED_LABELS[random.nextInt(ACCENTED_LABELS.length)] + " " + random.nextInt(1000)
+                        : LABELS[random.nextInt(LABELS.length)] + " " + random.nextInt(1000);
+                if (multiLineLabels && random.nextInt(20) == 0) {
+                    label = "\"" + label + "\n" + separator + " \"\"SUITE\"\"\"";
+                }
+                else if (strayQuotes && random.nextInt(20) == 0) {
+                    label = label + " 12\" ECRAN";
+                }
+                long cents = 1 + random.nextInt(300000);
+                boolean debit = random.nextInt(4) != 0;
+                String amount = (debit ? "-" : "") + (cents / 100) + "," + String.format("%02d", cents % 100);
+                if (quoteAmounts || separator == ',') {
+                    amount = "\"" + amount + "\"";
+                }
+                writer.write(dateFormat.format(date));
+                writer.write(separator);
+                writer.write(dateFormat.format(valueDate));
+                writer.write(separator);
+                writer.write(label);
+                writer.write(separator);
+                writer.write(debit ? amount : "");
+                writer.write(separator);
+                writer.write(debit ? "" : amount);
+                writer.write('\n');
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,212 @@
+package com.tibudget.plugins.csv;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CsvTokenizerTest {
+
+    private static final String CSV = "Date,Valeur,Libelle,Debit,Credit\r\n"
+            + "27/11/2024,27/11/2024, PRLV SEPA FREE MOBILE ,\"-74,91\",\r\n"
+            + "\r\n"
+            + "28/11/2024,28/11/2024,\"VIR \"\"SMITH\"\"\",,\"40,00\"\n"
+            + "29/11/2024,29/11/2024,\"MULTI\nLINE\",\"-1,72\",\r"
+            + "30/11/2024,30/11/2024,LAST,,\"1,00\"";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testTokenize() throws IOException {
+        Path csv = write(CSV);
+        try (CsvTokenizer tokenizer = new CsvTokenizer(csv.toFile(), ',')) {
+            assertEquals(expectedRows(), readAll(tokenizer));
+            assertEquals(Files.size(csv), tokenizer.getMappedBytes());
+        }
+    }
+
+    @Test
+    void testTokenizeWithSmallWindows() throws IOException {
+        Path csv = write(CSV);
+        // Windows smaller than the file (but bigger than the longest row) must give the same rows
+        for (int windowSize = 64; windowSize < 256; windowSize++) {
+            try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.READ);
+                 CsvTokenizer tokenizer = new CsvTokenizer(channel, false, 0, -1, ',', StandardCharsets.UTF_8, windowSize)) {
+                assertEquals(expectedRows(), readAll(tokenizer), "window size " + windowSize);
+            }
+        }
+    }
+
+    @Test
+    void testLineCount() throws IOException {
+        Path csv = write(CSV);
+        try (CsvTokenizer tokenizer = new CsvTokenizer(csv.toFile(), ',')) {
+            // The empty line and the line break inside quotes are counted
+            List<Long> rowLines = new ArrayList<>();
+            while (tokenizer.next()) {
+                rowLines.add(tokenizer.getRowLine());
+            }
+            assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L, 6L), rowLines);
+            assertEquals(7, tokenizer.getLineCount());
+            tokenizer.rewind();
+            assertEquals(0, tokenizer.getLineCount());
+        }
+    }
+
+    @Test
+    void testClose() throws IOException {
+        Path csv = write(CSV);
+        CsvTokenizer tokenizer = new CsvTokenizer(csv.toFile(), ',');
+        assertTrue(tokenizer.next());
+        assertEquals(5, tokenizer.row().fieldCount());
+        tokenizer.close();
+        // The row does not refer to the mapped window anymore
+        assertEquals(0, tokenizer.row().fieldCount());
+        assertEquals(-1, tokenizer.getRowStart());
+        assertThrows(IOException.class, tokenizer::next);
+    }
+
+    @Test
+    void testRowLongerThanWindow() throws IOException {
+        Path csv = write(CSV);
+        try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.READ);
+             CsvTokenizer tokenizer = new CsvTokenizer(channel, false, 0, -1, ',', StandardCharsets.UTF_8, 16)) {
+            assertThrows(IOException.class, () -> readAll(tokenizer));
+        }
+    }
+
+    @Test
+    void testPrefixAndRewind() throws IOException {
+        Path csv = write(CSV);
+        try (CsvTokenizer tokenizer = new CsvTokenizer(csv.toFile(), ';')) {
+            List<String> prefix = tokenizer.readPrefix(3);
+            assertEquals(Arrays.asList("Date,Valeur,Libelle,Debit,Credit",
+                    "27/11/2024,27/11/2024, PRLV SEPA FREE MOBILE ,\"-74,91\",", ""), prefix);
+            tokenizer.setSeparator(',');
+            assertTrue(tokenizer.next());
+            assertTrue(tokenizer.next());
+            assertEquals("PRLV SEPA FREE MOBILE", tokenizer.row().field(2).toString());
+            assertTrue(tokenizer.next());
+            assertTrue(tokenizer.row().isEmptyLine());
+            tokenizer.rewind();
+            assertEquals(expectedRows(), readAll(tokenizer));
+        }
+    }
+
+    @Test
+    void testRowIterationDoesNotAllocate() throws IOException {
+        StringBuilder content = new StringBuilder("Date;Libellé;Montant\n");
+        for (int i = 0; i < 10000; i++) {
+            content.append("07/01/2025;PAIEMENT PSC ").append(i).append(" CARTE é;\"-128,29\"\n");
+        }
+        Path csv = write(content.toString());
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        long threadId = Thread.currentThread().getId();
+        try (CsvTokenizer tokenizer = new CsvTokenizer(csv.toFile(), ';')) {
+            // Warm up (arrays of the row grow to their final size)
+            long checksum = iterate(tokenizer);
+            tokenizer.rewind();
+            long before = allocationBean.getThreadAllocatedBytes(threadId);
+            checksum -= iterate(tokenizer);
+            long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+            assertEquals(0, checksum);
+            assertTrue(allocated < 1024, "allocated " + allocated + " bytes");
+        }
+    }
+
+    @Test
+    void testCharset() throws IOException {
+        // Latin-1 fixture: "Libellé" in the header
+        try (CsvTokenizer tokenizer = new CsvTokenizer(new java.io.File("target/test-classes/import-nrow.csv"), '\t')) {
+            assertEquals(CharsetDetector.WINDOWS_1252, tokenizer.getCharset());
+            assertTrue(tokenizer.next());
+            assertEquals("Libellé", tokenizer.row().fieldAsString(2));
+        }
+
+        String content = "Date;Libellé;Montant\n27/11/2024;CAFÉ 12€ ÉTÉ;-1,50\n";
+        Path csv = tempDir.resolve("bom.csv");
+        byte[] bom = new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+        byte[] utf8 = content.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = Arrays.copyOf(bom, bom.length + utf8.length);
+        System.arraycopy(utf8, 0, bytes, bom.length, utf8.length);
+        Files.write(csv, bytes);
+        try (CsvTokenizer tokenizer = new CsvTokenizer(csv.toFile(), ';')) {
+            assertEquals(StandardCharsets.UTF_8, tokenizer.getCharset());
+            assertEquals(Arrays.asList("Date;Libellé;Montant", "27/11/2024;CAFÉ 12€ ÉTÉ;-1,50"), tokenizer.readPrefix(10));
+            assertTrue(tokenizer.next());
+            // The byte order mark is not part of the first field
+            assertEquals("Date", tokenizer.row().fieldAsString(0));
+            assertTrue(tokenizer.next());
+            assertEquals("CAFÉ 12€ ÉTÉ", tokenizer.row().fieldAsString(1));
+            assertEquals("CAFÉ 12€ ÉTÉ", tokenizer.row().field(1).toString());
+        }
+
+        Files.write(csv, content.getBytes(CharsetDetector.WINDOWS_1252));
+        try (CsvTokenizer tokenizer = new CsvTokenizer(csv.toFile(), ';')) {
+            assertEquals(CharsetDetector.WINDOWS_1252, tokenizer.getCharset());
+            tokenizer.next();
+            tokenizer.next();
+            assertEquals("CAFÉ 12€ ÉTÉ", tokenizer.row().fieldAsString(1));
+        }
+        // A given charset is used as is
+        try (CsvTokenizer tokenizer = new CsvTokenizer(csv.toFile(), ';', StandardCharsets.ISO_8859_1)) {
+            tokenizer.next();
+            assertEquals("Libellé", tokenizer.row().fieldAsString(1));
+        }
+        assertThrows(IOException.class, () -> new CsvTokenizer(csv.toFile(), ';', StandardCharsets.UTF_16));
+    }
+
+    private static long iterate(CsvTokenizer tokenizer) throws IOException {
+        long checksum = 0;
+        CsvRow row = tokenizer.row();
+        while (tokenizer.next()) {
+            for (int i = 0; i < row.fieldCount(); i++) {
+                CharSequence field = row.field(i);
+                for (int c = 0; c < field.length(); c++) {
+                    checksum += field.charAt(c);
+                }
+            }
+        }
+        return checksum;
+    }
+
+    private Path write(String content) throws IOException {
+        Path csv = tempDir.resolve("test.csv");
+        Files.write(csv, content.getBytes(StandardCharsets.UTF_8));
+        return csv;
+    }
+
+    private static List<List<String>> expectedRows() {
+        return Arrays.asList(
+                Arrays.asList("Date", "Valeur", "Libelle", "Debit", "Credit"),
+                Arrays.asList("27/11/2024", "27/11/2024", "PRLV SEPA FREE MOBILE", "-74,91", ""),
+                Arrays.asList(""),
+                Arrays.asList("28/11/2024", "28/11/2024", "VIR \"SMITH\"", "", "40,00"),
+                Arrays.asList("29/11/2024", "29/11/2024", "MULTI\nLINE", "-1,72", ""),
+                Arrays.asList("30/11/2024", "30/11/2024", "LAST", "", "1,00"));
+    }
+
+    private static List<List<String>> readAll(CsvTokenizer tokenizer) throws IOException {
+        List<List<String>> rows = new ArrayList<>();
+        while (tokenizer.next()) {
+            rows.add(Arrays.asList(tokenizer.row().fields()));
+        }
+        return rows;
+    }
+}
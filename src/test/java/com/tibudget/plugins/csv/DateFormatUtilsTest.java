@@ -2,7 +2,14 @@ package com.tibudget.plugins.csv;
 
 import org.junit.jupiter.api.Test;
 
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -24,5 +31,48 @@ class DateFormatUtilsTest {
 
         assertTrue(formats.isEmpty());
     }
-}
 
+    @Test
+    void testDetermineDateFormat_ambiguousDates() {
+        Iterable<String> dates = Arrays.asList("01/02/2012", "12/11/2012", "05/05/2012");
+        Set<String> formats = DateFormatUtils.determineDateFormat(dates);
+
+        assertEquals(new HashSet<>(Arrays.asList("dd/MM/yyyy", "MM/dd/yyyy")), formats);
+    }
+
+    @Test
+    void testDetermineDateFormat_rejectedFormatIsNotAcceptedAgain() {
+        Iterable<String> dates = Arrays.asList("01/02/2012", "13/02/2012", "05/05/2012");
+        Set<String> formats = DateFormatUtils.determineDateFormat(dates);
+
+        assertEquals(Collections.singleton("dd/MM/yyyy"), formats);
+    }
+
+    @Test
+    void testDetermineDateFormat_shapes() {
+        assertEquals("99/99/9999", DateFormatUtils.shapeOf("22/02/2012"));
+        assertEquals("a 9 9999", DateFormatUtils.shapeOf("February 2 2012"));
+        // Numeric fields have a fixed width
+        assertTrue(DateFormatUtils.determineDateFormat(Collections.singletonList("1/02/2012")).isEmpty());
+        assertTrue(DateFormatUtils.determineDateFormat(Collections.singletonList("2012-02-22 10:00")).isEmpty());
+
+        String month = new SimpleDateFormat("MMMM").format(java.sql.Date.valueOf("2012-02-22"));
+        Set<String> formats = DateFormatUtils.determineDateFormat(Arrays.asList("22 " + month + " 2012", "2 " + month + " 2012"));
+        assertTrue(formats.contains("dd MMMM yyyy"), formats.toString());
+    }
+
+    @Test
+    void testDetermineDateFormat_stopsWithEnoughEvidence() {
+        List<String> dates = new ArrayList<>();
+        LocalDate date = LocalDate.of(2012, 1, 13);
+        for (int i = 0; i < DateFormatUtils.MIN_EVIDENCE; i++, date = date.plusDays(1)) {
+            dates.add(date.format(DateTimeFormatter.ofPattern("dd/MM/yyyy")));
+        }
+        // Not read: the format is already known
+        dates.add("99/99/2012");
+        assertEquals(Collections.singleton("dd/MM/yyyy"), DateFormatUtils.determineDateFormat(dates));
+
+        dates.add(DateFormatUtils.MIN_EVIDENCE - 1, "99/99/2012");
+        assertTrue(DateFormatUtils.determineDateFormat(dates).isEmpty());
+    }
+}
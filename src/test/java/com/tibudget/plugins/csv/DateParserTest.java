@@ -0,0 +1,97 @@
+package com.tibudget.plugins.csv;
+
+import org.junit.jupiter.api.Test;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DateParserTest {
+
+    private static final String[] NUMERIC_FORMATS = new String[] {
+            "yyyyddMM", "MMddyyyy", "yyyyMMdd", "ddMMyyyy",
+            "yyyy-dd-MM", "MM-dd-yyyy", "yyyy-MM-dd", "dd-MM-yyyy",
+            "yyyy/dd/MM", "MM/dd/yyyy", "yyyy/MM/dd", "dd/MM/yyyy",
+            "dd.MM.yyyy"
+    };
+
+    @Test
+    void testNumericPatternsAreCompiled() {
+        for (String format : NUMERIC_FORMATS) {
+            assertTrue(DateParser.compile(format) instanceof DateParser.FixedDateParser, format);
+        }
+        assertTrue(DateParser.compile("dd MMM yyyy") instanceof DateParser.SimpleDateParser);
+        assertTrue(DateParser.compile("dd/MM/yy") instanceof DateParser.SimpleDateParser);
+        assertTrue(DateParser.compile("d/M/yyyy") instanceof DateParser.SimpleDateParser);
+        assertTrue(DateParser.compile("yyyy-MM-dd'T'") instanceof DateParser.SimpleDateParser);
+    }
+
+    @Test
+    void testSameResultAsSimpleDateFormat() {
+        LocalDate date = LocalDate.of(1999, 12, 1);
+        for (int i = 0; i < 800; i++, date = date.plusDays(1)) {
+            for (String format : NUMERIC_FORMATS) {
+                SimpleDateFormat sdf = new SimpleDateFormat(format);
+                String text = sdf.format(java.sql.Date.valueOf(date));
+                DateParser parser = DateParser.compile(format);
+                long epochDay = parser.parseEpochDay(text);
+                assertEquals(date.toEpochDay(), epochDay, format + " " + text);
+                assertEquals(sdf.format(parser.toDate(epochDay)), text);
+            }
+        }
+    }
+
+    @Test
+    void testStrictValidation() {
+        DateParser parser = DateParser.compile("dd/MM/yyyy");
+        assertEquals(LocalDate.of(2012, 2, 29).toEpochDay(), parser.parseEpochDay("29/02/2012"));
+        assertEquals(LocalDate.of(2000, 2, 29).toEpochDay(), parser.parseEpochDay("29/02/2000"));
+        String[] outOfRange = new String[] {
+                "29/02/2013", "29/02/1900", "31/04/2012", "32/01/2012", "00/01/2012", "01/13/2012", "01/00/2012"
+        };
+        for (String invalid : outOfRange) {
+            assertEquals(DateParser.INVALID, parser.parseEpochDay(invalid), invalid);
+            assertEquals(DateParser.INVALID, parseWithSimpleDateFormat("dd/MM/yyyy", invalid), invalid);
+        }
+        // Fields have a fixed width (SimpleDateFormat accepts a single digit, the collector never did)
+        String[] malformed = new String[] {
+                "1/02/2012", "01/2/2012", "01/02/12", "01-02-2012", "01/02/2012 ", "0a/02/2012", "", "Date", "01/02/20121"
+        };
+        for (String invalid : malformed) {
+            assertEquals(DateParser.INVALID, parser.parseEpochDay(invalid), invalid);
+        }
+    }
+
+    @Test
+    void testFallback() {
+        DateParser parser = DateParser.compile("dd/MM/yy");
+        assertEquals(LocalDate.of(2012, 2, 22).toEpochDay(), parser.parseEpochDay("22/02/12"));
+        assertEquals(DateParser.INVALID, parser.parseEpochDay("31/02/12"));
+        assertEquals(DateParser.INVALID, parser.parseEpochDay("22/02/12 x"));
+    }
+
+    @Test
+    void testToDate() {
+        DateParser parser = DateParser.compile("yyyy-MM-dd");
+        long epochDay = parser.parseEpochDay("2012-02-22");
+        Date first = parser.toDate(epochDay);
+        Date second = parser.toDate(epochDay);
+        assertNotSame(first, second);
+        assertEquals(first, second);
+        assertEquals(java.sql.Date.valueOf("2012-02-22").getTime(), first.getTime());
+    }
+
+    private static long parseWithSimpleDateFormat(String format, String text) {
+        SimpleDateFormat sdf = new SimpleDateFormat(format);
+        sdf.setLenient(false);
+        ParsePosition pp = new ParsePosition(0);
+        Date date = sdf.parse(text, pp);
+        if (date == null || pp.getIndex() != text.length()) {
+            return DateParser.INVALID;
+        }
+        return date.toInstant().atZone(sdf.getTimeZone().toZoneId()).toLocalDate().toEpochDay();
+    }
+}
@@ -0,0 +1,63 @@
+package com.tibudget.plugins.csv;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlightRecorderEventsTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testEvents() throws Exception {
+        Path csv = new CsvGenerator(1).write(tempDir.resolve("jfr.csv"), 25_000);
+        Path dump = tempDir.resolve("import.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.tibudget.plugins.csv.Import");
+            recording.enable("com.tibudget.plugins.csv.FormatDetection");
+            recording.enable("com.tibudget.plugins.csv.ParseBlock");
+            // Every row is slow
+            recording.enable("com.tibudget.plugins.csv.SlowRow").withThreshold(Duration.ZERO);
+            recording.start();
+            CsvCollector collector = new CsvCollector(csv.toFile());
+            collector.setFormatCache(null);
+            collector.setOperationSink(operations -> { });
+            collector.validate();
+            collector.collect(null);
+            recording.stop();
+            recording.dump(dump);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+
+        List<RecordedEvent> imports = events("com.tibudget.plugins.csv.Import", events);
+        assertEquals(1, imports.size());
+        RecordedEvent event = imports.get(0);
+        assertEquals(25_000, event.getLong("rows"));
+        assertEquals(csv.toFile().length(), event.getLong("fileSize"));
+        assertFalse(event.getBoolean("failed"));
+        assertTrue(event.getString("format").contains("dateFormat=dd/MM/yyyy"), event.getString("format"));
+
+        List<String> stages = events("com.tibudget.plugins.csv.FormatDetection", events).stream()
+                .map(e -> e.getString("stage")).collect(Collectors.toList());
+        assertEquals(List.of("findCharSeparator", "findDatePattern", "findDecimalFormat", "findFormat"), stages);
+
+        List<RecordedEvent> blocks = events("com.tibudget.plugins.csv.ParseBlock", events);
+        assertEquals(3, blocks.size());
+        assertEquals(25_000, blocks.stream().mapToLong(e -> e.getLong("rows")).sum());
+        assertEquals(25_000, events("com.tibudget.plugins.csv.SlowRow", events).size());
+    }
+
+    private static List<RecordedEvent> events(String name, List<RecordedEvent> events) {
+        return events.stream().filter(e -> e.getEventType().getName().equals(name)).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,41 @@
+package com.tibudget.plugins.csv;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the format detection: the date and number formats of a column, and the whole analysis of a file
+ * (bounded by {@link AnalysisBudget#DEFAULT} whatever the size of the file).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FormatDetectionJmh {
+
+    @Benchmark
+    public Set<String> determineDateFormat(BankFileJmh file) {
+        return DateFormatUtils.determineDateFormat(file.dates);
+    }
+
+    @Benchmark
+    public Set<DecimalFormat> determineValueFormat(BankFileJmh file) {
+        return ValueFormatUtils.determineValueFormat(file.amounts);
+    }
+
+    @Benchmark
+    public CsvFormat findFormat(BankFileJmh file) throws IOException {
+        return CsvFormatAnalyzer.findFormat(file.file);
+    }
+}
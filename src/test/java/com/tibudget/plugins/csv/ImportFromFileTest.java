@@ -2,17 +2,28 @@ package com.tibudget.plugins.csv;
 
 import com.tibudget.api.exceptions.CollectError;
 import com.tibudget.api.exceptions.ParameterError;
+import com.tibudget.dto.AccountDto;
 import com.tibudget.dto.OperationDto;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormatSymbols;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.logging.Logger;
 
 public class ImportFromFileTest {
@@ -41,6 +52,21 @@ public class ImportFromFileTest {
 		});
 	}
 
+	@Test
+	public void testAutoImportReadError() {
+		File csv = new File("target/test-classes/import-cic.csv");
+		CsvCollector collector = new CsvCollector(csv);
+		collector.setFormatCache(new CsvFormatCache(1) {
+			@Override
+			CsvFormat findFormat(CsvTokenizer tokenizer, ImportMetrics metrics) throws IOException {
+				throw new IOException("Read error");
+			}
+		});
+		// A file that cannot be read to detect its format is reported like a format that cannot be detected
+		assertThrows(ParameterError.class, () -> collector.collect(null));
+		assertEquals(CsvCollector.Phase.DONE, collector.getPhase());
+	}
+
 	@Test
 	public void testImport1() throws CollectError, ParameterError {
 		File csv = new File("target/test-classes/import-comma-dv-do-l-c-d.csv");
@@ -149,6 +175,461 @@ public class ImportFromFileTest {
 		checkBankOperation(ops.get(12), 2025, 1, 8, 2025, 1, 1, "F COTIS CP GLOBAL", -18.96, false);
 	}
 
+	@Test
+	public void testImportReadsFileOnce() throws CollectError, ParameterError {
+		String[] files = new String[] {
+				"import-comma-dv-do-l-c-d.csv", "import-semi-colon-do-dv-m-l.csv", "import-tab-dv-l-c-d.csv",
+				"import-nrow.csv", "import-cic.csv", "import-cic-2.csv"
+		};
+		for (String fileName : files) {
+			File csv = new File("target/test-classes/" + fileName);
+			List<CsvTokenizer> opened = new ArrayList<>();
+			CsvCollector collector = new CsvCollector(csv) {
+				@Override
+				CsvTokenizer openTokenizer() throws IOException {
+					CsvTokenizer tokenizer = super.openTokenizer();
+					opened.add(tokenizer);
+					return tokenizer;
+				}
+			};
+			collector.validate();
+			collector.collect(null);
+			assertFalse(collector.getOperations().isEmpty(), "operations of " + fileName);
+			assertEquals(1, opened.size(), "file opened once: " + fileName);
+			// Mapped bytes of the charset detection and of the sampled ranges are counted too
+			assertEquals(csv.length(), opened.get(0).getMappedBytes(), "bytes read of " + fileName);
+		}
+	}
+
+	@Test
+	public void testParallelImportReadsFileOnce(@TempDir Path tempDir) throws IOException, CollectError, ParameterError {
+		// Bigger than the analysis budget: the sample reads ranges spread over the file
+		Path csv = new CsvGenerator(47).write(tempDir.resolve("sampled.csv"), 100_000);
+		assertTrue(Files.size(csv) > AnalysisBudget.DEFAULT.getMaxBytes());
+		List<CsvTokenizer> opened = new ArrayList<>();
+		CsvCollector collector = new CsvCollector(csv.toFile()) {
+			@Override
+			CsvTokenizer openTokenizer() throws IOException {
+				CsvTokenizer tokenizer = super.openTokenizer();
+				opened.add(tokenizer);
+				return tokenizer;
+			}
+		};
+		collector.setParallelism(4);
+		collector.setParallelThreshold(0);
+		long[] sent = new long[1];
+		collector.setOperationSink(operations -> sent[0] += operations.size());
+		collector.validate();
+		collector.collect(null);
+		assertEquals(100_000, sent[0]);
+		assertEquals(1, opened.size());
+		// Sampled ranges, the split in chunks and the parsed chunks read the window of the file
+		assertEquals(Files.size(csv), opened.get(0).getMappedBytes());
+	}
+
+	@Test
+	public void testImportWithSink() throws CollectError, ParameterError {
+		File csv = new File("target/test-classes/import-cic-2.csv");
+		List<OperationDto> received = new ArrayList<>();
+		List<Integer> batchSizes = new ArrayList<>();
+		CsvCollector collector = new CsvCollector(csv);
+		collector.setBatchSize(50);
+		collector.setOperationSink(operations -> {
+			batchSizes.add(operations.size());
+			received.addAll(operations);
+		});
+		collector.validate();
+		collector.collect(null);
+		assertTrue(collector.getOperations().isEmpty(), "operations sent to the sink only");
+		assertEquals(289, received.size());
+		assertEquals(6, batchSizes.size());
+		assertTrue(batchSizes.stream().allMatch(size -> size <= 50), "batch sizes " + batchSizes);
+		checkBankOperation(received.get(12), 2025, 1, 8, 2025, 1, 1, "F COTIS CP GLOBAL", -18.96, false);
+	}
+
+	@Test
+	public void testExactBalance(@TempDir Path tempDir) throws IOException, CollectError, ParameterError {
+		// 0.1 cannot be represented exactly: summing 100000 doubles drifts by several cents
+		StringBuilder content = new StringBuilder("Date;Valeur;Libelle;Montant\n");
+		for (int i = 0; i < 100_000; i++) {
+			content.append("02/01/2025;02/01/2025;OP ").append(i).append(i % 2 == 0 ? ";0,10\n" : ";-0,015\n");
+		}
+		Path csv = Files.write(tempDir.resolve("balance.csv"), content.toString().getBytes(StandardCharsets.UTF_8));
+		CsvCollector collector = new CsvCollector(csv.toFile());
+		collector.setOperationSink(operations -> { });
+		collector.validate();
+		collector.collect(null);
+		assertEquals(3, collector.getAmountScale());
+		assertEquals(4250.0, collector.getAccount().getCurrentBalance());
+	}
+
+	@Test
+	public void testManualImportWithMoreDecimals(@TempDir Path tempDir) throws IOException, CollectError, ParameterError {
+		String content = "date op, date value, label, credit, debit\n"
+				+ "2025-01-02, 2025-01-02, A,1.005,\n"
+				+ "2025-01-03, 2025-01-03, B,,12.3456\n"
+				+ "2025-01-04, 2025-01-04, C,0.1234567,\n"
+				+ "2025-01-05, 2025-01-05, D,,0.2500001\n";
+		Path csv = Files.write(tempDir.resolve("decimals.csv"), content.getBytes(StandardCharsets.UTF_8));
+		CsvCollector collector = new CsvCollector(csv.toFile(), false, 1, 2, 3, 4, 5, -1, CsvCollector.ColumnSeparator.COMMA, true, "yyyy-MM-dd", "#.#", CsvCollector.DecimalSeparator.DOT);
+		collector.validate();
+		collector.collect(null);
+		List<OperationDto> operations = collector.getOperations();
+		assertEquals(4, operations.size());
+		assertEquals(1.005, operations.get(0).getAmount());
+		assertEquals(-12.3456, operations.get(1).getAmount());
+		// More decimals than the 6 kept in manual mode: rounded, not rejected
+		assertEquals(0.123457, operations.get(2).getAmount());
+		assertEquals(-0.25, operations.get(3).getAmount());
+		assertEquals(2, collector.getRoundedCount());
+		assertEquals(-11.467143, collector.getAccount().getCurrentBalance(), 1e-9);
+	}
+
+	@Test
+	public void testIncrementalImport(@TempDir Path tempDir) throws IOException, CollectError, ParameterError {
+		Path csv = tempDir.resolve("incremental.csv");
+		Path checkpoints = Files.createDirectory(tempDir.resolve("checkpoints"));
+		Files.write(csv, rows(0, 50, true).getBytes(StandardCharsets.UTF_8));
+		CsvCollector first = incrementalCollector(csv, checkpoints);
+		first.collect(null);
+		assertEquals(50, first.getOperations().size());
+
+		Files.write(csv, rows(50, 70, false).getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		CsvCollector next = incrementalCollector(csv, checkpoints);
+		next.setAccount(first.getAccount());
+		next.collect(first.getAccounts());
+		List<OperationDto> operations = new ArrayList<>(next.getOperations());
+		assertEquals(20, operations.size());
+		assertEquals("OP 50", operations.get(0).getLabel());
+		assertEquals("OP 69", operations.get(19).getLabel());
+
+		// Balance is the one of a full import
+		CsvCollector full = incrementalCollector(csv, tempDir.toFile());
+		full.collect(null);
+		assertEquals(70, full.getOperations().size());
+		assertEquals(full.getAccount().getCurrentBalance(), next.getAccount().getCurrentBalance(), 1e-9);
+
+		// Nothing appended since
+		CsvCollector unchanged = incrementalCollector(csv, checkpoints);
+		unchanged.collect(next.getAccounts());
+		assertTrue(unchanged.getOperations().isEmpty());
+	}
+
+	@Test
+	public void testIncrementalImportOfChangedFile(@TempDir Path tempDir) throws IOException, CollectError, ParameterError {
+		Path csv = tempDir.resolve("changed.csv");
+		Path checkpoints = Files.createDirectory(tempDir.resolve("checkpoints"));
+		Files.write(csv, rows(0, 50, true).getBytes(StandardCharsets.UTF_8));
+		CsvCollector first = incrementalCollector(csv, checkpoints);
+		first.collect(null);
+
+		// Rows before the checkpoint are rewritten: the whole file is imported
+		Files.write(csv, (rows(0, 50, true).replace("OP 49", "OP 4X") + rows(50, 60, false)).getBytes(StandardCharsets.UTF_8));
+		CsvCollector next = incrementalCollector(csv, checkpoints);
+		next.collect(first.getAccounts());
+		assertEquals(60, next.getOperations().size());
+
+		// Not incremental: the whole file is imported, even with a previous collect
+		CsvCollector again = incrementalCollector(csv, checkpoints);
+		again.setIncremental(false);
+		again.collect(Collections.emptyList());
+		assertEquals(60, again.getOperations().size());
+	}
+
+	@Test
+	public void testIncrementalImportOfFileChangedInTheMiddle(@TempDir Path tempDir) throws IOException, CollectError, ParameterError {
+		Path csv = tempDir.resolve("middle.csv");
+		Path checkpoints = Files.createDirectory(tempDir.resolve("checkpoints"));
+		// Several hash blocks
+		String content = rows(0, 100_000, true);
+		Files.write(csv, content.getBytes(StandardCharsets.UTF_8));
+		assertTrue(Files.size(csv) > 2 * ImportCheckpoint.HASH_BLOCK);
+		CsvCollector first = incrementalCollector(csv, checkpoints);
+		first.collect(null);
+
+		// A row far from the start and the end of the imported rows is rewritten
+		Files.write(csv, (content.replace(";OP 50000;", ";OP 5000X;") + rows(100_000, 100_010, false)).getBytes(StandardCharsets.UTF_8));
+		CsvCollector next = incrementalCollector(csv, checkpoints);
+		next.collect(first.getAccounts());
+		assertEquals(100_010, next.getOperations().size());
+		assertEquals("OP 5000X", next.getOperations().get(50_000).getLabel());
+
+		// Rows appended since: only they are imported
+		Files.write(csv, rows(100_010, 100_020, false).getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		CsvCollector last = incrementalCollector(csv, checkpoints);
+		last.setAccount(next.getAccount());
+		last.collect(next.getAccounts());
+		assertEquals(10, last.getOperations().size());
+		CsvCollector full = incrementalCollector(csv, tempDir.toFile());
+		full.collect(null);
+		assertEquals(full.getAccount().getCurrentBalance(), last.getAccount().getCurrentBalance(), 1e-9);
+	}
+
+	@Test
+	public void testIncrementalImportKeepsAccountBalance(@TempDir Path tempDir) throws IOException, CollectError, ParameterError {
+		Path csv = tempDir.resolve("balance.csv");
+		Path checkpoints = Files.createDirectory(tempDir.resolve("checkpoints"));
+		Files.write(csv, rows(0, 50, true).getBytes(StandardCharsets.UTF_8));
+		CsvCollector first = incrementalCollector(csv, checkpoints);
+		first.collect(null);
+
+		// The balance is corrected by the user after the import
+		AccountDto account = first.getAccount();
+		account.setCurrentBalance(account.getCurrentBalance() + 100);
+		Files.write(csv, rows(50, 70, false).getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		CsvCollector next = incrementalCollector(csv, checkpoints);
+		next.setAccount(account);
+		next.collect(null);
+		assertEquals(20, next.getOperations().size());
+
+		CsvCollector full = incrementalCollector(csv, tempDir.toFile());
+		full.collect(null);
+		assertEquals(full.getAccount().getCurrentBalance() + 100, account.getCurrentBalance(), 1e-9);
+	}
+
+	@Test
+	public void testIncrementalImportWithEmptyAndRejectedLines(@TempDir Path tempDir) throws IOException, CollectError, ParameterError {
+		String content = rows(0, 10, true) + "\n\n" + rows(10, 20, false);
+		String bad = "31/02/2025;31/02/2025;BAD DATE;1,00\n";
+		String appended = "\n" + bad + rows(20, 30, false);
+		for (int parallelism : new int[] { 1, 4 }) {
+			Path csv = tempDir.resolve("lines-" + parallelism + ".csv");
+			Path checkpoints = Files.createDirectory(tempDir.resolve("checkpoints-" + parallelism));
+			Files.write(csv, content.getBytes(StandardCharsets.UTF_8));
+			CsvCollector first = incrementalCollector(csv, checkpoints);
+			first.collect(null);
+			assertEquals(20, first.getOperations().size());
+
+			Files.write(csv, appended.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+			CsvCollector next = incrementalCollector(csv, checkpoints);
+			next.setParallelism(parallelism);
+			next.setParallelThreshold(0);
+			next.setErrorBudget(1, 0.0);
+			next.collect(null);
+			assertEquals(10, next.getOperations().size());
+			// Header, 10 rows, 2 empty lines, 10 rows and 1 empty line are before it
+			assertEquals(25, next.getRejectReport().getRejectedRows().get(0).getLineNumber());
+			assertFalse(ImportCheckpoint.getFile(checkpoints.toFile(), csv.toFile()).exists());
+
+			// No checkpoint: the whole file is read again, once the rejected row is fixed
+			Files.write(csv, (content + appended.replace(bad, "28/02/2025;28/02/2025;FIXED;1,00\n")).getBytes(StandardCharsets.UTF_8));
+			CsvCollector fixed = incrementalCollector(csv, checkpoints);
+			fixed.collect(null);
+			assertEquals(31, fixed.getOperations().size());
+			assertEquals(0, fixed.getRejectReport().getRejectedCount());
+			assertTrue(ImportCheckpoint.getFile(checkpoints.toFile(), csv.toFile()).exists());
+		}
+	}
+
+	@Test
+	public void testKnownOperationsAreSkipped(@TempDir Path tempDir) throws IOException, CollectError, ParameterError {
+		Path january = Files.write(tempDir.resolve("january.csv"), rows(0, 50, true).getBytes(StandardCharsets.UTF_8));
+		CsvCollector first = new CsvCollector(january.toFile());
+		first.validate();
+		first.collect(null);
+
+		// The second export overlaps the first one
+		Path february = Files.write(tempDir.resolve("february.csv"), rows(30, 70, true).getBytes(StandardCharsets.UTF_8));
+		for (int parallelism : new int[] { 1, 4 }) {
+			CsvCollector next = new CsvCollector(february.toFile());
+			next.setParallelism(parallelism);
+			next.setParallelThreshold(0);
+			next.setKnownOperations(first.getOperations());
+			next.validate();
+			next.collect(null);
+			List<OperationDto> operations = new ArrayList<>(next.getOperations());
+			assertEquals(20, operations.size());
+			assertEquals(20, next.getDuplicateCount());
+			assertEquals("OP 50", operations.get(0).getLabel());
+		}
+	}
+
+	@Test
+	public void testOperationIndexFile(@TempDir Path tempDir) throws IOException, CollectError, ParameterError {
+		File indexFile = tempDir.resolve("operations.index").toFile();
+		Path january = Files.write(tempDir.resolve("january.csv"), rows(0, 50, true).getBytes(StandardCharsets.UTF_8));
+		CsvCollector first = new CsvCollector(january.toFile());
+		first.setOperationIndexFile(indexFile);
+		first.validate();
+		first.collect(null);
+		assertEquals(50, first.getOperations().size());
+		assertTrue(indexFile.isFile());
+
+		Path february = Files.write(tempDir.resolve("february.csv"), rows(30, 70, true).getBytes(StandardCharsets.UTF_8));
+		CsvCollector next = new CsvCollector(february.toFile());
+		next.setOperationIndexFile(indexFile);
+		next.validate();
+		next.collect(null);
+		assertEquals(20, next.getOperations().size());
+		assertEquals(70, OperationIndex.load(indexFile).size());
+	}
+
+	@Test
+	public void testIdenticalOperationsAreKept(@TempDir Path tempDir) throws IOException, CollectError, ParameterError {
+		// Two identical payments on the same day are two operations
+		String twin = "05/01/2025;05/01/2025;CB BOULANGERIE;-2,50\n";
+		Path csv = Files.write(tempDir.resolve("january.csv"), (rows(0, 10, true) + twin + twin).getBytes(StandardCharsets.UTF_8));
+		Path once = Files.write(tempDir.resolve("once.csv"), (rows(0, 10, true) + twin).getBytes(StandardCharsets.UTF_8));
+		CsvCollector previous = new CsvCollector(once.toFile());
+		previous.validate();
+		previous.collect(null);
+		for (int parallelism : new int[] { 1, 4 }) {
+			File indexFile = tempDir.resolve("operations-" + parallelism + ".index").toFile();
+			CsvCollector first = new CsvCollector(csv.toFile());
+			first.setParallelism(parallelism);
+			first.setParallelThreshold(0);
+			first.setOperationIndexFile(indexFile);
+			first.validate();
+			first.collect(null);
+			assertEquals(12, first.getOperations().size());
+			assertEquals(0, first.getDuplicateCount());
+			assertEquals(12, OperationIndex.load(indexFile).size());
+
+			// Only one of the twins was imported before
+			CsvCollector next = new CsvCollector(csv.toFile());
+			next.setParallelism(parallelism);
+			next.setParallelThreshold(0);
+			next.setKnownOperations(previous.getOperations());
+			next.validate();
+			next.collect(null);
+			assertEquals(1, next.getOperations().size());
+			assertEquals(11, next.getDuplicateCount());
+			assertEquals("CB BOULANGERIE", next.getOperations().iterator().next().getLabel());
+
+			// Both twins were imported before
+			CsvCollector again = new CsvCollector(csv.toFile());
+			again.setParallelism(parallelism);
+			again.setParallelThreshold(0);
+			again.setOperationIndexFile(indexFile);
+			again.validate();
+			again.collect(null);
+			assertEquals(0, again.getOperations().size());
+			assertEquals(12, again.getDuplicateCount());
+			assertEquals(12, OperationIndex.load(indexFile).size());
+		}
+	}
+
+	@Test
+	public void testRepeatedLabelsAreShared() throws CollectError, ParameterError {
+		File csv = new File("target/test-classes/import-nrow.csv");
+		CsvCollector collector = new CsvCollector(csv);
+		collector.validate();
+		collector.collect(null);
+		List<OperationDto> operations = new ArrayList<>(collector.getOperations());
+		int count = 0;
+		Set<String> instances = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (OperationDto operation : operations) {
+			if (operation.getLabel().equals("PRLV TRESOR PUBLIC 35 I 005002")) {
+				count++;
+				instances.add(operation.getLabel());
+			}
+		}
+		assertTrue(count > 10);
+		assertEquals(1, instances.size());
+
+		CsvCollector unpooled = new CsvCollector(csv);
+		unpooled.setLabelPoolSize(0);
+		unpooled.validate();
+		unpooled.collect(null);
+		assertEquals(operations.size(), unpooled.getOperations().size());
+	}
+
+	@Test
+	public void testTolerantImport(@TempDir Path tempDir) throws IOException, CollectError, ParameterError {
+		String content = rows(0, 20, true) + "31/02/2025;31/02/2025;BAD DATE;1,00\n" + rows(20, 40, false) + "Total;;;123,45\n";
+		Path csv = Files.write(tempDir.resolve("tolerant.csv"), content.getBytes(StandardCharsets.UTF_8));
+		for (int parallelism : new int[] { 1, 4 }) {
+			CsvCollector collector = tolerantCollector(csv, parallelism);
+			collector.setErrorBudget(2, 0.0);
+			collector.collect(null);
+			assertEquals(40, collector.getOperations().size());
+			RejectReport report = collector.getRejectReport();
+			assertEquals(2, report.getRejectedCount());
+			assertEquals(42, report.getRowCount());
+			List<RejectedRow> rejected = report.getRejectedRows();
+			assertEquals(22, rejected.get(0).getLineNumber());
+			assertEquals(content.indexOf("31/02"), rejected.get(0).getOffset());
+			assertEquals("31/02/2025;31/02/2025;BAD DATE;1,00", rejected.get(0).getLine());
+			assertEquals(43, rejected.get(1).getLineNumber());
+			assertEquals("Total;;;123,45", rejected.get(1).getLine());
+		}
+
+		// Budget given as a ratio
+		CsvCollector ratio = tolerantCollector(csv, 1);
+		ratio.setErrorBudget(0, 0.05);
+		ratio.collect(null);
+		assertEquals(40, ratio.getOperations().size());
+
+		// Budget exceeded: rows before the second rejected row are imported
+		for (int parallelism : new int[] { 1, 4 }) {
+			CsvCollector strict = tolerantCollector(csv, parallelism);
+			strict.setErrorBudget(1, 0.0);
+			assertThrows(ParameterError.class, () -> strict.collect(null));
+			assertEquals(40, strict.getOperations().size());
+			assertEquals(2, strict.getRejectReport().getRejectedCount());
+		}
+
+		// No budget: the first rejected row aborts the import
+		CsvCollector strict = tolerantCollector(csv, 1);
+		assertThrows(ParameterError.class, () -> strict.collect(null));
+		assertEquals(20, strict.getOperations().size());
+		assertEquals(22, strict.getRejectReport().getRejectedRows().get(0).getLineNumber());
+	}
+
+	@Test
+	public void testRatioBudgetWithEarlyRejectedRow(@TempDir Path tempDir) throws IOException, CollectError, ParameterError {
+		// The first data row is rejected: 1 row out of 200 is within 1%, though not of the rows read so far
+		String content = rows(0, 0, true) + "31/02/2025;31/02/2025;BAD DATE;1,00\n" + rows(0, 199, false);
+		Path csv = Files.write(tempDir.resolve("early.csv"), content.getBytes(StandardCharsets.UTF_8));
+		for (int parallelism : new int[] { 1, 4 }) {
+			CsvCollector collector = tolerantCollector(csv, parallelism);
+			collector.setErrorBudget(0, 0.01);
+			collector.collect(null);
+			assertEquals(199, collector.getOperations().size());
+			assertEquals(1, collector.getRejectReport().getRejectedCount());
+			assertEquals(200, collector.getRejectReport().getRowCount());
+		}
+
+		// 1 row out of 50 is more than 1%: the import fails once all rows are read
+		String small = rows(0, 0, true) + "31/02/2025;31/02/2025;BAD DATE;1,00\n" + rows(0, 49, false);
+		Path smallCsv = Files.write(tempDir.resolve("small.csv"), small.getBytes(StandardCharsets.UTF_8));
+		for (int parallelism : new int[] { 1, 4 }) {
+			CsvCollector collector = tolerantCollector(smallCsv, parallelism);
+			collector.setErrorBudget(0, 0.01);
+			assertThrows(ParameterError.class, () -> collector.collect(null));
+			assertEquals(1, collector.getRejectReport().getRejectedCount());
+			assertEquals(50, collector.getRejectReport().getRowCount());
+		}
+	}
+
+	private static CsvCollector tolerantCollector(Path csv, int parallelism) {
+		CsvCollector collector = new CsvCollector(csv.toFile(), false, 1, 2, 3, -1, -1, 4, CsvCollector.ColumnSeparator.SEMICOLON, true, "dd/MM/yyyy", "#.#", CsvCollector.DecimalSeparator.COMMA);
+		collector.setParallelism(parallelism);
+		collector.setParallelThreshold(0);
+		collector.validate();
+		return collector;
+	}
+
+	private static String rows(int from, int to, boolean header) {
+		StringBuilder content = new StringBuilder(header ? "Date;Valeur;Libelle;Montant\n" : "");
+		for (int i = from; i < to; i++) {
+			content.append(String.format("%02d/01/2025;%02d/01/2025;OP %d;%d,%02d%n", 1 + i % 28, 1 + i % 28, i, i - 30, i % 100));
+		}
+		return content.toString();
+	}
+
+	private static CsvCollector incrementalCollector(Path csv, Path checkpoints) {
+		return incrementalCollector(csv, checkpoints.toFile());
+	}
+
+	private static CsvCollector incrementalCollector(Path csv, File checkpoints) {
+		CsvCollector collector = new CsvCollector(csv.toFile());
+		collector.setCheckpointDirectory(checkpoints);
+		collector.setIncremental(true);
+		collector.validate();
+		return collector;
+	}
+
 	private void checkResult(List<OperationDto> entities) {
 		checkResult(entities, false);
 	}
@@ -0,0 +1,134 @@
+package com.tibudget.plugins.csv;
+
+import com.tibudget.api.exceptions.CollectError;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImportMetricsTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testMetrics() throws Exception {
+        Path csv = new CsvGenerator(1).write(tempDir.resolve("metrics.csv"), 25_000);
+        List<ImportMetrics> finished = new ArrayList<>();
+        ImportStatistics statistics = new ImportStatistics();
+        CsvCollector collector = collector(csv.toFile(), new CsvFormatCache(1), statistics);
+        collector.setMetricsListener(finished::add);
+        collector.collect(null);
+
+        ImportMetrics metrics = collector.getMetrics();
+        assertEquals(1, finished.size());
+        assertSame(metrics, finished.get(0));
+        assertTrue(metrics.isFinished());
+        assertFalse(metrics.isFailed());
+        assertFalse(metrics.isFormatCacheHit());
+        assertEquals(25_000, metrics.getRowCount());
+        assertTrue(metrics.getByteCount() > 25_000 * 40 && metrics.getByteCount() < csv.toFile().length());
+        assertEquals(0, metrics.getRejectedRowCount());
+        // Header and 25000 rows: the first 2 blocks of 10000 rows
+        assertEquals(2, metrics.getBlockCount());
+        assertTrue(metrics.getBlockLatencyPercentile(100) > 0);
+        for (ImportMetrics.Stage stage : ImportMetrics.Stage.values()) {
+            assertTrue(metrics.getStageNanos(stage) > 0, stage.name());
+        }
+        assertTrue(metrics.getRowsPerSecond() > 0);
+        assertTrue(metrics.getBytesPerSecond() > metrics.getRowsPerSecond());
+
+        // Same file again, its format is cached
+        collector = collector(csv.toFile(), collector.getFormatCache(), statistics);
+        collector.collect(null);
+        assertTrue(collector.getMetrics().isFormatCacheHit());
+        assertEquals(0, collector.getMetrics().getStageNanos(ImportMetrics.Stage.DATE_DETECTION));
+
+        assertEquals(2, statistics.getImportCount());
+        assertEquals(0, statistics.getFailedImportCount());
+        assertEquals(50_000, statistics.getRowCount());
+        assertEquals(1, statistics.getFormatCacheHitCount());
+        assertEquals(4, Arrays.stream(statistics.getBlockLatencyHistogram()).sum());
+        assertEquals(ImportMetrics.Stage.values().length, statistics.getStageMillis().size());
+        statistics.reset();
+        assertEquals(0, statistics.getImportCount());
+    }
+
+    @Test
+    void testParallelMetrics() throws Exception {
+        Path csv = new CsvGenerator(1).write(tempDir.resolve("metrics.csv"), 50_000);
+        CsvCollector collector = collector(csv.toFile(), null, null);
+        collector.setParallelism(4);
+        collector.setParallelThreshold(0);
+        collector.collect(null);
+        ImportMetrics metrics = collector.getMetrics();
+        assertEquals(50_000, metrics.getRowCount());
+        // Blocks are counted by each thread, the rows of a chunk that do not fill a block are not
+        assertTrue(metrics.getBlockCount() <= 5);
+        assertTrue(metrics.getStageNanos(ImportMetrics.Stage.TOKENIZING) > 0);
+    }
+
+    @Test
+    void testFailedImport() throws Exception {
+        ImportStatistics statistics = new ImportStatistics();
+        CsvCollector collector = collector(tempDir.resolve("missing.csv").toFile(), null, statistics);
+        List<ImportMetrics> finished = new ArrayList<>();
+        collector.setMetricsListener(finished::add);
+        assertThrows(CollectError.class, () -> collector.collect(null));
+        assertEquals(1, finished.size());
+        assertTrue(finished.get(0).isFailed());
+        assertEquals(1, statistics.getFailedImportCount());
+    }
+
+    @Test
+    void testPercentile() {
+        long[] histogram = new long[ImportMetrics.HISTOGRAM_BUCKETS];
+        assertEquals(0, ImportMetrics.percentile(histogram, 99));
+        // 1 ms blocks, and one of 40 ms
+        histogram[ImportMetrics.bucketOf(1000)] = 99;
+        histogram[ImportMetrics.bucketOf(40_000)] = 1;
+        assertEquals(1024, ImportMetrics.percentile(histogram, 50));
+        assertEquals(1024, ImportMetrics.percentile(histogram, 99));
+        assertEquals(65536, ImportMetrics.percentile(histogram, 100));
+        assertEquals(0, ImportMetrics.bucketOf(0));
+        assertEquals(ImportMetrics.HISTOGRAM_BUCKETS - 1, ImportMetrics.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    void testMBean() throws Exception {
+        ImportStatistics statistics = ImportStatistics.getShared();
+        ObjectName name = statistics.registerMBean();
+        try {
+            assertEquals(name, statistics.registerMBean());
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            long imports = (Long) server.getAttribute(name, "ImportCount");
+            Path csv = new CsvGenerator(1).write(tempDir.resolve("mbean.csv"), 100);
+            // Collectors add their metrics to the shared statistics by default
+            collector(csv.toFile(), null, ImportStatistics.getShared()).collect(null);
+            assertTrue((Long) server.getAttribute(name, "ImportCount") > imports);
+            assertTrue(server.getAttribute(name, "StageMillis") instanceof TabularData);
+        } finally {
+            statistics.unregisterMBean();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    private static CsvCollector collector(File file, CsvFormatCache formatCache, ImportStatistics statistics) {
+        CsvCollector collector = new CsvCollector(file);
+        collector.setFormatCache(formatCache);
+        collector.setStatistics(statistics);
+        collector.setOperationSink(operations -> { });
+        collector.validate();
+        return collector;
+    }
+}
@@ -0,0 +1,80 @@
+package com.tibudget.plugins.csv;
+
+import com.tibudget.api.exceptions.CollectError;
+import com.tibudget.api.exceptions.ParameterError;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Heap held by each imported operation, with and without the label pool, on <code>import-nrow.csv</code> repeated
+ * up to 1 million rows. Run it with <code>mvn test -Pbenchmark</code>.
+ */
+@Tag("benchmark")
+public class LabelPoolBenchmark {
+
+    private static final int ROWS = Integer.getInteger("benchmark.rows", 1_000_000);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void benchmarkHeapPerOperation() throws IOException, CollectError, ParameterError {
+        Path csv = scaledFile(tempDir.resolve("nrow.csv"), ROWS);
+        System.out.printf("File: %d rows, %.1f MB%n", ROWS, Files.size(csv) / (1024.0 * 1024.0));
+        for (int poolSize : new int[] { 0, LabelPool.DEFAULT_CAPACITY }) {
+            long before = usedHeap();
+            CsvCollector collector = new CsvCollector(csv.toFile());
+            collector.setLabelPoolSize(poolSize);
+            collector.validate();
+            long start = System.nanoTime();
+            collector.collect(null);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long after = usedHeap();
+            int count = collector.getOperations().size();
+            System.out.printf("Label pool %5d: %d operations, %6.1f bytes/operation, %.3f s%n",
+                    poolSize, count, (after - before) / (double) count, seconds);
+        }
+    }
+
+    /**
+     * Repeats the rows of <code>import-nrow.csv</code> (windows-1252) after its header.
+     */
+    private static Path scaledFile(Path target, int rows) throws IOException {
+        byte[] content = Files.readAllBytes(Path.of("target/test-classes/import-nrow.csv"));
+        int headerEnd = 0;
+        while (content[headerEnd] != '\n') {
+            headerEnd++;
+        }
+        // The last row has no line break
+        byte[] body = Arrays.copyOfRange(content, headerEnd + 1, content.length + 1);
+        body[body.length - 1] = '\n';
+        int bodyRows = 0;
+        for (byte b : body) {
+            if (b == '\n') {
+                bodyRows++;
+            }
+        }
+        try (OutputStream out = Files.newOutputStream(target)) {
+            out.write(content, 0, headerEnd + 1);
+            for (int written = 0; written < rows; written += bodyRows) {
+                out.write(body);
+            }
+        }
+        return target;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,41 @@
+package com.tibudget.plugins.csv;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LabelPoolTest {
+
+    @Test
+    void testRepeatedLabelIsShared() {
+        LabelPool pool = new LabelPool(16);
+        char[] chars = "xxPRLV TRESOR PUBLICyy".toCharArray();
+        String first = pool.intern(chars, 2, 20);
+        assertEquals("PRLV TRESOR PUBLIC", first);
+        String second = pool.intern("PRLV TRESOR PUBLIC".toCharArray(), 0, 18);
+        assertSame(first, second);
+        assertEquals("", pool.intern(chars, 3, 3));
+    }
+
+    @Test
+    void testPoolIsBounded() {
+        LabelPool pool = new LabelPool(10);
+        assertEquals(16, pool.capacity());
+        String first = pool.intern("OP 0".toCharArray(), 0, 4);
+        for (int i = 1; i < 1000; i++) {
+            char[] chars = ("OP " + i).toCharArray();
+            assertEquals("OP " + i, pool.intern(chars, 0, chars.length));
+        }
+        // Evicted labels are created again, with the same value
+        String again = pool.intern("OP 0".toCharArray(), 0, 4);
+        assertEquals(first, again);
+    }
+
+    @Test
+    void testLongLabelIsNotPooled() {
+        LabelPool pool = new LabelPool(16);
+        char[] chars = new char[LabelPool.MAX_LENGTH + 1];
+        java.util.Arrays.fill(chars, 'A');
+        assertNotSame(pool.intern(chars, 0, chars.length), pool.intern(chars, 0, chars.length));
+    }
+}
@@ -0,0 +1,155 @@
+package com.tibudget.plugins.csv;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.tibudget.api.exceptions.CollectError;
+import com.tibudget.api.exceptions.ParameterError;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Imports of large generated files in a small heap. Run it with <code>mvn test -Psoak</code> (the profile sets
+ * <code>-Xmx256m</code>), and <code>-Dsoak.rows=50000000</code> for a multi-GB file.
+ * <p>
+ * Operations are streamed to a sink that drops them, so the heap used by the import must not depend on the size
+ * of the file: the live heap (measured after each garbage collection) is bounded by <code>soak.maxLiveHeapMb</code>
+ * and the time per row must stay the same from a quarter of the rows to all of them.
+ */
+@Tag("soak")
+public class LargeFileSoakTest {
+
+    private static final int ROWS = Integer.getInteger("soak.rows", 10_000_000);
+
+    private static final long MAX_LIVE_HEAP = Long.getLong("soak.maxLiveHeapMb", 64) * 1024 * 1024;
+
+    /**
+     * Allowed ratio between the time per row of the biggest and the smallest file.
+     */
+    private static final double MAX_TIME_RATIO = 2.0;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testBoundedHeap() throws IOException, CollectError, ParameterError {
+        System.out.printf("Max heap: %d MB%n", Runtime.getRuntime().maxMemory() / (1024 * 1024));
+        double smallestNanosPerRow = 0;
+        long smallestLiveHeap = 0;
+        for (int rows : new int[] { ROWS / 4, ROWS / 2, ROWS }) {
+            Path csv = new CsvGenerator(1).write(tempDir.resolve("soak-" + rows + ".csv"), rows);
+            long bytes = Files.size(csv);
+            AtomicLong operations = new AtomicLong();
+            CsvCollector collector = new CsvCollector(csv.toFile());
+            collector.setFormatCache(null);
+            collector.setOperationSink(batch -> operations.addAndGet(batch.size()));
+            collector.validate();
+
+            long liveHeap;
+            long start;
+            long nanos;
+            try (LiveHeapMonitor monitor = new LiveHeapMonitor()) {
+                start = System.nanoTime();
+                collector.collect(null);
+                nanos = System.nanoTime() - start;
+                liveHeap = monitor.getPeak();
+            }
+            Files.delete(csv);
+
+            assertEquals(rows, operations.get(), "operations");
+            double nanosPerRow = nanos / (double) rows;
+            System.out.printf("%,11d rows, %,6d MB: %6.2f s, %6.0f ns/row, %5.1f MB/s, live heap %5.1f MB, %.2f bytes/row%n",
+                    rows, bytes / (1024 * 1024), nanos / 1e9, nanosPerRow, bytes / (1024.0 * 1024.0) / (nanos / 1e9),
+                    liveHeap / (1024.0 * 1024.0), liveHeap / (double) rows);
+            assertTrue(liveHeap <= MAX_LIVE_HEAP, "live heap " + liveHeap + " > " + MAX_LIVE_HEAP);
+            if (smallestNanosPerRow == 0) {
+                smallestNanosPerRow = nanosPerRow;
+                smallestLiveHeap = liveHeap;
+            }
+            else {
+                assertTrue(nanosPerRow <= smallestNanosPerRow * MAX_TIME_RATIO,
+                        "time per row " + nanosPerRow + " ns > " + MAX_TIME_RATIO + " x " + smallestNanosPerRow + " ns");
+                // Four times more rows must not hold more memory (16 MB of slack for the collector timing)
+                assertTrue(liveHeap <= smallestLiveHeap * 2 + 16 * 1024 * 1024,
+                        "live heap grows with the file: " + smallestLiveHeap + " then " + liveHeap);
+            }
+        }
+    }
+
+    /**
+     * Highest heap used after a garbage collection, while it is open. A first collection is requested when it is
+     * created so that garbage of the previous imports is not counted.
+     */
+    private static final class LiveHeapMonitor implements NotificationListener, AutoCloseable {
+
+        private final Set<String> heapPools = new HashSet<>();
+
+        private final AtomicLong peak = new AtomicLong();
+
+        LiveHeapMonitor() {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    heapPools.add(pool.getName());
+                }
+            }
+            System.gc();
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                ((NotificationEmitter) gc).addNotificationListener(this, null, null);
+            }
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            long used = 0;
+            for (java.util.Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+                if (heapPools.contains(pool.getKey())) {
+                    used += pool.getValue().getUsed();
+                }
+            }
+            peak.accumulateAndGet(used, Math::max);
+        }
+
+        /**
+         * @return The highest heap used after a collection, or the heap used now if no collection happened
+         */
+        long getPeak() {
+            if (peak.get() == 0) {
+                MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+                return heap.getUsed();
+            }
+            return peak.get();
+        }
+
+        @Override
+        public void close() {
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                try {
+                    ((NotificationEmitter) gc).removeNotificationListener(this);
+                } catch (javax.management.ListenerNotFoundException e) {
+                    // Not registered
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.tibudget.plugins.csv;
+
+import com.tibudget.dto.OperationDto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OperationIndexTest {
+
+    @Test
+    void testLongHashSet() {
+        LongHashSet set = new LongHashSet(0);
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        Random random = new Random(42);
+        long[] values = new long[10_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong();
+            set.add(values[i]);
+        }
+        // Sequential values share their high bits
+        for (long i = 1; i <= 1000; i++) {
+            set.add(i);
+        }
+        assertEquals(values.length + 1001, set.size());
+        for (long value : values) {
+            assertTrue(set.contains(value));
+        }
+        for (long i = 0; i <= 1000; i++) {
+            assertTrue(set.contains(i));
+        }
+        assertFalse(set.contains(1001));
+        long[] array = set.toArray();
+        assertEquals(set.size(), array.length);
+        Arrays.sort(array);
+        assertEquals(0, array[Arrays.binarySearch(array, 0)]);
+    }
+
+    @Test
+    void testBloomFilter() {
+        int count = 100_000;
+        BloomFilter filter = new BloomFilter(count, 0.01);
+        for (long i = 0; i < count; i++) {
+            filter.add(OperationIndex.key(i, i, "OP"));
+        }
+        for (long i = 0; i < count; i++) {
+            assertTrue(filter.mightContain(OperationIndex.key(i, i, "OP")));
+        }
+        int falsePositives = 0;
+        for (long i = count; i < 2 * count; i++) {
+            if (filter.mightContain(OperationIndex.key(i, i, "OP"))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < count * 0.02, "False positives: " + falsePositives);
+        // About 9.6 bits per value for 1%
+        assertTrue(filter.getMemorySize() < count * 10 / 8 + 64);
+    }
+
+    @Test
+    void testKey() {
+        assertEquals(OperationIndex.key(100, 1234, "CB  Carrefour "), OperationIndex.key(100, 1234, " cb carrefour"));
+        assertNotEquals(OperationIndex.key(100, 1234, "CB CARREFOUR"), OperationIndex.key(101, 1234, "CB CARREFOUR"));
+        assertNotEquals(OperationIndex.key(100, 1234, "CB CARREFOUR"), OperationIndex.key(100, -1234, "CB CARREFOUR"));
+        assertNotEquals(OperationIndex.key(100, 1234, "CB CARREFOUR"), OperationIndex.key(100, 1234, "CBCARREFOUR"));
+        assertEquals(-12346000, OperationIndex.units(-12.346));
+        assertEquals(100000, OperationIndex.units(0.1));
+        // The same amount in minor units of any scale has the same key
+        assertEquals(OperationIndex.units(1234, 2), OperationIndex.units(12340, 3));
+        assertEquals(OperationIndex.units(12.34), OperationIndex.units(1234, 2));
+    }
+
+    @Test
+    void testOccurrences() {
+        long key = OperationIndex.key(100, 1234, "CB CARREFOUR");
+        OperationIndex index = new OperationIndex(0);
+        assertEquals(0, index.count(key));
+        index.add(key);
+        index.add(key);
+        assertEquals(2, index.count(key));
+        assertEquals(2, index.size());
+        assertTrue(index.contains(key));
+
+        // Each occurrence is matched once, in file order
+        OperationIndex.Matcher matcher = index.matcher();
+        assertTrue(matcher.match(key));
+        assertTrue(matcher.match(key));
+        assertFalse(matcher.match(key));
+        assertFalse(matcher.match(OperationIndex.key(100, 1234, "CB AUCHAN")));
+        assertTrue(index.matcher().match(key));
+    }
+
+    @Test
+    void testOperationKey() {
+        DateParser parser = DateParser.compile("dd/MM/yyyy");
+        long day = parser.parseEpochDay("03/02/2025");
+        OperationDto operation = new OperationDto("account", OperationDto.OperationDtoType.PAYMENT, parser.toDate(day),
+                parser.toDate(day + 2), "Loyer", "", -650.5);
+        assertEquals(OperationIndex.key(day, OperationIndex.units(-65050, 2), "LOYER"), OperationIndex.key(operation));
+        OperationIndex index = OperationIndex.of(Arrays.asList(operation));
+        assertTrue(index.contains(operation));
+        assertTrue(index.isExact());
+    }
+
+    @Test
+    void testLargeIndexIsBloomFilter() {
+        OperationIndex index = new OperationIndex(10_000_000);
+        assertFalse(index.isExact());
+        // 10 million operations in tens of MB
+        assertTrue(index.getMemorySize() < 20 * 1024 * 1024, "Memory: " + index.getMemorySize());
+    }
+
+    @Test
+    void testExactIndexTurnsIntoBloomFilter() {
+        OperationIndex index = new OperationIndex(0);
+        for (long i = 0; i <= OperationIndex.EXACT_LIMIT; i++) {
+            index.add(OperationIndex.key(i, 0, ""));
+        }
+        assertFalse(index.isExact());
+        assertEquals(OperationIndex.EXACT_LIMIT + 1, index.size());
+        for (long i = 0; i <= OperationIndex.EXACT_LIMIT; i++) {
+            assertTrue(index.contains(OperationIndex.key(i, 0, "")));
+        }
+    }
+
+    @Test
+    void testStoreAndLoad(@TempDir Path tempDir) throws IOException {
+        File file = tempDir.resolve("operations.index").toFile();
+        OperationIndex exact = new OperationIndex(10);
+        exact.add(OperationIndex.key(1, 2, "A"));
+        exact.store(file);
+        OperationIndex loaded = OperationIndex.load(file);
+        assertTrue(loaded.isExact());
+        assertEquals(1, loaded.size());
+        assertTrue(loaded.contains(OperationIndex.key(1, 2, "A")));
+        assertFalse(loaded.contains(OperationIndex.key(1, 2, "B")));
+
+        OperationIndex bloom = new OperationIndex(OperationIndex.EXACT_LIMIT + 1);
+        bloom.add(OperationIndex.key(1, 2, "A"));
+        bloom.store(file);
+        loaded = OperationIndex.load(file);
+        assertFalse(loaded.isExact());
+        assertTrue(loaded.contains(OperationIndex.key(1, 2, "A")));
+    }
+}
@@ -0,0 +1,60 @@
+package com.tibudget.plugins.csv;
+
+import com.tibudget.api.exceptions.CollectError;
+import com.tibudget.api.exceptions.ParameterError;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Scaling of the parallel import from 1 thread to the number of cores. Run it with <code>mvn test -Pbenchmark</code>.
+ */
+@Tag("benchmark")
+public class ParallelImportBenchmark {
+
+    private static final int ROWS = Integer.getInteger("benchmark.rows", 2_000_000);
+
+    private static final int MAX_THREADS = Integer.getInteger("benchmark.threads", Runtime.getRuntime().availableProcessors());
+
+    private static final int RUNS = 3;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void benchmarkScaling() throws IOException, CollectError, ParameterError {
+        Path csv = new CsvGenerator(1).write(tempDir.resolve("benchmark.csv"), ROWS);
+        double megaBytes = Files.size(csv) / (1024.0 * 1024.0);
+        System.out.printf("File: %d rows, %.1f MB%n", ROWS, megaBytes);
+
+        int cores = MAX_THREADS;
+        double serialTime = 0;
+        for (int threads = 1; threads <= cores; threads = threads < cores && threads * 2 > cores ? cores : threads * 2) {
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                CsvCollector collector = new CsvCollector(csv.toFile());
+                collector.setParallelism(threads);
+                collector.setParallelThreshold(0);
+                // Operations are dropped: only parsing is measured
+                collector.setOperationSink(operations -> { });
+                collector.validate();
+                long start = System.nanoTime();
+                collector.collect(null);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            double seconds = best / 1e9;
+            if (threads == 1) {
+                serialTime = seconds;
+            }
+            System.out.printf("%2d thread(s): %6.3f s, %10.0f rows/s, %7.1f MB/s, speedup %.2f%n",
+                    threads, seconds, ROWS / seconds, megaBytes / seconds, serialTime / seconds);
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+}
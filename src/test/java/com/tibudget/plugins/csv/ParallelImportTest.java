@@ -0,0 +1,123 @@
+package com.tibudget.plugins.csv;
+
+import com.tibudget.api.exceptions.CollectError;
+import com.tibudget.api.exceptions.ParameterError;
+import com.tibudget.dto.OperationDto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelImportTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testParallelEqualsSerial() throws IOException, CollectError, ParameterError {
+        Path csv = new CsvGenerator(42).separator(';').write(tempDir.resolve("simple.csv"), 20000);
+        checkParallelEqualsSerial(csv);
+    }
+
+    @Test
+    public void testParallelWithQuotedLineBreaks() throws IOException, CollectError, ParameterError {
+        Path csv = new CsvGenerator(43).multiLineLabels(true).write(tempDir.resolve("multiline.csv"), 20000);
+        checkParallelEqualsSerial(csv);
+    }
+
+    @Test
+    public void testParallelWithStrayQuotes() throws IOException, CollectError, ParameterError {
+        // Quotes inside unquoted fields make the split wrong: the import must fall back to serial parsing
+        Path csv = new CsvGenerator(44).strayQuotes(true).multiLineLabels(true).separator('\t')
+                .write(tempDir.resolve("stray.csv"), 20000);
+        checkParallelEqualsSerial(csv);
+    }
+
+    @Test
+    public void testPendingOperationsAreBounded() throws IOException, CollectError, ParameterError {
+        int rows = 100_000;
+        int parallelism = 4;
+        long chunkSize = 64 * 1024;
+        Path csv = new CsvGenerator(46).write(tempDir.resolve("chunks.csv"), rows);
+        CsvCollector collector = new CsvCollector(csv.toFile());
+        collector.setParallelism(parallelism);
+        collector.setParallelThreshold(0);
+        collector.setChunkSize(chunkSize);
+        long[] sent = new long[1];
+        collector.setOperationSink(operations -> sent[0] += operations.size());
+        collector.validate();
+        collector.collect(null);
+
+        assertEquals(rows, sent[0]);
+        // At most 2 * parallelism chunks wait while one is sent, a chunk ends after the row crossing its bound
+        double rowsPerChunk = rows * (double) chunkSize / csv.toFile().length();
+        long bound = (long) ((2 * parallelism + 1) * (rowsPerChunk + 1));
+        long peak = collector.getPeakPendingOperations();
+        assertTrue(peak > 0);
+        assertTrue(peak <= bound, "Peak of pending operations: " + peak + " > " + bound);
+    }
+
+    @Test
+    public void testProgress() throws IOException, CollectError, ParameterError {
+        Path csv = new CsvGenerator(45).write(tempDir.resolve("progress.csv"), 20000);
+        for (int parallelism : new int[] { 1, 4 }) {
+            CsvCollector collector = new CsvCollector(csv.toFile());
+            assertNull(collector.getPhase());
+            assertEquals(0, collector.getProgress());
+            collector.setParallelism(parallelism);
+            collector.setParallelThreshold(0);
+            collector.setBatchSize(100);
+            List<Integer> progress = new ArrayList<>();
+            collector.setOperationSink(operations -> {
+                // Called by the import thread, progress is read as a polling thread would
+                assertEquals(100, collector.getProgress(CsvCollector.Phase.DETECTING));
+                assertTrue(collector.getProgress(CsvCollector.Phase.PARSING) >= collector.getProgress());
+                assertTrue(collector.getPhase() == CsvCollector.Phase.PARSING || collector.getPhase() == CsvCollector.Phase.EMITTING);
+                progress.add(collector.getProgress());
+            });
+            collector.validate();
+            collector.collect(null);
+            assertEquals(CsvCollector.Phase.DONE, collector.getPhase());
+            assertEquals(100, collector.getProgress());
+            for (int i = 1; i < progress.size(); i++) {
+                assertTrue(progress.get(i) >= progress.get(i - 1), "progress goes back");
+            }
+            // Progress moves during the import, not only at the end
+            assertTrue(progress.stream().anyMatch(value -> value > 10 && value < 90), progress.toString());
+        }
+    }
+
+    private void checkParallelEqualsSerial(Path csv) throws CollectError, ParameterError {
+        CsvCollector serial = new CsvCollector(csv.toFile());
+        serial.setParallelism(1);
+        serial.validate();
+        serial.collect(null);
+
+        for (int parallelism : new int[] { 2, 3, 8 }) {
+            CsvCollector parallel = new CsvCollector(csv.toFile());
+            parallel.setParallelism(parallelism);
+            parallel.setParallelThreshold(0);
+            parallel.setBatchSize(100);
+            parallel.validate();
+            parallel.collect(null);
+
+            List<OperationDto> expected = serial.getOperations();
+            List<OperationDto> actual = parallel.getOperations();
+            assertEquals(expected.size(), actual.size(), "operations count with " + parallelism + " threads");
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getLabel(), actual.get(i).getLabel(), "label #" + i);
+                assertEquals(expected.get(i).getAmount(), actual.get(i).getAmount(), "amount #" + i);
+                assertEquals(expected.get(i).getDateOperation(), actual.get(i).getDateOperation(), "date #" + i);
+                assertEquals(expected.get(i).getDateValue(), actual.get(i).getDateValue(), "value date #" + i);
+            }
+            // Exactly the same floating point additions in the same order
+            assertEquals(Double.doubleToLongBits(serial.getAccount().getCurrentBalance()),
+                    Double.doubleToLongBits(parallel.getAccount().getCurrentBalance()), "balance");
+        }
+    }
+}
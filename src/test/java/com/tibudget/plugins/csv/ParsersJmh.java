@@ -0,0 +1,55 @@
+package com.tibudget.plugins.csv;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of the amounts and dates of a generated file, as done by {@link CsvCollector} for each row. The time
+ * does not depend on the dialect, select one with <code>-p dialect=SEMICOLON</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParsersJmh {
+
+    private AmountParser amountParser;
+
+    private DateParser dateParser;
+
+    @Setup
+    public void compile() {
+        amountParser = AmountParser.compile("#.##", ',', 2);
+        dateParser = DateParser.compile("dd/MM/yyyy");
+    }
+
+    @Benchmark
+    public long parseAmounts(BankFileJmh file) {
+        long total = 0;
+        for (String amount : file.amounts) {
+            total += amountParser.parse(amount);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long parseDates(BankFileJmh file) {
+        long total = 0;
+        for (String date : file.dates) {
+            total += dateParser.parseEpochDay(date);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,50 @@
+package com.tibudget.plugins.csv;
+
+import com.tibudget.api.exceptions.CollectError;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RejectReportTest {
+
+    @Test
+    void testRingBuffer() {
+        RejectReport report = new RejectReport(3);
+        for (int i = 1; i <= 5; i++) {
+            report.add(rejected(i));
+        }
+        report.setRowCount(50);
+        assertEquals(5, report.getRejectedCount());
+        assertEquals(0.1, report.getRejectedRatio());
+        assertTrue(report.isTruncated());
+        List<RejectedRow> rows = report.getRejectedRows();
+        assertEquals(3, rows.size());
+        assertEquals(3, rows.get(0).getLineNumber());
+        assertEquals(5, rows.get(2).getLineNumber());
+    }
+
+    @Test
+    void testEmptyBuffer() {
+        RejectReport report = new RejectReport(0);
+        report.add(rejected(1));
+        assertEquals(1, report.getRejectedCount());
+        assertTrue(report.getRejectedRows().isEmpty());
+        assertEquals(0.0, report.getRejectedRatio());
+    }
+
+    @Test
+    void testLineIsDecoded() {
+        RejectedRow row = new RejectedRow(7, 120, "Total;;1 234,56\r\n".getBytes(StandardCharsets.UTF_8),
+                StandardCharsets.UTF_8, new CollectError("collect.error.generic"));
+        assertEquals("Total;;1 234,56", row.getLine());
+        assertSame(row.getLine(), row.getLine());
+    }
+
+    private static RejectedRow rejected(long lineNumber) {
+        return new RejectedRow(lineNumber, lineNumber * 10, ("row " + lineNumber + "\n").getBytes(StandardCharsets.UTF_8),
+                StandardCharsets.UTF_8, new CollectError("collect.error.generic"));
+    }
+}
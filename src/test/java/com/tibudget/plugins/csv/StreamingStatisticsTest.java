@@ -0,0 +1,66 @@
+package com.tibudget.plugins.csv;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingStatisticsTest {
+
+    @Test
+    void testEmpty() {
+        StreamingStatistics stat = new StreamingStatistics();
+        assertEquals(0, stat.getN());
+        assertTrue(Double.isNaN(stat.getMean()));
+        assertTrue(Double.isNaN(stat.getSum()));
+        assertTrue(Double.isNaN(stat.getStandardDeviation()));
+        assertTrue(Double.isNaN(stat.getMin()));
+        assertTrue(Double.isNaN(stat.getMax()));
+    }
+
+    @Test
+    void testSingleValue() {
+        StreamingStatistics stat = new StreamingStatistics();
+        stat.addValue(4.5);
+        assertEquals(1, stat.getN());
+        assertEquals(4.5, stat.getMean());
+        assertEquals(0.0, stat.getVariance());
+        assertEquals(4.5, stat.getMin());
+        assertEquals(4.5, stat.getMax());
+    }
+
+    @Test
+    void testValues() {
+        StreamingStatistics stat = new StreamingStatistics();
+        for (double value : new double[] { 2, 4, 4, 4, 5, 5, 7, 9 }) {
+            stat.addValue(value);
+        }
+        assertEquals(8, stat.getN());
+        assertEquals(40.0, stat.getSum());
+        assertEquals(5.0, stat.getMean(), 1e-12);
+        // Sample variance: 32 / 7
+        assertEquals(32.0 / 7, stat.getVariance(), 1e-12);
+        assertEquals(Math.sqrt(32.0 / 7), stat.getStandardDeviation(), 1e-12);
+        assertEquals(2.0, stat.getMin());
+        assertEquals(9.0, stat.getMax());
+    }
+
+    @Test
+    void testConstantValuesHaveNoDeviation() {
+        StreamingStatistics stat = new StreamingStatistics();
+        for (int i = 0; i < 1000; i++) {
+            stat.addValue(10.0);
+        }
+        // Fixed length columns are detected with an exact comparison
+        assertEquals(0.0, stat.getStandardDeviation());
+    }
+
+    @Test
+    void testLargeOffset() {
+        // Epoch days of dates: the variance must not be lost in the magnitude of the values
+        StreamingStatistics stat = new StreamingStatistics();
+        for (int i = 0; i < 100; i++) {
+            stat.addValue(1e9 + (i % 2));
+        }
+        assertEquals(0.25 * 100 / 99, stat.getVariance(), 1e-9);
+    }
+}
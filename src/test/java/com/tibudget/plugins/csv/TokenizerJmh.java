@@ -0,0 +1,52 @@
+package com.tibudget.plugins.csv;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading all the rows of a file with {@link CsvTokenizer}, with and without decoding the fields.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TokenizerJmh {
+
+    @Benchmark
+    public long readRows(BankFileJmh file, BankFileJmh.Counters counters) throws IOException {
+        long fields = 0;
+        try (CsvTokenizer tokenizer = new CsvTokenizer(file.file, file.dialect.separator, file.dialect.charset)) {
+            while (tokenizer.next()) {
+                fields += tokenizer.row().fieldCount();
+                counters.rows++;
+            }
+        }
+        counters.bytes += file.bytes;
+        return fields;
+    }
+
+    @Benchmark
+    public void readFields(BankFileJmh file, BankFileJmh.Counters counters, Blackhole blackhole) throws IOException {
+        try (CsvTokenizer tokenizer = new CsvTokenizer(file.file, file.dialect.separator, file.dialect.charset)) {
+            CsvRow row = tokenizer.row();
+            while (tokenizer.next()) {
+                for (int i = 0; i < row.fieldCount(); i++) {
+                    CharSequence field = row.field(i);
+                    blackhole.consume(field.length() > 0 ? field.charAt(0) : 0);
+                }
+                counters.rows++;
+            }
+        }
+        counters.bytes += file.bytes;
+    }
+}
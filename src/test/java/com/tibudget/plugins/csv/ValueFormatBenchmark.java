@@ -0,0 +1,88 @@
+package com.tibudget.plugins.csv;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.ParsePosition;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Classification of the cells of the <code>import-*.csv</code> fixtures (repeated to get enough values) with the
+ * former regex and {@link DecimalFormat} trials and with {@link ValueFormatUtils#classify(CharSequence)}. Run it
+ * with <code>mvn test -Pbenchmark</code>.
+ */
+@Tag("benchmark")
+public class ValueFormatBenchmark {
+
+    private static final int VALUES = Integer.getInteger("benchmark.rows", 1_000_000);
+
+    private static final int RUNS = 5;
+
+    private static final String[] FIXTURES = new String[] {
+            "import-cic.csv", "import-cic-2.csv", "import-comma-dv-do-l-c-d.csv", "import-nrow.csv",
+            "import-semi-colon-do-dv-m-l.csv", "import-tab-dv-l-c-d.csv"
+    };
+
+    private static final String VALUE_REGEX =
+            "^[\\s]*[-+]?[^a-zA-Z0-9]*([0-9]{1,3}([.,\\s][0-9]{3})*|[0-9]+)([.,][0-9]{1,2})?[^a-zA-Z0-9]*[\\s]*$";
+
+    @Test
+    public void benchmarkClassification() throws IOException {
+        List<String> cells = new ArrayList<>();
+        for (String fixture : FIXTURES) {
+            File file = new File("target/test-classes/" + fixture);
+            CsvFormat format = CsvFormatAnalyzer.findFormat(file);
+            try (CsvTokenizer tokenizer = new CsvTokenizer(file, format.getColSeparator().getCharacter())) {
+                while (tokenizer.next()) {
+                    for (String field : tokenizer.row().fields()) {
+                        cells.add(field);
+                    }
+                }
+            }
+        }
+        String[] values = new String[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            values[i] = cells.get(i % cells.size());
+        }
+        System.out.printf("%d values (%d distinct cells from the fixtures)%n", VALUES, cells.size());
+
+        int count = 0;
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (String value : values) {
+                if (value.matches(VALUE_REGEX)) {
+                    for (char separator : new char[] { '.', ',' }) {
+                        DecimalFormatSymbols symb = new DecimalFormatSymbols(Locale.US);
+                        symb.setDecimalSeparator(separator);
+                        ParsePosition pp = new ParsePosition(0);
+                        if (new DecimalFormat("#.#", symb).parse(value, pp) != null && pp.getIndex() == value.length()) {
+                            count++;
+                        }
+                    }
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double formerTime = best / (double) VALUES;
+        System.out.printf("Regex + DecimalFormat: %8.1f ns/value%n", formerTime);
+
+        best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (String value : values) {
+                count += ValueFormatUtils.classify(value).getType().ordinal();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double classifierTime = best / (double) VALUES;
+        System.out.printf("Classifier:            %8.1f ns/value, %.1fx faster (%d)%n",
+                classifierTime, formerTime / classifierTime, count);
+    }
+}
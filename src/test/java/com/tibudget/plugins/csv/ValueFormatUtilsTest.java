@@ -6,6 +6,7 @@ import java.text.DecimalFormat;
 import java.util.Arrays;
 import java.util.Set;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -49,4 +50,56 @@ public class ValueFormatUtilsTest {
         assertTrue(ValueFormatUtils.doesNotLookLikeAValue(null));
         assertTrue(ValueFormatUtils.doesNotLookLikeAValue("12,34.56")); // Invalid format
     }
+
+    @Test
+    public void testClassify() {
+        assertClassification("12.5", ValueFormatUtils.ValueType.DOT_DECIMAL, ValueFormatUtils.Grouping.NONE);
+        assertClassification("-0,99", ValueFormatUtils.ValueType.COMMA_DECIMAL, ValueFormatUtils.Grouping.NONE);
+        assertClassification("-101.1", ValueFormatUtils.ValueType.DOT_DECIMAL, ValueFormatUtils.Grouping.NONE);
+        assertClassification("1234,567", ValueFormatUtils.ValueType.COMMA_DECIMAL, ValueFormatUtils.Grouping.NONE);
+        assertClassification("-12.231.000,12$", ValueFormatUtils.ValueType.COMMA_DECIMAL, ValueFormatUtils.Grouping.DOT);
+        assertClassification("₹ 1,234.00", ValueFormatUtils.ValueType.DOT_DECIMAL, ValueFormatUtils.Grouping.COMMA);
+        assertClassification("+1 234 567.89", ValueFormatUtils.ValueType.DOT_DECIMAL, ValueFormatUtils.Grouping.SPACE);
+        assertClassification("1\u00A0234,56 €", ValueFormatUtils.ValueType.COMMA_DECIMAL, ValueFormatUtils.Grouping.SPACE);
+        assertClassification("1'234.5", ValueFormatUtils.ValueType.DOT_DECIMAL, ValueFormatUtils.Grouping.APOSTROPHE);
+        assertClassification("1,234,567", ValueFormatUtils.ValueType.DOT_DECIMAL, ValueFormatUtils.Grouping.COMMA);
+        assertClassification("1.234.567", ValueFormatUtils.ValueType.COMMA_DECIMAL, ValueFormatUtils.Grouping.DOT);
+        // Both separators are possible
+        assertClassification("12", ValueFormatUtils.ValueType.AMBIGUOUS, ValueFormatUtils.Grouping.NONE);
+        assertClassification("1,234", ValueFormatUtils.ValueType.AMBIGUOUS, ValueFormatUtils.Grouping.NONE);
+        assertClassification("1 234", ValueFormatUtils.ValueType.AMBIGUOUS, ValueFormatUtils.Grouping.SPACE);
+        // Not numbers
+        for (String value : new String[] { "22/02/2012", "2012-02-22", "22.02.2012", "12.", "12 34", "1,23,456",
+                "1.234.56", "12 EUR", "--12", "12-", "1 234'567", "€12€" }) {
+            assertEquals(ValueFormatUtils.ValueType.NOT_A_NUMBER, ValueFormatUtils.classify(value).getType(), value);
+        }
+    }
+
+    @Test
+    public void testDetermineValueFormat() {
+        Set<DecimalFormat> formats = ValueFormatUtils.determineValueFormat(Arrays.asList("12", "1,234", "-101.1"));
+        assertEquals(1, formats.size());
+        assertEquals('.', formats.iterator().next().getDecimalFormatSymbols().getDecimalSeparator());
+
+        formats = ValueFormatUtils.determineValueFormat(Arrays.asList("12", "1,234"));
+        assertEquals(2, formats.size());
+        assertEquals('.', formats.iterator().next().getDecimalFormatSymbols().getDecimalSeparator());
+
+        assertTrue(ValueFormatUtils.determineValueFormat(Arrays.asList("12,5", "-101.1")).isEmpty());
+    }
+
+    @Test
+    public void testDetermineValueFormatStopsWithEnoughEvidence() {
+        // The value after the evidence is not read
+        Set<DecimalFormat> formats = ValueFormatUtils.determineValueFormat(Arrays.asList("12", "-101.1", "2.5", "1,5"), 2);
+        assertEquals(1, formats.size());
+        assertEquals('.', formats.iterator().next().getDecimalFormatSymbols().getDecimalSeparator());
+        assertTrue(ValueFormatUtils.determineValueFormat(Arrays.asList("12", "-101.1", "2.5", "1,5")).isEmpty());
+    }
+
+    private static void assertClassification(String value, ValueFormatUtils.ValueType type, ValueFormatUtils.Grouping grouping) {
+        ValueFormatUtils.Classification classification = ValueFormatUtils.classify(value);
+        assertEquals(type, classification.getType(), value);
+        assertEquals(grouping, classification.getGrouping(), value);
+    }
 }